@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.media.AudioManager;
+import android.os.Build;
+import android.os.SystemClock;
+
+import java.lang.reflect.Field;
+
+import com.p1ngu1n.volumesteps.core.ActiveStreamCache;
+import com.p1ngu1n.volumesteps.core.HookDiagnostics;
+import com.p1ngu1n.volumesteps.core.MusicActivityTracker;
+import com.p1ngu1n.volumesteps.core.ResolvedAudioServiceProbe;
+import com.p1ngu1n.volumesteps.core.TraceEvents;
+import com.p1ngu1n.volumesteps.core.VolumeConfig;
+import com.p1ngu1n.volumesteps.core.VolumePolicy;
+
+import de.robv.android.xposed.XC_MethodHook;
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Hook on AudioService.getActiveStreamType which makes the volume keys control the music stream.
+ * The decision itself is made by VolumePolicy, its queries on the real AudioService are answered by
+ * a ResolvedAudioServiceProbe, which resolves all methods and fields used while handling a key press once,
+ * when the hook is created. The decision is cached between the events which change it, so a burst of key
+ * repeats is evaluated once.
+ */
+class ActiveStreamTypeHook extends TimedMethodHook {
+    // Methods after which the cached decision is no longer valid
+    private static final String[] INVALIDATING_METHODS = {
+            "setMode",
+            "requestAudioFocus",
+            "abandonAudioFocus",
+            "registerRemoteControlClient",
+            "unregisterRemoteControlClient",
+            "setPlaybackInfoForRcc",
+            "setRemoteStreamVolume"
+    };
+
+    private final VolumeController mController;
+    private final ActiveStreamCache mCache = new ActiveStreamCache();
+    private final ResolvedAudioServiceProbe mProbe;
+    private final Tracer mTracer;
+    private final HookDiagnostics mDiagnostics;
+    private final Field mMode;
+
+    /**
+     * Resolves the invocation plan for the SDK this device is running.
+     * @param audioServiceClass The AudioService class to resolve the members of
+     * @param controller The controller holding the active configuration
+     * @param tracker The tracker which knows whether music is playing
+     */
+    ActiveStreamTypeHook(Class<?> audioServiceClass, VolumeController controller, MusicActivityTracker tracker) {
+        super(controller.getDiagnostics(), HookDiagnostics.HOOK_GET_ACTIVE_STREAM_TYPE);
+        mController = controller;
+        mTracer = controller.getTracer();
+        mDiagnostics = controller.getDiagnostics();
+        mMode = XposedHelpers.findField(audioServiceClass, "mMode");
+        mProbe = new ResolvedAudioServiceProbe(audioServiceClass, Build.VERSION.SDK_INT, tracker) {
+            @Override
+            protected long now() {
+                return SystemClock.uptimeMillis();
+            }
+        };
+    }
+
+    @Override
+    protected void before(MethodHookParam param) throws Throwable {
+        VolumeConfig config = mController.getConfig();
+        if (!config.isVolumeKeysControlMusic()) {
+            mDiagnostics.countReason(HookDiagnostics.REASON_DISABLED);
+            return;
+        }
+
+        int suggestedStreamType = (Integer) param.args[0];
+        int mode = mMode.getInt(param.thisObject);
+        int result = mCache.decide(suggestedStreamType, mode, config.getMusicActiveWindowMs(),
+                SystemClock.uptimeMillis(), param.thisObject, mProbe);
+        mTracer.record(TraceEvents.ACTIVE_STREAM, suggestedStreamType, result);
+        mDiagnostics.countReason(result);
+        if (!VolumePolicy.controlsMusic(result)) return;
+
+        param.setResult(AudioManager.STREAM_MUSIC);
+    }
+
+    /**
+     * Hook the methods which change the state the cached decision depends on.
+     * Methods which don't exist on this Android version are skipped.
+     * @param audioServiceClass The AudioService class
+     */
+    void hookInvalidatingMethods(Class<?> audioServiceClass) {
+        XC_MethodHook invalidator = new TimedMethodHook(mDiagnostics, HookDiagnostics.HOOK_INVALIDATE) {
+            @Override
+            protected void after(MethodHookParam param) throws Throwable {
+                mCache.invalidate();
+            }
+        };
+
+        for (String methodName : INVALIDATING_METHODS) {
+            XposedBridge.hookAllMethods(audioServiceClass, methodName, invalidator);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.os.Binder;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import com.p1ngu1n.volumesteps.core.HookDiagnostics;
+
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Tells the VolumeController which app became active, so its profile can be applied. An app becomes active when
+ * it is granted audio focus or starts playing through a remote control client or media session. The calls arrive
+ * on binder threads of the app, except for media sessions, of which the owner is stored in the session record.
+ */
+class AppProfileHooks {
+    // AudioManager.AUDIOFOCUS_REQUEST_GRANTED
+    private static final int AUDIOFOCUS_REQUEST_GRANTED = 1;
+    // RemoteControlClient.PLAYSTATE_PLAYING and PlaybackState.STATE_PLAYING
+    private static final int STATE_PLAYING = 3;
+
+    private AppProfileHooks() { }
+
+    /**
+     * Install the hooks, sources which don't exist on this Android version are skipped.
+     * @param audioServiceClass The AudioService class
+     * @param classLoader The class loader of system_server
+     * @param controller The controller applying the profiles
+     */
+    static void install(Class<?> audioServiceClass, ClassLoader classLoader, final VolumeController controller) {
+        HookDiagnostics diagnostics = controller.getDiagnostics();
+
+        XposedBridge.hookAllMethods(audioServiceClass, "requestAudioFocus", new TimedMethodHook(diagnostics, HookDiagnostics.HOOK_APP_PROFILE) {
+            @Override
+            protected void after(MethodHookParam param) throws Throwable {
+                Object result = param.getResult();
+                if (result instanceof Integer && (Integer) result == AUDIOFOCUS_REQUEST_GRANTED) {
+                    controller.onAppActive(Binder.getCallingUid());
+                }
+            }
+        });
+
+        // setPlaybackStateForRcc(int rccId, int state, ...), before Lollipop
+        XposedBridge.hookAllMethods(audioServiceClass, "setPlaybackStateForRcc", new TimedMethodHook(diagnostics, HookDiagnostics.HOOK_APP_PROFILE) {
+            @Override
+            protected void after(MethodHookParam param) throws Throwable {
+                if ((Integer) param.args[1] == STATE_PLAYING) controller.onAppActive(Binder.getCallingUid());
+            }
+        });
+
+        hookMediaSessions(classLoader, controller, diagnostics);
+    }
+
+    /**
+     * Media sessions exist since Lollipop, before that the classes aren't found.
+     */
+    private static void hookMediaSessions(ClassLoader classLoader, final VolumeController controller, HookDiagnostics diagnostics) {
+        Class<?> sessionStubClass;
+        final Field ownerUid;
+        final Method getState;
+        try {
+            sessionStubClass = XposedHelpers.findClass("com.android.server.media.MediaSessionRecord$SessionStub", classLoader);
+            Class<?> sessionRecordClass = XposedHelpers.findClass("com.android.server.media.MediaSessionRecord", classLoader);
+            ownerUid = XposedHelpers.findField(sessionRecordClass, "mOwnerUid");
+            getState = XposedHelpers.findMethodExact("android.media.session.PlaybackState", classLoader, "getState");
+        } catch (XposedHelpers.ClassNotFoundError | NoSuchFieldError | NoSuchMethodError e) {
+            return;
+        }
+
+        XposedBridge.hookAllMethods(sessionStubClass, "setPlaybackState", new TimedMethodHook(diagnostics, HookDiagnostics.HOOK_APP_PROFILE) {
+            @Override
+            protected void after(MethodHookParam param) throws Throwable {
+                Object playbackState = param.args[0];
+                if (playbackState == null || (Integer) getState.invoke(playbackState) != STATE_PLAYING) return;
+                controller.onAppActive(ownerUid.getInt(XposedHelpers.getSurroundingThis(param.thisObject)));
+            }
+        });
+    }
+}
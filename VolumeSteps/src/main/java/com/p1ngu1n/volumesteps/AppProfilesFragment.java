@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.app.AlertDialog;
+import android.app.ListFragment;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.p1ngu1n.volumesteps.core.AppProfile;
+import com.p1ngu1n.volumesteps.core.PreferenceRules;
+import com.p1ngu1n.volumesteps.core.StepRange;
+import com.p1ngu1n.volumesteps.core.StepTable;
+
+/**
+ * Fragment listing the app profiles, the first entry adds a profile for an installed app.
+ * The profiles are stored as a single preference and compiled into the binary config when the fragment is left.
+ */
+public class AppProfilesFragment extends ListFragment {
+    private static final String PREF_APP_PROFILES = "pref_app_profiles";
+    // Same range as the volume steps preferences
+    private final List<AppProfile> mProfiles = new ArrayList<AppProfile>();
+    private final List<String> mLines = new ArrayList<String>();
+    private ArrayAdapter<String> mAdapter;
+    private SharedPreferences mPrefs;
+    // Titles of the streams, indexed by stream type
+    private String[] mStreamTitles;
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+        mStreamTitles = getResources().getStringArray(R.array.stream_titles);
+        mPrefs = getActivity().getSharedPreferences(getPrefsName(), Context.MODE_WORLD_READABLE);
+        mProfiles.addAll(Arrays.asList(AppProfile.parse(mPrefs.getString(PREF_APP_PROFILES, null))));
+
+        mAdapter = new ArrayAdapter<String>(getActivity(), android.R.layout.simple_list_item_1, mLines);
+        setListAdapter(mAdapter);
+        refresh();
+    }
+
+    @Override
+    public void onListItemClick(ListView listView, View view, int position, long id) {
+        if (position == 0) {
+            showAppChooser();
+        } else {
+            AppProfile profile = mProfiles.get(position - 1);
+            // The uid changes when the app is reinstalled
+            showEditor(position - 1, profile.getPackageName(), getUid(profile.getPackageName(), profile.getAppId()), profile);
+        }
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+
+        File sharedPrefsDir = new File(getActivity().getApplicationInfo().dataDir, "shared_prefs");
+        ConfigWriter.publish(sharedPrefsDir, getPrefsName(), mPrefs);
+    }
+
+    private void refresh() {
+        mLines.clear();
+        mLines.add(getString(R.string.app_profile_add));
+        for (AppProfile profile : mProfiles) {
+            mLines.add(getLabel(profile.getPackageName()) + "\n" + describe(profile));
+        }
+        mAdapter.notifyDataSetChanged();
+    }
+
+    private void save() {
+        String value = AppProfile.format(mProfiles.toArray(new AppProfile[mProfiles.size()]));
+        mPrefs.edit().putString(PREF_APP_PROFILES, value).apply();
+        refresh();
+    }
+
+    /**
+     * Show the apps which can be launched, sorted by their label.
+     */
+    private void showAppChooser() {
+        final PackageManager packageManager = getActivity().getPackageManager();
+        final List<ApplicationInfo> apps = new ArrayList<ApplicationInfo>();
+        for (ApplicationInfo app : packageManager.getInstalledApplications(0)) {
+            if (packageManager.getLaunchIntentForPackage(app.packageName) != null) apps.add(app);
+        }
+
+        final List<String> labels = new ArrayList<String>();
+        Collections.sort(apps, new Comparator<ApplicationInfo>() {
+            @Override
+            public int compare(ApplicationInfo a, ApplicationInfo b) {
+                return a.loadLabel(packageManager).toString().compareToIgnoreCase(b.loadLabel(packageManager).toString());
+            }
+        });
+        for (ApplicationInfo app : apps) {
+            labels.add(app.loadLabel(packageManager).toString());
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        builder.setTitle(R.string.app_profile_add);
+        builder.setItems(labels.toArray(new CharSequence[labels.size()]), new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int which) {
+                ApplicationInfo app = apps.get(which);
+                showEditor(indexOf(app.packageName), app.packageName, app.uid, null);
+            }
+        });
+        builder.setNegativeButton(android.R.string.cancel, null);
+        builder.show();
+    }
+
+    /**
+     * Show the steps and volumes of a profile.
+     * @param index The position of the profile in the list, -1 for a new profile
+     */
+    private void showEditor(final int index, final String packageName, final int uid, AppProfile profile) {
+        View dialogView = View.inflate(getActivity(), R.layout.app_profile_dialog, null);
+        ViewGroup streams = (ViewGroup) dialogView.findViewById(R.id.app_profile_streams);
+        final EditText[] stepsFields = new EditText[StepTable.CONFIGURABLE_STREAMS];
+        final EditText[] levelFields = new EditText[StepTable.CONFIGURABLE_STREAMS];
+        for (int streamType = 0; streamType < StepTable.CONFIGURABLE_STREAMS; streamType++) {
+            View row = View.inflate(getActivity(), R.layout.app_profile_row, null);
+            ((TextView) row.findViewById(R.id.app_profile_stream)).setText(mStreamTitles[streamType]);
+            stepsFields[streamType] = (EditText) row.findViewById(R.id.app_profile_steps);
+            levelFields[streamType] = (EditText) row.findViewById(R.id.app_profile_level);
+            if (profile != null && profile.getSteps(streamType) != AppProfile.UNCHANGED) {
+                stepsFields[streamType].setText(String.valueOf(profile.getSteps(streamType)));
+            }
+            if (profile != null && profile.getLevel(streamType) != AppProfile.UNCHANGED) {
+                levelFields[streamType].setText(String.valueOf(profile.getLevel(streamType)));
+            }
+            streams.addView(row);
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        builder.setTitle(getLabel(packageName));
+        builder.setView(dialogView);
+        builder.setPositiveButton(R.string.save, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int which) {
+                AppProfile newProfile = new AppProfile(packageName, uid,
+                        readValues(stepsFields, PreferenceRules.STEPS), readValues(levelFields, PreferenceRules.LEVEL));
+                if (index < 0) {
+                    mProfiles.add(newProfile);
+                } else {
+                    mProfiles.set(index, newProfile);
+                }
+                save();
+            }
+        });
+        if (index >= 0) {
+            builder.setNeutralButton(R.string.delete, new DialogInterface.OnClickListener() {
+                public void onClick(DialogInterface dialog, int which) {
+                    mProfiles.remove(index);
+                    save();
+                }
+            });
+        }
+        builder.setNegativeButton(android.R.string.cancel, null);
+        builder.show();
+    }
+
+    /**
+     * Read the value of each stream, empty fields leave the stream unchanged and other values are clamped.
+     */
+    private static int[] readValues(EditText[] fields, StepRange range) {
+        int[] values = new int[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            try {
+                values[i] = Math.max(range.getMin(), Math.min(range.getMax(), Integer.parseInt(fields[i].getText().toString())));
+            } catch (NumberFormatException e) {
+                values[i] = AppProfile.UNCHANGED;
+            }
+        }
+        return values;
+    }
+
+    private String describe(AppProfile profile) {
+        StringBuilder builder = new StringBuilder();
+        for (int streamType = 0; streamType < StepTable.CONFIGURABLE_STREAMS; streamType++) {
+            int steps = profile.getSteps(streamType);
+            int level = profile.getLevel(streamType);
+            if (steps == AppProfile.UNCHANGED && level == AppProfile.UNCHANGED) continue;
+
+            String change;
+            if (level == AppProfile.UNCHANGED) {
+                change = getString(R.string.app_profile_steps_format, steps);
+            } else if (steps == AppProfile.UNCHANGED) {
+                change = getString(R.string.app_profile_level_format, level);
+            } else {
+                change = getString(R.string.app_profile_steps_format, steps) + ", " + getString(R.string.app_profile_level_format, level);
+            }
+            if (builder.length() > 0) builder.append('\n');
+            builder.append(getString(R.string.app_profile_stream_format, mStreamTitles[streamType], change));
+        }
+        return (builder.length() > 0 ? builder.toString() : getString(R.string.app_profile_unchanged));
+    }
+
+    private int indexOf(String packageName) {
+        for (int i = 0; i < mProfiles.size(); i++) {
+            if (mProfiles.get(i).getPackageName().equals(packageName)) return i;
+        }
+        return -1;
+    }
+
+    private String getLabel(String packageName) {
+        PackageManager packageManager = getActivity().getPackageManager();
+        try {
+            return packageManager.getApplicationLabel(packageManager.getApplicationInfo(packageName, 0)).toString();
+        } catch (PackageManager.NameNotFoundException e) {
+            return packageName;
+        }
+    }
+
+    private int getUid(String packageName, int defValue) {
+        try {
+            return getActivity().getPackageManager().getApplicationInfo(packageName, 0).uid;
+        } catch (PackageManager.NameNotFoundException e) {
+            return defValue;
+        }
+    }
+
+    private String getPrefsName() {
+        return getActivity().getPackageName() + "_preferences";
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.os.Environment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.p1ngu1n.volumesteps.core.ConfigCodec;
+import com.p1ngu1n.volumesteps.core.VolumeConfig;
+
+import de.robv.android.xposed.XSharedPreferences;
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Loads the configuration inside system_server. The binary config compiled by the settings app is memory-mapped
+ * and decoded in one pass, the preferences XML is only parsed when the binary config is missing, corrupt, or was
+ * compiled from other preferences than the ones next to it.
+ * Nothing read from the files is kept, the loaded configuration holds only primitives.
+ */
+class ConfigLoader {
+    private static final String LOG_TAG = "VolumeSteps+: ";
+    // UserHandle.USER_OWNER, the user which is current at boot
+    static final int USER_OWNER = 0;
+
+    private final File mDirectory;
+    private final File mBinaryFile;
+    private final File mPrefsFile;
+
+    /**
+     * @param userId The user of which the settings app wrote the preferences, nothing is read until load is called
+     */
+    ConfigLoader(int userId) {
+        // The data directory of the settings app for the user, the owner's is the one XSharedPreferences uses
+        String dataDir = (userId == USER_OWNER ? "data/" : "user/" + userId + "/") + BuildConfig.APPLICATION_ID;
+        mDirectory = new File(Environment.getDataDirectory(), dataDir + "/shared_prefs");
+        mBinaryFile = new File(mDirectory, ConfigCodec.FILE_NAME);
+        mPrefsFile = new File(mDirectory, BuildConfig.APPLICATION_ID + "_preferences.xml");
+    }
+
+    /**
+     * @return The directory containing the preferences and the binary config
+     */
+    File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * @param fileName The name of a file in the directory
+     * @return Whether a change of the file can change the configuration
+     */
+    boolean isConfigFile(String fileName) {
+        return ConfigCodec.FILE_NAME.equals(fileName) || mPrefsFile.getName().equals(fileName);
+    }
+
+    /**
+     * Load the configuration, from the binary config if it is valid and from the preferences XML otherwise.
+     * @return The loaded configuration
+     */
+    VolumeConfig load() {
+        if (mBinaryFile.exists()) {
+            try {
+                return loadBinary(stampPreferences());
+            } catch (Exception e) {
+                XposedBridge.log(LOG_TAG + "Unable to load " + mBinaryFile + ", using the preferences: " + e.getMessage());
+            }
+        }
+
+        // Not kept, the parsed preferences would stay resident in system_server until the next reload
+        XSharedPreferences prefs = new XSharedPreferences(mPrefsFile);
+        return VolumeConfig.load(new PreferencesConfigSource(prefs));
+    }
+
+    private VolumeConfig loadBinary(long source) throws Exception {
+        FileInputStream in = new FileInputStream(mBinaryFile);
+        try {
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return ConfigCodec.decode(buffer, source);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read the preferences XML without parsing it, to check the binary config was compiled from it.
+     * @return The stamp of the preferences, NO_SOURCE if there are none
+     */
+    private long stampPreferences() throws IOException {
+        if (!mPrefsFile.exists()) return ConfigCodec.NO_SOURCE;
+        return ConfigWriter.stamp(mPrefsFile);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.p1ngu1n.volumesteps.core.ConfigCodec;
+import com.p1ngu1n.volumesteps.core.VolumeConfig;
+
+/**
+ * Compiles the preferences into the binary config loaded by the module.
+ */
+class ConfigWriter {
+    private static final String LOG_TAG = "VolumeSteps+";
+
+    private ConfigWriter() { }
+
+    /**
+     * Make the preferences file readable for the module and compile it into the binary config. The directory is
+     * made readable as well, the module can't watch it for changes otherwise.
+     * @param sharedPrefsDir The directory containing the preferences file
+     * @param prefsName The name of the preferences file, without extension
+     * @param prefs The preferences to compile
+     */
+    static void publish(File sharedPrefsDir, String prefsName, SharedPreferences prefs) {
+        // Changes made with apply() are written in the background, an empty commit waits until they are on disk
+        prefs.edit().commit();
+
+        File sharedPrefsFile = new File(sharedPrefsDir, prefsName + ".xml");
+        if (sharedPrefsFile.exists()) {
+            sharedPrefsFile.setReadable(true, false);
+        }
+        if (sharedPrefsDir.exists()) {
+            sharedPrefsDir.setReadable(true, false);
+        }
+
+        // Compile the preferences for the module, so it doesn't have to parse them
+        if (sharedPrefsDir.exists()) {
+            write(sharedPrefsDir, sharedPrefsFile, prefs);
+        }
+    }
+
+    /**
+     * Write the binary config next to the preferences file, stamped with the preferences file so the module ignores
+     * it once the preferences are replaced without it. It is written to a temporary file first and then renamed, so
+     * the module never sees a partially written config.
+     * @param sharedPrefsDir The directory containing the preferences file
+     * @param sharedPrefsFile The preferences file, as written by the preferences
+     * @param prefs The preferences to compile
+     */
+    static void write(File sharedPrefsDir, File sharedPrefsFile, SharedPreferences prefs) {
+        File configFile = new File(sharedPrefsDir, ConfigCodec.FILE_NAME);
+        File tempFile = new File(sharedPrefsDir, ConfigCodec.FILE_NAME + ".tmp");
+        try {
+            long source = (sharedPrefsFile.exists() ? stamp(sharedPrefsFile) : ConfigCodec.NO_SOURCE);
+            byte[] data = ConfigCodec.encode(VolumeConfig.load(new PreferencesConfigSource(prefs)), source);
+            FileOutputStream out = new FileOutputStream(tempFile);
+            try {
+                out.write(data);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            tempFile.setReadable(true, false);
+            if (!tempFile.renameTo(configFile)) throw new IOException("Unable to rename " + tempFile);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to write the binary config", e);
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * @param sharedPrefsFile The preferences file
+     * @return The stamp of the content of the file, see ConfigCodec.stamp
+     */
+    static long stamp(File sharedPrefsFile) throws IOException {
+        FileInputStream in = new FileInputStream(sharedPrefsFile);
+        try {
+            byte[] content = new byte[(int) sharedPrefsFile.length()];
+            int length = 0;
+            int read;
+            while (length < content.length && (read = in.read(content, length, content.length - length)) > 0) {
+                length += read;
+            }
+            return ConfigCodec.stamp(content, length);
+        } finally {
+            in.close();
+        }
+    }
+}
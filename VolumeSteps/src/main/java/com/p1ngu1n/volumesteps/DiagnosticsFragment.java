@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.app.ListFragment;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Bundle;
+import android.widget.ArrayAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.p1ngu1n.volumesteps.core.HookDiagnostics;
+
+/**
+ * Fragment showing the time spent in each hook of the module and why calls were left untouched.
+ * The diagnostics are requested from the module each time the fragment is shown.
+ */
+public class DiagnosticsFragment extends ListFragment {
+    private final List<String> mLines = new ArrayList<String>();
+    private ArrayAdapter<String> mAdapter;
+
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+        mAdapter = new ArrayAdapter<String>(getActivity(), android.R.layout.simple_list_item_1, mLines);
+        setListAdapter(mAdapter);
+        setEmptyText(getString(R.string.diagnostics_empty));
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        getActivity().registerReceiver(mDiagnosticsReceiver, new IntentFilter(StatusReceiver.ACTION_DIAGNOSTICS));
+        getActivity().sendBroadcast(new Intent(StatusReceiver.ACTION_REQUEST_DIAGNOSTICS));
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        getActivity().unregisterReceiver(mDiagnosticsReceiver);
+    }
+
+    private final BroadcastReceiver mDiagnosticsReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            long[] export = intent.getLongArrayExtra(StatusReceiver.EXTRA_DIAGNOSTICS);
+            if (export == null || export.length != HookDiagnostics.EXPORT_SIZE) return;
+
+            mLines.clear();
+            mLines.addAll(Arrays.asList(HookDiagnostics.describe(export)));
+            mAdapter.notifyDataSetChanged();
+        }
+    };
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.os.Build;
+import android.os.Environment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Properties;
+
+import com.p1ngu1n.volumesteps.core.HookProfile;
+
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Finds the members to hook on this build of Android. The result of probing is cached in /data/system, keyed by
+ * the build fingerprint, so probing only happens on the first boot after an update.
+ */
+class HookProfiles {
+    private static final String LOG_TAG = "VolumeSteps+: ";
+    private static final String PROFILE_FILE = "volumesteps_profile.properties";
+
+    // AudioService moved to services.jar in Marshmallow, LG's stock KitKat roms construct a subclass with its own array
+    private static final String[] AUDIO_SERVICE_CLASSES = {
+            "com.android.server.audio.AudioService",
+            "android.media.AudioServiceEx",
+            "android.media.AudioService"
+    };
+    private static final String[] MAX_STREAM_VOLUME_FIELDS = { "MAX_STREAM_VOLUME_Ex", "MAX_STREAM_VOLUME" };
+    private static final String LG_AUDIO_SERVICE_CLASS = "android.media.AudioServiceEx";
+
+    private HookProfiles() { }
+
+    /**
+     * Get the profile of this build, from the cache or by probing.
+     * @param classLoader The class loader of system_server
+     * @param compatibilityModeLG Whether the user forces the LG compatibility mode
+     * @param debugging Whether to log how the profile was found
+     * @return The profile
+     * @throws IllegalStateException If no candidate matches
+     */
+    static HookProfile get(ClassLoader classLoader, boolean compatibilityModeLG, boolean debugging) {
+        if (compatibilityModeLG) {
+            return probe(classLoader, new String[] { LG_AUDIO_SERVICE_CLASS });
+        }
+
+        File file = new File(new File(Environment.getDataDirectory(), "system"), PROFILE_FILE);
+        HookProfile profile = read(file);
+        if (profile != null) {
+            if (debugging) XposedBridge.log(LOG_TAG + "Using cached hook profile " + profile);
+            return profile;
+        }
+
+        profile = probe(classLoader, AUDIO_SERVICE_CLASSES);
+        XposedBridge.log(LOG_TAG + "Probed hook profile " + profile);
+        write(file, profile);
+        return profile;
+    }
+
+    /**
+     * Find the first candidate class which declares createAudioSystemThread and has a maximum stream volume array.
+     */
+    private static HookProfile probe(ClassLoader classLoader, String[] candidates) {
+        for (String className : candidates) {
+            Class<?> clazz;
+            try {
+                clazz = XposedHelpers.findClass(className, classLoader);
+                XposedHelpers.findMethodExact(clazz, "createAudioSystemThread");
+            } catch (XposedHelpers.ClassNotFoundError e) {
+                continue;
+            } catch (NoSuchMethodError e) {
+                continue;
+            }
+
+            for (String fieldName : MAX_STREAM_VOLUME_FIELDS) {
+                Field field;
+                try {
+                    field = XposedHelpers.findField(clazz, fieldName);
+                } catch (NoSuchFieldError e) {
+                    continue;
+                }
+                if (field.getType() != int[].class) continue;
+                return new HookProfile(Build.FINGERPRINT, className, fieldName, Modifier.isStatic(field.getModifiers()));
+            }
+        }
+        throw new IllegalStateException("No AudioService found to hook");
+    }
+
+    private static HookProfile read(File file) {
+        if (!file.exists()) return null;
+
+        Properties properties = new Properties();
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            XposedBridge.log(e);
+            return null;
+        }
+        return HookProfile.fromProperties(properties, Build.FINGERPRINT);
+    }
+
+    private static void write(File file, HookProfile profile) {
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                profile.toProperties().store(out, "VolumeSteps+ hook profile");
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            // Probing again on the next boot is fine
+            XposedBridge.log(LOG_TAG + "Unable to cache the hook profile: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.media.AudioManager;
+import android.os.SystemClock;
+
+import com.p1ngu1n.volumesteps.core.HookDiagnostics;
+import com.p1ngu1n.volumesteps.core.MusicActivityTracker;
+
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Feeds the MusicActivityTracker with playback events, so the volume key path never queries the native audio policy.
+ * Sources are remote control clients (before Lollipop), media sessions (Lollipop and higher) and the answers
+ * AudioService gets when it queries music activity itself.
+ */
+class MusicActivityHooks {
+    private static final String LOG_TAG = "VolumeSteps+: ";
+    // RemoteControlClient.PLAYSTATE_PLAYING and PlaybackState.STATE_PLAYING
+    private static final int STATE_PLAYING = 3;
+
+    private MusicActivityHooks() { }
+
+    /**
+     * Install the hooks, sources which don't exist on this Android version are skipped.
+     * @param audioServiceClass The AudioService class
+     * @param audioSystemClass The AudioSystem class
+     * @param classLoader The class loader of system_server
+     * @param tracker The tracker to feed
+     * @param diagnostics The diagnostics to record the time spent in the hooks into
+     */
+    static void install(Class<?> audioServiceClass, Class<?> audioSystemClass, ClassLoader classLoader,
+                        final MusicActivityTracker tracker, final HookDiagnostics diagnostics) {
+        // setPlaybackStateForRcc(int rccId, int state, ...), a client which dies while playing keeps counting as
+        // playing until the tracker ages it out
+        XposedBridge.hookAllMethods(audioServiceClass, "setPlaybackStateForRcc", new TimedMethodHook(diagnostics, HookDiagnostics.HOOK_MUSIC_ACTIVITY) {
+            @Override
+            protected void after(MethodHookParam param) throws Throwable {
+                onPlaybackState(tracker, param.args[0], (Integer) param.args[1]);
+            }
+        });
+
+        // AudioService querying music activity itself, isAfMusicActiveRecently(int) on KitKat and higher
+        XposedBridge.hookAllMethods(audioServiceClass, "isAfMusicActiveRecently", new TimedMethodHook(diagnostics, HookDiagnostics.HOOK_MUSIC_ACTIVITY) {
+            @Override
+            protected void after(MethodHookParam param) throws Throwable {
+                if (Boolean.TRUE.equals(param.getResult())) tracker.onActiveObserved(SystemClock.uptimeMillis());
+            }
+        });
+        // AudioSystem.isStreamActive(int stream, int inPastMs) before
+        XposedBridge.hookAllMethods(audioSystemClass, "isStreamActive", new TimedMethodHook(diagnostics, HookDiagnostics.HOOK_MUSIC_ACTIVITY) {
+            @Override
+            protected void after(MethodHookParam param) throws Throwable {
+                if ((Integer) param.args[0] == AudioManager.STREAM_MUSIC && Boolean.TRUE.equals(param.getResult())) {
+                    tracker.onActiveObserved(SystemClock.uptimeMillis());
+                }
+            }
+        });
+
+        hookMediaSessions(classLoader, tracker, diagnostics);
+    }
+
+    /**
+     * Media sessions report their playback state through MediaSessionRecord.SessionStub.setPlaybackState.
+     * They exist since Lollipop, before that the classes aren't found.
+     */
+    private static void hookMediaSessions(ClassLoader classLoader, final MusicActivityTracker tracker, final HookDiagnostics diagnostics) {
+        Class<?> sessionStubClass;
+        Class<?> sessionRecordClass;
+        try {
+            sessionStubClass = XposedHelpers.findClass("com.android.server.media.MediaSessionRecord$SessionStub", classLoader);
+            sessionRecordClass = XposedHelpers.findClass("com.android.server.media.MediaSessionRecord", classLoader);
+        } catch (XposedHelpers.ClassNotFoundError e) {
+            return;
+        }
+
+        XposedBridge.hookAllMethods(sessionStubClass, "setPlaybackState", new TimedMethodHook(diagnostics, HookDiagnostics.HOOK_MUSIC_ACTIVITY) {
+            @Override
+            protected void after(MethodHookParam param) throws Throwable {
+                Object playbackState = param.args[0];
+                int state = (playbackState != null ? (Integer) XposedHelpers.callMethod(playbackState, "getState") : 0);
+                onPlaybackState(tracker, XposedHelpers.getSurroundingThis(param.thisObject), state);
+            }
+        });
+        XposedBridge.hookAllMethods(sessionRecordClass, "onDestroy", new TimedMethodHook(diagnostics, HookDiagnostics.HOOK_MUSIC_ACTIVITY) {
+            @Override
+            protected void after(MethodHookParam param) throws Throwable {
+                tracker.onPlaybackStopped(param.thisObject, SystemClock.uptimeMillis());
+            }
+        });
+        XposedBridge.log(LOG_TAG + "Tracking media session playback");
+    }
+
+    private static void onPlaybackState(MusicActivityTracker tracker, Object source, int state) {
+        if (state == STATE_PLAYING) {
+            tracker.onPlaybackStarted(source, SystemClock.uptimeMillis());
+        } else {
+            tracker.onPlaybackStopped(source, SystemClock.uptimeMillis());
+        }
+    }
+}
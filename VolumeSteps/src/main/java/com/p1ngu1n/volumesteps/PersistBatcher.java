@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.Handler;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+
+import com.p1ngu1n.volumesteps.core.HookDiagnostics;
+import com.p1ngu1n.volumesteps.core.VolumeConfig;
+
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Batches the writes of volumes to the settings database. AudioService persists every volume change through
+ * AudioHandler.persistVolume, when batching is enabled only the last change per stream and device is written,
+ * once the volume has been unchanged for the configured time. Pending changes are also written on shutdown,
+ * when the audio mode changes and before another user is switched to, as persistVolume writes the settings of
+ * whichever user is current when it runs.
+ *
+ * AudioService and the module call persistVolume on the thread of the AudioHandler, the pending changes are guarded
+ * by a lock all the same so a call from another thread can't corrupt them. Every stream and device gets a slot which
+ * is reused, so batching a change allocates nothing once the slot exists.
+ */
+class PersistBatcher {
+    private static final String LOG_TAG = "VolumeSteps+: ";
+    // Streams times the devices they are used on, grown when exceeded
+    private static final int INITIAL_SLOTS = 16;
+
+    private final VolumeController mController;
+    private final HookDiagnostics mDiagnostics;
+    private final Field mStreamType;
+
+    // Guards the slots, the latest arguments of persistVolume per stream and device
+    private final Object mLock = new Object();
+    // Stream type in the upper and device in the lower 32 bits
+    private long[] mKeys = new long[INITIAL_SLOTS];
+    private Object[][] mArgs = new Object[INITIAL_SLOTS][];
+    private boolean[] mPending = new boolean[INITIAL_SLOTS];
+    private int mSlotCount;
+    private int mPendingCount;
+    private Member mPersistVolume;
+    private volatile Handler mAudioHandler;
+
+    private PersistBatcher(Class<?> audioServiceClass, VolumeController controller) {
+        mController = controller;
+        mDiagnostics = controller.getDiagnostics();
+        Class<?> streamStateClass = XposedHelpers.findField(audioServiceClass, "mStreamStates").getType().getComponentType();
+        mStreamType = XposedHelpers.findField(streamStateClass, "mStreamType");
+    }
+
+    /**
+     * Install the hooks.
+     * @param audioServiceClass The AudioService class
+     * @param controller The controller holding the active configuration
+     */
+    static void install(Class<?> audioServiceClass, VolumeController controller) {
+        final PersistBatcher batcher = new PersistBatcher(audioServiceClass, controller);
+        Class<?> audioHandlerClass = XposedHelpers.findClass(audioServiceClass.getName() + "$AudioHandler", audioServiceClass.getClassLoader());
+
+        // persistVolume(VolumeStreamState streamState, [int persistType,] int device)
+        XposedBridge.hookAllMethods(audioHandlerClass, "persistVolume", batcher.new PersistVolumeHook());
+
+        // Write the pending volumes when the audio mode changes, like at the start of a call
+        XposedBridge.hookAllMethods(audioServiceClass, "setMode", new TimedMethodHook(batcher.mDiagnostics, HookDiagnostics.HOOK_PERSIST_VOLUME) {
+            @Override
+            protected void after(MethodHookParam param) throws Throwable {
+                Handler audioHandler = batcher.mAudioHandler;
+                if (audioHandler != null) audioHandler.post(batcher.mFlush);
+            }
+        });
+
+        // Write the pending volumes while the user they belong to is still the current one
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            try {
+                batcher.hookUserSwitch(audioServiceClass.getClassLoader());
+            } catch (Throwable t) {
+                XposedBridge.log(LOG_TAG + "Unable to hook user switches, pending volumes may be written for the next user");
+                XposedBridge.log(t);
+            }
+        }
+    }
+
+    private void hookUserSwitch(ClassLoader classLoader) {
+        // startUser(int userId, boolean foreground, ...), of UserController since Android 7.0
+        Class<?> userStarterClass;
+        try {
+            userStarterClass = XposedHelpers.findClass("com.android.server.am.UserController", classLoader);
+        } catch (XposedHelpers.ClassNotFoundError e) {
+            userStarterClass = XposedHelpers.findClass("com.android.server.am.ActivityManagerService", classLoader);
+        }
+        XposedBridge.hookAllMethods(userStarterClass, "startUser", new TimedMethodHook(mDiagnostics, HookDiagnostics.HOOK_PERSIST_VOLUME) {
+            @Override
+            protected void before(MethodHookParam param) throws Throwable {
+                if (param.args.length >= 2 && Boolean.TRUE.equals(param.args[1])) flush();
+            }
+        });
+    }
+
+    private class PersistVolumeHook extends TimedMethodHook {
+        PersistVolumeHook() {
+            super(mDiagnostics, HookDiagnostics.HOOK_PERSIST_VOLUME);
+        }
+
+        @Override
+        protected void before(MethodHookParam param) throws Throwable {
+            mDiagnostics.increment(HookDiagnostics.COUNTER_PERSIST_REQUESTED);
+            VolumeConfig config = mController.getConfig();
+            if (!config.isPersistBatched()) {
+                // Write what is pending first, so it doesn't overwrite this change later
+                flush();
+                mDiagnostics.increment(HookDiagnostics.COUNTER_PERSIST_WRITTEN);
+                return;
+            }
+
+            if (mAudioHandler == null) {
+                mPersistVolume = param.method;
+                mAudioHandler = (Handler) param.thisObject;
+                registerShutdownReceiver(XposedHelpers.getSurroundingThis(param.thisObject));
+            }
+
+            Object[] args = param.args;
+            int device = (Integer) args[args.length - 1];
+            long key = ((long) mStreamType.getInt(args[0]) << 32) | (device & 0xFFFFFFFFL);
+            synchronized (mLock) {
+                put(key, args);
+            }
+
+            mAudioHandler.removeCallbacks(mFlush);
+            mAudioHandler.postDelayed(mFlush, config.getPersistIdleMs());
+            param.setResult(null);
+        }
+    }
+
+    /**
+     * Replace the pending change of a stream and device, with mLock held.
+     */
+    private void put(long key, Object[] args) {
+        int slot = 0;
+        while (slot < mSlotCount && mKeys[slot] != key) slot++;
+        if (slot == mSlotCount) {
+            if (slot == mKeys.length) grow();
+            mKeys[slot] = key;
+            mArgs[slot] = new Object[args.length];
+            mSlotCount++;
+        }
+
+        Object[] pending = mArgs[slot];
+        Object replacedPersistType = (mPending[slot] && pending.length == 3 ? pending[1] : null);
+        System.arraycopy(args, 0, pending, 0, args.length);
+        if (replacedPersistType != null) {
+            // Jelly Bean passes which indices to persist, keep persisting those of the replaced change as well
+            pending[1] = (Integer) pending[1] | (Integer) replacedPersistType;
+        }
+        if (!mPending[slot]) {
+            mPending[slot] = true;
+            mPendingCount++;
+        }
+    }
+
+    private void grow() {
+        int capacity = mKeys.length * 2;
+        long[] keys = new long[capacity];
+        Object[][] args = new Object[capacity][];
+        boolean[] pending = new boolean[capacity];
+        System.arraycopy(mKeys, 0, keys, 0, mSlotCount);
+        System.arraycopy(mArgs, 0, args, 0, mSlotCount);
+        System.arraycopy(mPending, 0, pending, 0, mSlotCount);
+        mKeys = keys;
+        mArgs = args;
+        mPending = pending;
+    }
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Write all pending changes, on any thread. The lock is held while writing, so a change batched meanwhile is never
+     * overwritten by an older one.
+     */
+    private void flush() {
+        synchronized (mLock) {
+            if (mPendingCount == 0) return;
+
+            for (int slot = 0; slot < mSlotCount; slot++) {
+                if (!mPending[slot]) continue;
+                mPending[slot] = false;
+                try {
+                    XposedBridge.invokeOriginalMethod(mPersistVolume, mAudioHandler, mArgs[slot]);
+                    mDiagnostics.increment(HookDiagnostics.COUNTER_PERSIST_WRITTEN);
+                } catch (Throwable t) {
+                    XposedBridge.log(t);
+                }
+            }
+            mPendingCount = 0;
+        }
+        mAudioHandler.removeCallbacks(mFlush);
+    }
+
+    private void registerShutdownReceiver(Object audioService) {
+        try {
+            Context context = (Context) XposedHelpers.getObjectField(audioService, "mContext");
+            context.registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    flush();
+                }
+            }, new IntentFilter(Intent.ACTION_SHUTDOWN), null, mAudioHandler);
+        } catch (Throwable t) {
+            XposedBridge.log(LOG_TAG + "Unable to register the shutdown receiver, pending volumes may be lost on shutdown");
+            XposedBridge.log(t);
+        }
+    }
+}
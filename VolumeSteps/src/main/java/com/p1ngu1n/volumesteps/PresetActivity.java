@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.os.Bundle;
+import android.widget.Toast;
+
+import com.p1ngu1n.volumesteps.core.VolumePreset;
+
+/**
+ * Activates a volume preset without showing the settings, started by a launcher shortcut.
+ * The activity itself isn't exported, other apps reach it through an exported alias only. Launchers creating
+ * a shortcut through the alias get to choose the preset, the shortcut carries the token which lets it
+ * activate presets through the alias as well.
+ */
+public class PresetActivity extends Activity {
+    /** Activates the preset named by EXTRA_PRESET */
+    static final String ACTION_APPLY_PRESET = BuildConfig.APPLICATION_ID + ".action.APPLY_PRESET";
+    /** The name of the preset */
+    static final String EXTRA_PRESET = "preset";
+    /** The shortcut token, required when started through the alias */
+    static final String EXTRA_TOKEN = "token";
+    // The exported alias of this activity
+    private static final String SHORTCUT_ALIAS = BuildConfig.APPLICATION_ID + ".PresetActivity-Shortcut";
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        Intent intent = getIntent();
+        if (Intent.ACTION_CREATE_SHORTCUT.equals(intent.getAction())) {
+            showShortcutChooser();
+        } else if (ACTION_APPLY_PRESET.equals(intent.getAction()) && isTrusted(intent)) {
+            applyPreset(intent.getStringExtra(EXTRA_PRESET));
+            finish();
+        } else {
+            finish();
+        }
+    }
+
+    /**
+     * @return Whether the intent was sent by this app, or by a launcher holding a shortcut created by this app
+     */
+    private boolean isTrusted(Intent intent) {
+        if (!SHORTCUT_ALIAS.equals(getComponentName().getClassName())) return true;
+        return VolumePresets.getShortcutToken(this).equals(intent.getStringExtra(EXTRA_TOKEN));
+    }
+
+    private void applyPreset(String name) {
+        VolumePreset[] presets = VolumePresets.load(VolumePresets.getPreferences(this));
+        int index = (name != null ? VolumePresets.indexOf(presets, name) : -1);
+        if (index < 0) {
+            Toast.makeText(this, getString(R.string.preset_not_found, name), Toast.LENGTH_SHORT).show();
+        } else if (VolumePresets.activate(this, presets[index])) {
+            Toast.makeText(this, getString(R.string.preset_activated, name), Toast.LENGTH_SHORT).show();
+        } else {
+            Toast.makeText(this, R.string.preset_failed, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Let the user choose the preset the shortcut activates, and return the shortcut to the launcher.
+     */
+    private void showShortcutChooser() {
+        final VolumePreset[] presets = VolumePresets.load(VolumePresets.getPreferences(this));
+        if (presets.length == 0) {
+            Toast.makeText(this, R.string.preset_none, Toast.LENGTH_LONG).show();
+            setResult(RESULT_CANCELED);
+            finish();
+            return;
+        }
+
+        CharSequence[] names = new CharSequence[presets.length];
+        for (int i = 0; i < presets.length; i++) {
+            names[i] = presets[i].getName();
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.preset_shortcut_title);
+        builder.setItems(names, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int which) {
+                setResult(RESULT_OK, createShortcut(presets[which].getName()));
+                finish();
+            }
+        });
+        builder.setOnCancelListener(new DialogInterface.OnCancelListener() {
+            public void onCancel(DialogInterface dialog) {
+                setResult(RESULT_CANCELED);
+                finish();
+            }
+        });
+        builder.show();
+    }
+
+    private Intent createShortcut(String name) {
+        Intent shortcutIntent = new Intent(ACTION_APPLY_PRESET);
+        // Launchers can only start exported activities
+        shortcutIntent.setClassName(getPackageName(), SHORTCUT_ALIAS);
+        shortcutIntent.putExtra(EXTRA_PRESET, name);
+        shortcutIntent.putExtra(EXTRA_TOKEN, VolumePresets.getShortcutToken(this));
+
+        Intent result = new Intent();
+        result.putExtra(Intent.EXTRA_SHORTCUT_INTENT, shortcutIntent);
+        result.putExtra(Intent.EXTRA_SHORTCUT_NAME, name);
+        result.putExtra(Intent.EXTRA_SHORTCUT_ICON_RESOURCE, Intent.ShortcutIconResource.fromContext(this, R.drawable.ic_launcher));
+        return result;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.app.AlertDialog;
+import android.app.ListFragment;
+import android.content.DialogInterface;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.view.View;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.Toast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.p1ngu1n.volumesteps.core.VolumePreset;
+
+/**
+ * Fragment listing the volume presets, the first entry saves the current settings as a preset.
+ * Launcher shortcuts activate the presets through PresetActivity.
+ */
+public class PresetsFragment extends ListFragment {
+    private final List<VolumePreset> mPresets = new ArrayList<VolumePreset>();
+    private final List<String> mLines = new ArrayList<String>();
+    private ArrayAdapter<String> mAdapter;
+    private SharedPreferences mPrefs;
+
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+        mPrefs = VolumePresets.getPreferences(getActivity());
+        mPresets.addAll(Arrays.asList(VolumePresets.load(mPrefs)));
+
+        mAdapter = new ArrayAdapter<String>(getActivity(), android.R.layout.simple_list_item_1, mLines);
+        setListAdapter(mAdapter);
+        refresh();
+    }
+
+    @Override
+    public void onListItemClick(ListView listView, View view, int position, long id) {
+        if (position == 0) {
+            showNameDialog();
+        } else {
+            showActions(position - 1);
+        }
+    }
+
+    private void refresh() {
+        mLines.clear();
+        mLines.add(getString(R.string.preset_add));
+        for (VolumePreset preset : mPresets) {
+            mLines.add(preset.getName());
+        }
+        mAdapter.notifyDataSetChanged();
+    }
+
+    private void save() {
+        VolumePresets.store(mPrefs, mPresets.toArray(new VolumePreset[mPresets.size()]));
+        refresh();
+    }
+
+    /**
+     * Ask for the name of a new preset, a preset with the same name is replaced.
+     */
+    private void showNameDialog() {
+        final EditText nameField = new EditText(getActivity());
+        nameField.setSingleLine(true);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        builder.setTitle(R.string.preset_add);
+        builder.setView(nameField);
+        builder.setPositiveButton(R.string.save, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int which) {
+                String name = VolumePreset.cleanName(nameField.getText().toString());
+                if (name.isEmpty()) return;
+
+                VolumePreset preset = VolumePreset.capture(name, mPrefs.getAll());
+                int index = VolumePresets.indexOf(mPresets.toArray(new VolumePreset[mPresets.size()]), name);
+                if (index < 0) {
+                    mPresets.add(preset);
+                } else {
+                    mPresets.set(index, preset);
+                }
+                save();
+            }
+        });
+        builder.setNegativeButton(android.R.string.cancel, null);
+        builder.show();
+    }
+
+    private void showActions(final int index) {
+        final VolumePreset preset = mPresets.get(index);
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        builder.setTitle(preset.getName());
+        builder.setItems(R.array.preset_actions, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int which) {
+                if (which == 0) {
+                    boolean activated = VolumePresets.activate(getActivity(), preset);
+                    Toast.makeText(getActivity(), (activated ? getString(R.string.preset_activated, preset.getName())
+                            : getString(R.string.preset_failed)), Toast.LENGTH_SHORT).show();
+                } else {
+                    mPresets.remove(index);
+                    save();
+                }
+            }
+        });
+        builder.setNegativeButton(android.R.string.cancel, null);
+        builder.show();
+    }
+}
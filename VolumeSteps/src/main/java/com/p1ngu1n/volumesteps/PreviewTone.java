@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.media.AudioFormat;
+import android.media.AudioTrack;
+
+/**
+ * Short sine tone played on a stream to preview a volume step in the settings.
+ * The samples are generated once, a preview only changes the volume of the track and restarts it.
+ */
+class PreviewTone {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int FREQUENCY = 440;
+    private static final int DURATION_MS = 150;
+    // Fade in and out to prevent clicks, 5 ms
+    private static final int FADE_SAMPLES = SAMPLE_RATE / 200;
+
+    private final AudioTrack mTrack;
+
+    /**
+     * @param streamType The stream to play the tone on
+     * @throws IllegalArgumentException If the device doesn't support the stream
+     */
+    PreviewTone(int streamType) {
+        short[] samples = new short[SAMPLE_RATE * DURATION_MS / 1000];
+        for (int i = 0; i < samples.length; i++) {
+            double envelope = Math.min(1, (double) Math.min(i, samples.length - 1 - i) / FADE_SAMPLES);
+            samples[i] = (short) (Short.MAX_VALUE * envelope * Math.sin(2 * Math.PI * FREQUENCY * i / SAMPLE_RATE));
+        }
+
+        mTrack = new AudioTrack(streamType, SAMPLE_RATE, AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT,
+                samples.length * 2, AudioTrack.MODE_STATIC);
+        mTrack.write(samples, 0, samples.length);
+    }
+
+    /**
+     * Play the tone from the start, stopping the one still playing.
+     * @param gain The amplitude relative to the volume the stream is at, between 0 and 1
+     */
+    @SuppressWarnings("deprecation")
+    void play(float gain) {
+        if (mTrack.getState() != AudioTrack.STATE_INITIALIZED) return;
+
+        mTrack.stop();
+        // setVolume requires Lollipop
+        mTrack.setStereoVolume(gain, gain);
+        mTrack.reloadStaticData();
+        mTrack.play();
+    }
+
+    /**
+     * Release the track, the tone can't be played afterwards.
+     */
+    void release() {
+        mTrack.release();
+    }
+}
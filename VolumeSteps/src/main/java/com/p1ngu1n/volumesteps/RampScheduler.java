@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.p1ngu1n.volumesteps.core.StepTable;
+import com.p1ngu1n.volumesteps.core.TraceEvents;
+import com.p1ngu1n.volumesteps.core.VolumePolicy;
+
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Moves streams to new volumes in small steps instead of at once, so applying a profile doesn't click.
+ * Ramps run on the looper of AudioService's AudioHandler, like the volume changes AudioService makes itself, so the
+ * indices are persisted on the thread AudioHandler.persistVolume expects. Every tick moves all ramping streams
+ * together and applies them in one pass, the indices are persisted once the ramps end. A volume key press cancels the ramps, the streams then
+ * stay at the volume they reached.
+ */
+class RampScheduler {
+    /** Target of a stream which doesn't ramp */
+    static final int NONE = -1;
+    // Time between two ticks, and the number of ticks of a ramp
+    private static final int TICK_MS = 20;
+    private static final int TICKS = 15;
+
+    private final StreamStates mStreamStates;
+    private final Object mAudioService;
+    private final Tracer mTracer;
+    private final Handler mHandler;
+
+    // Guards the state below, so a ramp never sets an index once it has been cancelled
+    private final Object mLock = new Object();
+    private final int[] mStart = new int[StepTable.CONFIGURABLE_STREAMS];
+    private final int[] mTarget = new int[StepTable.CONFIGURABLE_STREAMS];
+    private final int[] mLast = new int[StepTable.CONFIGURABLE_STREAMS];
+    // Bit masks of stream types
+    private int mRamping;
+    private int mUnpersisted;
+    private int mTick;
+    // Lets a key press skip the lock when nothing ramps
+    private volatile boolean mActive;
+
+    /**
+     * @param streamStates The accessor of the streams of AudioService
+     * @param audioService The AudioService instance
+     * @param tracer The tracer to record the ramps to
+     * @param audioLooper The looper of the AudioHandler of AudioService
+     */
+    RampScheduler(StreamStates streamStates, Object audioService, Tracer tracer, Looper audioLooper) {
+        mStreamStates = streamStates;
+        mAudioService = audioService;
+        mTracer = tracer;
+        mHandler = new Handler(audioLooper);
+    }
+
+    /**
+     * Start ramping streams to new indices, replacing the ramps in progress.
+     * @param targets The index to ramp each stream to, without the factor 10, or NONE
+     */
+    void start(int[] targets) {
+        synchronized (mLock) {
+            mRamping = 0;
+            for (int streamType = 0; streamType < targets.length && streamType < StepTable.CONFIGURABLE_STREAMS; streamType++) {
+                if (targets[streamType] == NONE) continue;
+
+                mTarget[streamType] = targets[streamType];
+                mRamping |= 1 << streamType;
+                mTracer.record(TraceEvents.RAMP_STARTED, streamType, targets[streamType]);
+            }
+            mTick = 0;
+            mActive = (mRamping != 0);
+
+            mHandler.removeCallbacks(mStep);
+            if (mActive) mHandler.post(mStep);
+        }
+    }
+
+    /**
+     * Cancel the ramps in progress, safe to call from any thread.
+     */
+    void cancel() {
+        if (!mActive) return;
+
+        synchronized (mLock) {
+            if (mRamping == 0) return;
+
+            mRamping = 0;
+            mActive = false;
+            mHandler.removeCallbacks(mStep);
+            mHandler.post(mPersist);
+            mTracer.record(TraceEvents.RAMP_CANCELLED, -1, 0);
+        }
+    }
+
+    /**
+     * Move all ramping streams one tick further.
+     */
+    private final Runnable mStep = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mLock) {
+                if (mRamping == 0) return;
+
+                // The ramps start from the volumes the streams have once the audio thread gets to them
+                if (mTick == 0) {
+                    for (int streamType = 0; streamType < StepTable.CONFIGURABLE_STREAMS; streamType++) {
+                        if ((mRamping & (1 << streamType)) == 0) continue;
+                        try {
+                            mStart[streamType] = mStreamStates.getIndex(mAudioService, streamType);
+                        } catch (Throwable t) {
+                            mStart[streamType] = mTarget[streamType];
+                        }
+                        mLast[streamType] = mStart[streamType];
+                    }
+                }
+
+                mTick++;
+                for (int streamType = 0; streamType < StepTable.CONFIGURABLE_STREAMS; streamType++) {
+                    if ((mRamping & (1 << streamType)) == 0) continue;
+
+                    int index = VolumePolicy.rampIndex(mStart[streamType], mTarget[streamType], mTick, TICKS);
+                    if (index == mLast[streamType]) continue;
+                    try {
+                        mStreamStates.setIndex(mAudioService, streamType, index, false);
+                        mLast[streamType] = index;
+                        mUnpersisted |= 1 << streamType;
+                    } catch (Throwable t) {
+                        XposedBridge.log(t);
+                        mRamping &= ~(1 << streamType);
+                    }
+                }
+
+                if (mTick < TICKS && mRamping != 0) {
+                    mHandler.postDelayed(this, TICK_MS);
+                } else {
+                    mRamping = 0;
+                    mActive = false;
+                    mPersist.run();
+                }
+            }
+        }
+    };
+
+    /**
+     * Persist the streams of which the indices were set by a ramp.
+     */
+    private final Runnable mPersist = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mLock) {
+                for (int streamType = 0; streamType < StepTable.CONFIGURABLE_STREAMS; streamType++) {
+                    if ((mUnpersisted & (1 << streamType)) == 0) continue;
+                    try {
+                        mStreamStates.persist(mAudioService, streamType);
+                    } catch (Throwable t) {
+                        XposedBridge.log(t);
+                    }
+                }
+                mUnpersisted = 0;
+            }
+        }
+    };
+}
@@ -21,25 +21,56 @@ package com.p1ngu1n.volumesteps;
 import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.SharedPreferences;
 import android.content.res.TypedArray;
+import android.media.AudioManager;
+import android.os.Build;
 import android.preference.DialogPreference;
 import android.util.AttributeSet;
+import android.view.Choreographer;
 import android.view.View;
 import android.widget.SeekBar;
 import android.widget.TextView;
 
+import com.p1ngu1n.volumesteps.core.StepRange;
+import com.p1ngu1n.volumesteps.core.StepTable;
+import com.p1ngu1n.volumesteps.core.VolumeCurve;
+
 /**
  * Preference showing a dialog containing a SeekBar.
+ * Preferences holding the number of steps of a stream can preview the steps while the SeekBar is dragged: a tone is
+ * played on the stream at the step its current volume is rescaled to, so the user hears the volume they know at the
+ * chosen number of steps. The tone is attenuated relative to the volume the stream is at.
  */
 public class SeekBarDialogPreference extends DialogPreference implements SeekBar.OnSeekBarChangeListener {
+    private static final int NO_PREVIEW = -1;
+    // At most one preview per frame, before Jelly Bean the frames are assumed to be at 60 Hz
+    private static final long PREVIEW_INTERVAL_MS = 16;
+
     private TextView mValueTextView;
     private SeekBar mSeekBar;
     private int mDefaultValue;
+    // Streams of which the maximum of the device isn't known yet have no default
+    private boolean mHasDefault;
     private int mValue;
-    private int mMin = 0;
-    private int mMax = 100;
-    private int mInterval = 1;
+    // Whether a value is persisted, otherwise the default applies without being stored
+    private boolean mValueSet;
+    private boolean mResetPending;
+    private StepRange mRange = new StepRange(0, 100, 1);
     private String mFormat = "%1$s";
+    // Summaries of every value in the range, built on first use
+    private String[] mSummaries;
+
+    private int mPreviewStream = NO_PREVIEW;
+    private PreviewTone mPreviewTone;
+    private boolean mPreviewPending;
+    // Plays the preview on the next frame, Jelly Bean and higher
+    private FramePreview mFramePreview;
+    private int mPreviewCurve;
+    private final int[] mPreviewControlPoints = new int[VolumeCurve.CONTROL_POINTS];
+    // The volume of the stream when the dialog opened, with its current number of steps
+    private int mPreviewIndex;
+    private int mPreviewMaxIndex;
 
     public SeekBarDialogPreference(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
@@ -51,6 +82,20 @@ public class SeekBarDialogPreference extends DialogPreference implements SeekBar
         initialize(context, attrs);
     }
 
+    /**
+     * Create the preference from code, for preferences which depend on the device.
+     * @param context The context to be used
+     * @param range The values which can be selected
+     * @param format The format of the summary
+     */
+    public SeekBarDialogPreference(Context context, StepRange range, String format) {
+        super(context, null);
+        setDialogLayoutResource(R.layout.seek_bar_dialog_preference);
+        mRange = range;
+        mFormat = format;
+        mValue = range.getMin();
+    }
+
     /**
      * Setup this class
      * @param context The context to be used
@@ -60,9 +105,10 @@ public class SeekBarDialogPreference extends DialogPreference implements SeekBar
         setDialogLayoutResource(R.layout.seek_bar_dialog_preference);
 
         TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.SeekBarDialogPreference, 0, 0);
-        mMin = a.getInt(R.styleable.SeekBarDialogPreference_min, mMin);
-        mMax = a.getInt(R.styleable.SeekBarDialogPreference_max, mMax);
-        mInterval = a.getInt(R.styleable.SeekBarDialogPreference_interval, mInterval);
+        mRange = new StepRange(
+                a.getInt(R.styleable.SeekBarDialogPreference_min, mRange.getMin()),
+                a.getInt(R.styleable.SeekBarDialogPreference_max, mRange.getMax()),
+                a.getInt(R.styleable.SeekBarDialogPreference_interval, mRange.getInterval()));
         String format = a.getString(R.styleable.SeekBarDialogPreference_summary_format);
         if (format != null) mFormat = format;
         a.recycle();
@@ -77,23 +123,29 @@ public class SeekBarDialogPreference extends DialogPreference implements SeekBar
     @Override
     protected View onCreateDialogView() {
         View onCreateDialogView = super.onCreateDialogView();
-        updateValue(getPersistedInt(mDefaultValue));
+        reloadValue();
+        mResetPending = false;
 
         mValueTextView = (TextView) onCreateDialogView.findViewById(R.id.value_selected);
-        mValueTextView.setText(getSummary());
+        mValueTextView.setText(formatValue(mValue));
 
         mSeekBar = (SeekBar) onCreateDialogView.findViewById(R.id.preference_seekbar);
         mSeekBar.setOnSeekBarChangeListener(this);
-        mSeekBar.setMax(calculateMaxIndex());
-        mSeekBar.setProgress(translateValueToIndex(mValue));
+        mSeekBar.setMax(mRange.maxIndex());
+        mSeekBar.setProgress(mRange.valueToIndex(mValue));
 
+        if (mPreviewStream != NO_PREVIEW) startPreview();
         return onCreateDialogView;
     }
 
     @Override
     protected void onDialogClosed(boolean positiveResult) {
         super.onDialogClosed(positiveResult);
-        if (callChangeListener(mValue)) {
+        stopPreview();
+        if (mResetPending) {
+            mResetPending = false;
+            resetValue();
+        } else if (positiveResult && callChangeListener(mValue)) {
             setValue(mValue);
         }
     }
@@ -102,15 +154,94 @@ public class SeekBarDialogPreference extends DialogPreference implements SeekBar
     public void onClick(DialogInterface dialog, int which) {
         super.onClick(dialog, which);
         if (which == DialogInterface.BUTTON_NEGATIVE) {
-            updateValue(mDefaultValue);
+            mResetPending = true;
         }
     }
 
     @Override
     public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
         if (fromUser) {
-            updateValue(translateIndexToValue(progress));
-            mValueTextView.setText(getSummary());
+            updateValue(mRange.indexToValue(progress));
+            mValueTextView.setText(formatValue(mValue));
+            if (mPreviewTone != null && !mPreviewPending) {
+                mPreviewPending = true;
+                schedulePreview();
+            }
+        }
+    }
+
+    /**
+     * Plays the tone for the value the SeekBar is at, so a fast drag plays it once per frame.
+     */
+    private final Runnable mPreview = new Runnable() {
+        @Override
+        public void run() {
+            mPreviewPending = false;
+            if (mPreviewTone != null) {
+                mPreviewTone.play(VolumeCurve.previewRescaledGain(mPreviewCurve, mPreviewMaxIndex, mValue,
+                        mPreviewControlPoints, mPreviewIndex));
+            }
+        }
+    };
+
+    private void schedulePreview() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            if (mFramePreview == null) mFramePreview = new FramePreview(mPreview);
+            Choreographer.getInstance().postFrameCallback(mFramePreview);
+        } else {
+            mSeekBar.postDelayed(mPreview, PREVIEW_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * Runs the preview when the next frame is drawn. A class of its own, Choreographer doesn't exist before Jelly Bean.
+     */
+    private static class FramePreview implements Choreographer.FrameCallback {
+        private final Runnable mPreview;
+
+        FramePreview(Runnable preview) {
+            mPreview = preview;
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mPreview.run();
+        }
+    }
+
+    /**
+     * Read the volume curve the stream will use and the volume it is at, and prepare the tone.
+     */
+    private void startPreview() {
+        SharedPreferences prefs = getSharedPreferences();
+        try {
+            mPreviewCurve = Integer.parseInt(prefs.getString(StepTable.curvePrefKey(mPreviewStream), null));
+        } catch (NumberFormatException e) {
+            mPreviewCurve = VolumeCurve.STOCK;
+        }
+        for (int i = 0; i < mPreviewControlPoints.length; i++) {
+            mPreviewControlPoints[i] = prefs.getInt("pref_curve_point_" + (i + 1), VolumeCurve.DEFAULT_CONTROL_POINTS[i]);
+        }
+
+        AudioManager audioManager = (AudioManager) getContext().getSystemService(Context.AUDIO_SERVICE);
+        mPreviewIndex = audioManager.getStreamVolume(mPreviewStream);
+        mPreviewMaxIndex = audioManager.getStreamMaxVolume(mPreviewStream);
+
+        try {
+            mPreviewTone = new PreviewTone(mPreviewStream);
+        } catch (IllegalArgumentException e) {
+            // The stream doesn't exist on this device, the steps can still be set
+            mPreviewTone = null;
+        }
+    }
+
+    private void stopPreview() {
+        if (mFramePreview != null) Choreographer.getInstance().removeFrameCallback(mFramePreview);
+        if (mSeekBar != null) mSeekBar.removeCallbacks(mPreview);
+        mPreviewPending = false;
+        if (mPreviewTone != null) {
+            mPreviewTone.release();
+            mPreviewTone = null;
         }
     }
 
@@ -123,6 +254,7 @@ public class SeekBarDialogPreference extends DialogPreference implements SeekBar
     @Override
     protected Object onGetDefaultValue(TypedArray a, int index) {
         mDefaultValue = a.getInt(index, 0);
+        mHasDefault = true;
         return mDefaultValue;
     }
 
@@ -130,53 +262,52 @@ public class SeekBarDialogPreference extends DialogPreference implements SeekBar
     public void setDefaultValue(Object newDefaultValue) {
         super.setDefaultValue(newDefaultValue);
         mDefaultValue = (Integer) newDefaultValue;
+        mHasDefault = true;
     }
 
+    /**
+     * The default is only shown, not persisted, so a preference which is never changed keeps following the default.
+     */
     @Override
     protected void onSetInitialValue(boolean restoreValue, Object defaultValue) {
-        setValue(restoreValue ? getPersistedInt(mValue) : (Integer) defaultValue);
+        reloadValue();
     }
 
     /**
-     * Creates a summary following the 'x steps' format.
+     * Creates a summary following the 'x steps' format, or tells the default of the device applies when neither
+     * a value nor the default is known.
      * @return The generated summary
      */
     @Override
     public CharSequence getSummary() {
-        return String.format(mFormat, mValue);
-    }
-
-    /**
-     * Updates the summary using the prefix, value and suffix.
-     */
-    private void updateSummary() {
-        setSummary(getSummary());
+        if (!mValueSet && !mHasDefault) return getContext().getString(R.string.device_default);
+        return formatValue(mValue);
     }
 
     /**
-     * Translate the index from the SeekBar to the actual value.
-     * @param index The index to translate
-     * @return The value
+     * The summaries of the range are formatted once, so dragging the SeekBar doesn't format a string per event.
      */
-    private int translateIndexToValue(int index) {
-        return mMin + (index * mInterval);
-    }
+    private String formatValue(int value) {
+        int index = mRange.valueToIndex(value);
+        if (value < mRange.getMin() || index > mRange.maxIndex() || mRange.indexToValue(index) != value) {
+            return String.format(mFormat, value);
+        }
 
-    /**
-     * Translate the actual value to the index for the SeekBar.
-     * @param value The value to translate
-     * @return The index
-     */
-    private int translateValueToIndex(int value) {
-        return (value - mMin) / mInterval;
+        if (mSummaries == null) {
+            String[] summaries = new String[mRange.maxIndex() + 1];
+            for (int i = 0; i < summaries.length; i++) {
+                summaries[i] = String.format(mFormat, mRange.indexToValue(i));
+            }
+            mSummaries = summaries;
+        }
+        return mSummaries[index];
     }
 
     /**
-     * Calculate the maximum SeekBar index based on the interval and minimum and maximum values.
-     * @return The maximum index
+     * Updates the summary using the prefix, value and suffix.
      */
-    private int calculateMaxIndex() {
-        return (mMax - mMin) / mInterval;
+    private void updateSummary() {
+        setSummary(getSummary());
     }
 
     /**
@@ -193,11 +324,35 @@ public class SeekBarDialogPreference extends DialogPreference implements SeekBar
      */
     public void setValue(int value) {
         updateValue(value);
+        mValueSet = true;
         updateSummary();
         persistInt(value);
         notifyChanged();
     }
 
+    /**
+     * Remove the persisted value, so the default applies again.
+     */
+    private void resetValue() {
+        if (shouldPersist()) {
+            getSharedPreferences().edit().remove(getKey()).apply();
+        }
+        mValueSet = false;
+        updateValue(mHasDefault ? mDefaultValue : mRange.getMin());
+        updateSummary();
+        notifyChanged();
+    }
+
+    /**
+     * Read the persisted value again, after it was changed without this preference.
+     */
+    public void reloadValue() {
+        SharedPreferences prefs = getSharedPreferences();
+        mValueSet = (prefs != null && prefs.contains(getKey()));
+        updateValue(getPersistedInt(mHasDefault ? mDefaultValue : mRange.getMin()));
+        updateSummary();
+    }
+
     /**
      * Updates the value internally.
      * @param value
@@ -211,9 +366,10 @@ public class SeekBarDialogPreference extends DialogPreference implements SeekBar
      * @param min The minimum value to set
      */
     public void setMin(int min) {
-        mMin = min;
-        mSeekBar.setProgress(translateValueToIndex(getValue()));
-        mSeekBar.setMax(calculateMaxIndex());
+        mRange = new StepRange(min, mRange.getMax(), mRange.getInterval());
+        mSummaries = null;
+        mSeekBar.setProgress(mRange.valueToIndex(getValue()));
+        mSeekBar.setMax(mRange.maxIndex());
     }
 
     /**
@@ -221,8 +377,9 @@ public class SeekBarDialogPreference extends DialogPreference implements SeekBar
      * @param max The maximum value to set
      */
     public void setMax(int max) {
-        mMax = max;
-        mSeekBar.setMax(calculateMaxIndex());
+        mRange = new StepRange(mRange.getMin(), max, mRange.getInterval());
+        mSummaries = null;
+        mSeekBar.setMax(mRange.maxIndex());
     }
 
     /**
@@ -230,8 +387,9 @@ public class SeekBarDialogPreference extends DialogPreference implements SeekBar
      * @param interval The interval to set
      */
     public void setInterval(int interval) {
-        mInterval = interval;
-        mSeekBar.setMax(calculateMaxIndex());
+        mRange = new StepRange(mRange.getMin(), mRange.getMax(), interval);
+        mSummaries = null;
+        mSeekBar.setMax(mRange.maxIndex());
     }
 
     /**
@@ -240,6 +398,15 @@ public class SeekBarDialogPreference extends DialogPreference implements SeekBar
      */
     public void setSummaryFormat(String format) {
         mFormat = format;
+        mSummaries = null;
         updateSummary();
     }
+
+    /**
+     * Preview the steps on a stream while the SeekBar is dragged.
+     * @param streamType The stream of which this preference holds the number of steps
+     */
+    public void setPreviewStream(int streamType) {
+        mPreviewStream = streamType;
+    }
 }
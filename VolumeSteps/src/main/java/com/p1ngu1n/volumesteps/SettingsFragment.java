@@ -20,6 +20,7 @@ package com.p1ngu1n.volumesteps;
 
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.app.Fragment;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
@@ -28,18 +29,31 @@ import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.CheckBoxPreference;
+import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceCategory;
 import android.preference.PreferenceFragment;
+import android.provider.Settings;
 import android.view.View;
 import android.widget.CheckBox;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+import com.p1ngu1n.volumesteps.core.PreferenceRules;
+import com.p1ngu1n.volumesteps.core.StepRange;
+import com.p1ngu1n.volumesteps.core.StepTable;
+import com.p1ngu1n.volumesteps.core.VolumeMigration;
+import com.p1ngu1n.volumesteps.core.VolumePreset;
 
 /**
  * Fragment container the preferences.
  */
 public class SettingsFragment extends PreferenceFragment {
+    // The streams shown when the module hasn't published the maximums of the device yet
+    private static final int KNOWN_STREAMS = StepTable.STREAM_NOTIFICATION + 1;
     private static boolean rebootMessageShown = false;
 
     @SuppressWarnings("deprecation")
@@ -48,11 +62,20 @@ public class SettingsFragment extends PreferenceFragment {
         super.onCreate(savedInstanceState);
         getPreferenceManager().setSharedPreferencesMode(Context.MODE_WORLD_READABLE);
         addPreferencesFromResource(R.xml.settings);
+        addStreamPreferences();
 
         // Set the version number in the about screen
         findPreference("pref_about").setTitle(getString(R.string.pref_about_title, BuildConfig.VERSION_NAME));
         // Set change listener to the 'show in launcher' preference
         findPreference("pref_launcher").setOnPreferenceChangeListener(changeListenerLauncher);
+        // Open the trace viewer
+        findPreference("pref_trace").setOnPreferenceClickListener(clickListenerTrace);
+        // Open the hook diagnostics
+        findPreference("pref_diagnostics").setOnPreferenceClickListener(clickListenerDiagnostics);
+        // Open the app profiles
+        findPreference("pref_app_profiles_screen").setOnPreferenceClickListener(clickListenerAppProfiles);
+        // Open the volume presets
+        findPreference("pref_presets_screen").setOnPreferenceClickListener(clickListenerPresets);
 
         // Disabling safe headset volume requires Android 4.2
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR1) {
@@ -80,6 +103,56 @@ public class SettingsFragment extends PreferenceFragment {
         }
     }
 
+    /**
+     * Add the steps and volume curve preferences of every stream the device has, sorted by title.
+     * The maximums of the device are the defaults, streams which are never changed keep them. Until the module has
+     * published the maximums, the streams show that the default of the device applies.
+     */
+    private void addStreamPreferences() {
+        int[] deviceSteps = VolumeMigration.decodeSteps(Settings.System.getString(
+                getActivity().getContentResolver(), VolumeMigration.DEFAULT_STEPS_SETTING));
+
+        final String[] titles = getResources().getStringArray(R.array.stream_titles);
+        String[] dialogTitles = getResources().getStringArray(R.array.stream_dialogs);
+        int streamCount = (deviceSteps != null ? deviceSteps.length : KNOWN_STREAMS);
+        Integer[] streamTypes = new Integer[Math.min(streamCount, StepTable.CONFIGURABLE_STREAMS)];
+        for (int streamType = 0; streamType < streamTypes.length; streamType++) {
+            streamTypes[streamType] = streamType;
+        }
+        Arrays.sort(streamTypes, new Comparator<Integer>() {
+            public int compare(Integer lhs, Integer rhs) {
+                return titles[lhs].compareTo(titles[rhs]);
+            }
+        });
+
+        PreferenceCategory stepsCategory = (PreferenceCategory) findPreference("pref_category_steps");
+        PreferenceCategory curvesCategory = (PreferenceCategory) findPreference("pref_category_curves");
+        for (int streamType : streamTypes) {
+            StepRange range = PreferenceRules.STEPS;
+            if (deviceSteps != null) {
+                int defaultSteps = deviceSteps[streamType];
+                range = new StepRange(Math.min(range.getMin(), defaultSteps), Math.max(range.getMax(), defaultSteps), range.getInterval());
+            }
+            SeekBarDialogPreference steps = new SeekBarDialogPreference(getActivity(), range, getString(R.string.steps_format));
+            steps.setKey(StepTable.prefKey(streamType));
+            steps.setTitle(titles[streamType]);
+            steps.setDialogTitle(dialogTitles[streamType]);
+            if (deviceSteps != null) steps.setDefaultValue(deviceSteps[streamType]);
+            steps.setPreviewStream(streamType);
+            stepsCategory.addPreference(steps);
+
+            ListPreference curve = new ListPreference(getActivity());
+            curve.setKey(StepTable.curvePrefKey(streamType));
+            curve.setTitle(titles[streamType]);
+            curve.setDialogTitle(R.string.curve_dialog);
+            curve.setSummary("%s");
+            curve.setEntries(R.array.curve_entries);
+            curve.setEntryValues(R.array.curve_values);
+            curve.setDefaultValue("0");
+            curvesCategory.addPreference(curve);
+        }
+    }
+
     /**
      * Hides or shows the icon in the launcher when the preference changed.
      */
@@ -94,6 +167,53 @@ public class SettingsFragment extends PreferenceFragment {
         }
     };
 
+    /**
+     * Shows the events recorded by the module.
+     */
+    private final Preference.OnPreferenceClickListener clickListenerTrace = new Preference.OnPreferenceClickListener() {
+        public boolean onPreferenceClick(Preference preference) {
+            showFragment(new TraceFragment());
+            return true;
+        }
+    };
+
+    /**
+     * Shows the time spent in the hooks of the module.
+     */
+    private final Preference.OnPreferenceClickListener clickListenerDiagnostics = new Preference.OnPreferenceClickListener() {
+        public boolean onPreferenceClick(Preference preference) {
+            showFragment(new DiagnosticsFragment());
+            return true;
+        }
+    };
+
+    /**
+     * Shows the app profiles.
+     */
+    private final Preference.OnPreferenceClickListener clickListenerAppProfiles = new Preference.OnPreferenceClickListener() {
+        public boolean onPreferenceClick(Preference preference) {
+            showFragment(new AppProfilesFragment());
+            return true;
+        }
+    };
+
+    /**
+     * Shows the volume presets.
+     */
+    private final Preference.OnPreferenceClickListener clickListenerPresets = new Preference.OnPreferenceClickListener() {
+        public boolean onPreferenceClick(Preference preference) {
+            showFragment(new PresetsFragment());
+            return true;
+        }
+    };
+
+    private void showFragment(Fragment fragment) {
+        getFragmentManager().beginTransaction()
+                .replace(android.R.id.content, fragment)
+                .addToBackStack(null)
+                .commit();
+    }
+
     private AlertDialog createRebootDialog() {
         final Activity activity = getActivity();
         AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
@@ -119,15 +239,37 @@ public class SettingsFragment extends PreferenceFragment {
         return builder.create();
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        reloadPresetValues();
+    }
+
+    /**
+     * Show the values of the preferences a preset sets, a preset may have been activated while the settings were
+     * hidden. Only preferences which differ are written again.
+     */
+    private void reloadPresetValues() {
+        Map<String, ?> prefs = getPreferenceScreen().getSharedPreferences().getAll();
+        for (Map.Entry<String, Object> entry : VolumePreset.capture("", prefs).getValues().entrySet()) {
+            Preference preference = findPreference(entry.getKey());
+            if (preference instanceof SeekBarDialogPreference) {
+                ((SeekBarDialogPreference) preference).reloadValue();
+            } else if (preference instanceof CheckBoxPreference) {
+                ((CheckBoxPreference) preference).setChecked((Boolean) entry.getValue());
+            } else if (preference instanceof ListPreference) {
+                ((ListPreference) preference).setValue((String) entry.getValue());
+            }
+        }
+    }
+
     @Override
     public void onPause() {
         super.onPause();
 
-        // Set preferences file permissions to be world readable
+        // Set preferences file permissions to be world readable and compile them for the module
         File sharedPrefsDir = new File(getActivity().getApplicationInfo().dataDir, "shared_prefs");
-        File sharedPrefsFile = new File(sharedPrefsDir, getPreferenceManager().getSharedPreferencesName() + ".xml");
-        if (sharedPrefsFile.exists()) {
-            sharedPrefsFile.setReadable(true, false);
-        }
+        ConfigWriter.publish(sharedPrefsDir, getPreferenceManager().getSharedPreferencesName(),
+                getPreferenceScreen().getSharedPreferences());
     }
 }
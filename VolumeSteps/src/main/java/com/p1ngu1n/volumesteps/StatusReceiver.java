@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.os.UserHandle;
+
+import com.p1ngu1n.volumesteps.core.HookDiagnostics;
+
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Receiver inside system_server answering requests of the settings app for the trace and the hook diagnostics.
+ * Requests are received from the settings app of every user, the replies are only sent to the settings app of the
+ * user which requested them.
+ */
+class StatusReceiver extends BroadcastReceiver {
+    /** Sent by the settings app to request the most recent trace records */
+    static final String ACTION_REQUEST_TRACE = BuildConfig.APPLICATION_ID + ".action.REQUEST_TRACE";
+    /** Sent to the settings app in reply, containing the records */
+    static final String ACTION_TRACE = BuildConfig.APPLICATION_ID + ".action.TRACE";
+    /** Sent by the settings app to request the hook diagnostics */
+    static final String ACTION_REQUEST_DIAGNOSTICS = BuildConfig.APPLICATION_ID + ".action.REQUEST_DIAGNOSTICS";
+    /** Sent to the settings app in reply, containing the diagnostics */
+    static final String ACTION_DIAGNOSTICS = BuildConfig.APPLICATION_ID + ".action.DIAGNOSTICS";
+
+    /** Pairs of timestamp and payload */
+    static final String EXTRA_RECORDS = "records";
+    /** The uptime at which the records were copied, to show the records relative to */
+    static final String EXTRA_UPTIME = "uptime";
+    /** An array exported by HookDiagnostics */
+    static final String EXTRA_DIAGNOSTICS = "diagnostics";
+
+    private final Tracer mTracer;
+    private final HookDiagnostics mDiagnostics;
+
+    private StatusReceiver(Tracer tracer, HookDiagnostics diagnostics) {
+        mTracer = tracer;
+        mDiagnostics = diagnostics;
+    }
+
+    /**
+     * Start answering requests.
+     * @param context The context of AudioService
+     * @param handler The handler to receive the requests on
+     * @param tracer The tracer to send the records of
+     * @param diagnostics The diagnostics to send
+     */
+    static void register(Context context, Handler handler, Tracer tracer, HookDiagnostics diagnostics) {
+        IntentFilter filter = new IntentFilter(ACTION_REQUEST_TRACE);
+        filter.addAction(ACTION_REQUEST_DIAGNOSTICS);
+        StatusReceiver receiver = new StatusReceiver(tracer, diagnostics);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            // Hidden, a plain registration only receives the broadcasts of the owner
+            XposedHelpers.callMethod(context, "registerReceiverAsUser",
+                    new Class<?>[] { BroadcastReceiver.class, UserHandle.class, IntentFilter.class, String.class, Handler.class },
+                    receiver, UserHandle.ALL, filter, null, handler);
+        } else {
+            context.registerReceiver(receiver, filter, null, handler);
+        }
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        Intent reply;
+        if (ACTION_REQUEST_TRACE.equals(intent.getAction())) {
+            reply = new Intent(ACTION_TRACE);
+            reply.putExtra(EXTRA_RECORDS, mTracer.snapshot());
+            reply.putExtra(EXTRA_UPTIME, SystemClock.uptimeMillis());
+        } else {
+            reply = new Intent(ACTION_DIAGNOSTICS);
+            reply.putExtra(EXTRA_DIAGNOSTICS, mDiagnostics.export());
+        }
+        reply.setPackage(BuildConfig.APPLICATION_ID);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            // Both hidden
+            int userId = (Integer) XposedHelpers.callMethod(this, "getSendingUserId");
+            UserHandle user = (UserHandle) XposedHelpers.newInstance(UserHandle.class, new Class<?>[] { int.class }, userId);
+            context.sendBroadcastAsUser(reply, user);
+        } else {
+            context.sendBroadcast(reply);
+        }
+    }
+}
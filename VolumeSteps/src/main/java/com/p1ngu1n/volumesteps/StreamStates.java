@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.util.SparseIntArray;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import com.p1ngu1n.volumesteps.core.StepTable;
+import com.p1ngu1n.volumesteps.core.VolumePolicy;
+
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Changes the maximum and the current indices of the VolumeStreamState objects of AudioService.
+ * AudioService stores indices multiplied by 10, per output device:
+ * in a ConcurrentHashMap named mIndex before Marshmallow, in a SparseIntArray named mIndexMap since.
+ */
+class StreamStates {
+    private static final String LOG_TAG = "VolumeSteps+: ";
+    // Persist type used by Jelly Bean: PERSIST_CURRENT | PERSIST_LAST_AUDIBLE
+    private static final int PERSIST_CURRENT_AND_LAST_AUDIBLE = 3;
+
+    private final Class<?> mStreamStateClass;
+    private final Field mStreamStates;
+    private final Field mIndexMax;
+    private final Field mIndexMap;
+    private final Field mLastAudibleIndex;
+    private final Method mApplyAllVolumes;
+    private final Field mAudioHandler;
+    private final Method mInitStreamVolume;
+    private final Method mGetStreamVolume;
+    private final Field mStreamVolumeAlias;
+
+    /**
+     * Resolves the fields and methods of AudioService and its VolumeStreamState inner class.
+     * @param audioServiceClass The AudioService class
+     */
+    StreamStates(Class<?> audioServiceClass) {
+        mStreamStates = XposedHelpers.findField(audioServiceClass, "mStreamStates");
+        mStreamStateClass = mStreamStates.getType().getComponentType();
+        mIndexMax = XposedHelpers.findField(mStreamStateClass, "mIndexMax");
+        Field indexMap = findFieldIfExists(mStreamStateClass, "mIndexMap");
+        mIndexMap = (indexMap != null ? indexMap : XposedHelpers.findField(mStreamStateClass, "mIndex"));
+        // Jelly Bean also keeps the last audible index of each device
+        mLastAudibleIndex = findFieldIfExists(mStreamStateClass, "mLastAudibleIndex");
+        mApplyAllVolumes = XposedHelpers.findMethodExact(mStreamStateClass, "applyAllVolumes");
+        mAudioHandler = XposedHelpers.findField(audioServiceClass, "mAudioHandler");
+        Class<?> audioSystemClass = XposedHelpers.findClass("android.media.AudioSystem", audioServiceClass.getClassLoader());
+        mInitStreamVolume = XposedHelpers.findMethodExact(audioSystemClass, "initStreamVolume", int.class, int.class, int.class);
+        mGetStreamVolume = XposedHelpers.findMethodBestMatch(audioServiceClass, "getStreamVolume", int.class);
+        mStreamVolumeAlias = XposedHelpers.findField(audioServiceClass, "mStreamVolumeAlias");
+    }
+
+    /**
+     * AudioService reads the indices of the new user in readAudioSettings(true), except for the streams aliased to
+     * music: music volume isn't per user, those keep the index they have.
+     * @param audioService The AudioService instance
+     * @return For every stream whether it keeps its index when the user is switched
+     */
+    boolean[] keptOnUserSwitch(Object audioService) throws Exception {
+        int[] aliases = (int[]) mStreamVolumeAlias.get(audioService);
+        boolean[] kept = new boolean[aliases.length];
+        for (int streamType = 0; streamType < kept.length; streamType++) {
+            kept[streamType] = (aliases[streamType] == StepTable.STREAM_MUSIC);
+        }
+        return kept;
+    }
+
+    /**
+     * Set a new maximum of a stream and rescale its indices for every device, then apply and persist them.
+     * @param audioService The AudioService instance
+     * @param streamType The stream to change
+     * @param oldMaxSteps The current number of steps of the stream
+     * @param newMaxSteps The new number of steps of the stream
+     */
+    void rescale(Object audioService, int streamType, int oldMaxSteps, int newMaxSteps) throws Exception {
+        Object[] streamStates = (Object[]) mStreamStates.get(audioService);
+        if (streamType >= streamStates.length) return;
+        Object streamState = streamStates[streamType];
+
+        int[] devices;
+        // AudioService synchronizes on the VolumeStreamState class when changing indices of multiple streams
+        synchronized (mStreamStateClass) {
+            mIndexMax.setInt(streamState, newMaxSteps * 10);
+            devices = rescaleIndices(mIndexMap.get(streamState), oldMaxSteps * 10, newMaxSteps * 10);
+            if (mLastAudibleIndex != null) {
+                rescaleIndices(mLastAudibleIndex.get(streamState), oldMaxSteps * 10, newMaxSteps * 10);
+            }
+        }
+
+        // The audio policy maps indices to volumes using the maximum it was initialized with
+        mInitStreamVolume.invoke(null, streamType, 0, newMaxSteps);
+        mApplyAllVolumes.invoke(streamState);
+        persist(audioService, streamState, devices);
+    }
+
+    /**
+     * Set a new maximum of a stream without changing its indices, for when AudioService reads them again right after.
+     * @param audioService The AudioService instance
+     * @param streamType The stream to change
+     * @param maxSteps The new number of steps of the stream
+     */
+    void setMaxSteps(Object audioService, int streamType, int maxSteps) throws Exception {
+        Object[] streamStates = (Object[]) mStreamStates.get(audioService);
+        if (streamType >= streamStates.length) return;
+
+        synchronized (mStreamStateClass) {
+            mIndexMax.setInt(streamStates[streamType], maxSteps * 10);
+        }
+        mInitStreamVolume.invoke(null, streamType, 0, maxSteps);
+    }
+
+    /**
+     * Initialize the audio policy for a stream again and apply its volumes, after its volume curve changed.
+     * @param audioService The AudioService instance
+     * @param streamType The stream to initialize
+     * @param maxSteps The number of steps of the stream
+     */
+    void reinitialize(Object audioService, int streamType, int maxSteps) throws Exception {
+        Object[] streamStates = (Object[]) mStreamStates.get(audioService);
+        if (streamType >= streamStates.length) return;
+
+        mInitStreamVolume.invoke(null, streamType, 0, maxSteps);
+        mApplyAllVolumes.invoke(streamStates[streamType]);
+    }
+
+    /**
+     * @param audioService The AudioService instance
+     * @param streamType The stream to query
+     * @return The index of the stream for the current output device, without the factor 10
+     */
+    int getIndex(Object audioService, int streamType) throws Exception {
+        return (Integer) mGetStreamVolume.invoke(audioService, streamType);
+    }
+
+    /**
+     * Set the indices of a stream for every device and apply them.
+     * @param audioService The AudioService instance
+     * @param streamType The stream to change
+     * @param index The new index of the stream, without the factor 10
+     * @param persist Whether to persist the new indices as well
+     */
+    void setIndex(Object audioService, int streamType, int index, boolean persist) throws Exception {
+        Object[] streamStates = (Object[]) mStreamStates.get(audioService);
+        if (streamType >= streamStates.length) return;
+        Object streamState = streamStates[streamType];
+
+        int[] devices;
+        synchronized (mStreamStateClass) {
+            devices = setIndices(mIndexMap.get(streamState), index * 10);
+            if (mLastAudibleIndex != null && index > 0) {
+                setIndices(mLastAudibleIndex.get(streamState), index * 10);
+            }
+        }
+
+        mApplyAllVolumes.invoke(streamState);
+        if (persist) persist(audioService, streamState, devices);
+    }
+
+    /**
+     * Persist the current indices of a stream for every device.
+     * @param audioService The AudioService instance
+     * @param streamType The stream to persist
+     */
+    void persist(Object audioService, int streamType) throws Exception {
+        Object[] streamStates = (Object[]) mStreamStates.get(audioService);
+        if (streamType >= streamStates.length) return;
+        Object streamState = streamStates[streamType];
+
+        int[] devices;
+        synchronized (mStreamStateClass) {
+            devices = getDevices(mIndexMap.get(streamState));
+        }
+        persist(audioService, streamState, devices);
+    }
+
+    /**
+     * @return The devices in a map of device to index
+     */
+    @SuppressWarnings("unchecked")
+    private static int[] getDevices(Object indexMap) {
+        if (indexMap instanceof SparseIntArray) {
+            SparseIntArray indices = (SparseIntArray) indexMap;
+            int[] devices = new int[indices.size()];
+            for (int i = 0; i < devices.length; i++) {
+                devices[i] = indices.keyAt(i);
+            }
+            return devices;
+        }
+
+        Map<Integer, Integer> indices = (Map<Integer, Integer>) indexMap;
+        int[] devices = new int[indices.size()];
+        int i = 0;
+        for (Integer device : indices.keySet()) {
+            if (i == devices.length) break;
+            devices[i++] = device;
+        }
+        return devices;
+    }
+
+    /**
+     * Set all indices in a map of device to index.
+     * @return The devices of which the index was set
+     */
+    @SuppressWarnings("unchecked")
+    private static int[] setIndices(Object indexMap, int index) {
+        if (indexMap instanceof SparseIntArray) {
+            SparseIntArray indices = (SparseIntArray) indexMap;
+            int[] devices = new int[indices.size()];
+            for (int i = 0; i < devices.length; i++) {
+                devices[i] = indices.keyAt(i);
+                indices.put(devices[i], index);
+            }
+            return devices;
+        }
+
+        Map<Integer, Integer> indices = (Map<Integer, Integer>) indexMap;
+        int[] devices = new int[indices.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> entry : indices.entrySet()) {
+            if (i == devices.length) break;
+            devices[i++] = entry.getKey();
+            entry.setValue(index);
+        }
+        return devices;
+    }
+
+    /**
+     * Rescale all indices in a map of device to index.
+     * @return The devices of which the index was rescaled
+     */
+    @SuppressWarnings("unchecked")
+    private static int[] rescaleIndices(Object indexMap, int oldMaxIndex, int newMaxIndex) {
+        if (indexMap instanceof SparseIntArray) {
+            SparseIntArray indices = (SparseIntArray) indexMap;
+            int[] devices = new int[indices.size()];
+            for (int i = 0; i < devices.length; i++) {
+                devices[i] = indices.keyAt(i);
+                indices.put(devices[i], VolumePolicy.rescaleIndex(indices.valueAt(i), oldMaxIndex, newMaxIndex));
+            }
+            return devices;
+        }
+
+        Map<Integer, Integer> indices = (Map<Integer, Integer>) indexMap;
+        int[] devices = new int[indices.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> entry : indices.entrySet()) {
+            if (i == devices.length) break;
+            devices[i++] = entry.getKey();
+            entry.setValue(VolumePolicy.rescaleIndex(entry.getValue(), oldMaxIndex, newMaxIndex));
+        }
+        return devices;
+    }
+
+    /**
+     * Persist the indices of a stream through AudioHandler.persistVolume, so they survive a reboot.
+     */
+    private void persist(Object audioService, Object streamState, int[] devices) throws Exception {
+        Object audioHandler = mAudioHandler.get(audioService);
+        for (Method method : audioHandler.getClass().getDeclaredMethods()) {
+            if (!method.getName().equals("persistVolume")) continue;
+
+            method.setAccessible(true);
+            int parameterCount = method.getParameterTypes().length;
+            for (int device : devices) {
+                if (parameterCount == 2) {
+                    method.invoke(audioHandler, streamState, device);
+                } else if (parameterCount == 3) {
+                    method.invoke(audioHandler, streamState, PERSIST_CURRENT_AND_LAST_AUDIBLE, device);
+                }
+            }
+            return;
+        }
+        XposedBridge.log(LOG_TAG + "persistVolume not found, new volume indices are not persisted");
+    }
+
+    private static Field findFieldIfExists(Class<?> clazz, String fieldName) {
+        try {
+            return XposedHelpers.findField(clazz, fieldName);
+        } catch (NoSuchFieldError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import com.p1ngu1n.volumesteps.core.HookDiagnostics;
+
+import de.robv.android.xposed.XC_MethodHook;
+
+/**
+ * Method hook which records the time spent in its callbacks into the diagnostics.
+ * Subclasses implement before and after instead of beforeHookedMethod and afterHookedMethod,
+ * only the callbacks a subclass implements are timed so every call is counted once.
+ */
+abstract class TimedMethodHook extends XC_MethodHook {
+    private final HookDiagnostics mDiagnostics;
+    private final int mHook;
+    private final boolean mTimeBefore;
+    private final boolean mTimeAfter;
+
+    /**
+     * @param diagnostics The diagnostics to record into
+     * @param hook One of the HookDiagnostics.HOOK_* constants
+     */
+    TimedMethodHook(HookDiagnostics diagnostics, int hook) {
+        mDiagnostics = diagnostics;
+        mHook = hook;
+        mTimeBefore = implemented("before");
+        mTimeAfter = implemented("after");
+    }
+
+    private boolean implemented(String callback) {
+        for (Class<?> clazz = getClass(); clazz != TimedMethodHook.class; clazz = clazz.getSuperclass()) {
+            try {
+                clazz.getDeclaredMethod(callback, MethodHookParam.class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // Look in the superclass
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected final void beforeHookedMethod(MethodHookParam param) throws Throwable {
+        if (!mTimeBefore) return;
+        long start = System.nanoTime();
+        try {
+            before(param);
+        } finally {
+            mDiagnostics.recordLatency(mHook, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    protected final void afterHookedMethod(MethodHookParam param) throws Throwable {
+        if (!mTimeAfter) return;
+        long start = System.nanoTime();
+        try {
+            after(param);
+        } finally {
+            mDiagnostics.recordLatency(mHook, System.nanoTime() - start);
+        }
+    }
+
+    protected void before(MethodHookParam param) throws Throwable { }
+
+    protected void after(MethodHookParam param) throws Throwable { }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.app.ListFragment;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Bundle;
+import android.widget.ArrayAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.p1ngu1n.volumesteps.core.TraceEvents;
+
+/**
+ * Fragment showing the most recent events recorded inside system_server, newest first.
+ * The records are requested from the module each time the fragment is shown.
+ */
+public class TraceFragment extends ListFragment {
+    private final List<String> mLines = new ArrayList<String>();
+    private ArrayAdapter<String> mAdapter;
+
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+        mAdapter = new ArrayAdapter<String>(getActivity(), android.R.layout.simple_list_item_1, mLines);
+        setListAdapter(mAdapter);
+        setEmptyText(getString(R.string.trace_empty));
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        getActivity().registerReceiver(mTraceReceiver, new IntentFilter(StatusReceiver.ACTION_TRACE));
+        getActivity().sendBroadcast(new Intent(StatusReceiver.ACTION_REQUEST_TRACE));
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        getActivity().unregisterReceiver(mTraceReceiver);
+    }
+
+    /**
+     * Decodes the records sent by the module, the timestamps are shown in milliseconds before the request.
+     */
+    private final BroadcastReceiver mTraceReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            long[] records = intent.getLongArrayExtra(StatusReceiver.EXTRA_RECORDS);
+            long uptime = intent.getLongExtra(StatusReceiver.EXTRA_UPTIME, 0);
+            if (records == null) return;
+
+            mLines.clear();
+            for (int i = records.length - 2; i >= 0; i -= 2) {
+                mLines.add(TraceEvents.describe(records[i] - uptime, records[i + 1]));
+            }
+            mAdapter.notifyDataSetChanged();
+        }
+    };
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.os.SystemClock;
+
+import com.p1ngu1n.volumesteps.core.TraceBuffer;
+import com.p1ngu1n.volumesteps.core.TraceEvents;
+
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Records events inside system_server into a TraceBuffer, so the hooks never build strings or write to the log
+ * themselves. A background thread writes the records to the Xposed log while debugging is enabled, and the
+ * settings app can request the most recent records through the StatusReceiver.
+ */
+class Tracer {
+    private static final String LOG_TAG = "VolumeSteps+: ";
+
+    private static final int CAPACITY = 256;
+    private static final long FLUSH_INTERVAL_MS = 2000;
+
+    private final TraceBuffer mBuffer = new TraceBuffer(CAPACITY);
+
+    /**
+     * Record an event, safe to call from any thread.
+     * @param event The event id, see TraceEvents
+     * @param streamType The stream the event is about, or -1
+     * @param value The result or value of the event
+     */
+    void record(int event, int streamType, int value) {
+        mBuffer.record(event, streamType, value, SystemClock.uptimeMillis());
+    }
+
+    /**
+     * Start the thread writing the records to the Xposed log. Records are consumed whether debugging is enabled
+     * or not, so enabling it doesn't dump old records.
+     * @param controller The controller holding the configuration which tells whether debugging is enabled
+     */
+    void startFlushing(final VolumeController controller) {
+        Thread flusher = new Thread("VolumeSteps+ trace") {
+            @Override
+            public void run() {
+                long[] records = new long[CAPACITY * 2];
+                while (true) {
+                    try {
+                        Thread.sleep(FLUSH_INTERVAL_MS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    int count = mBuffer.drain(records);
+                    if (!controller.getConfig().isDebugging()) continue;
+                    for (int i = 0; i < count; i++) {
+                        XposedBridge.log(LOG_TAG + TraceEvents.describe(records[i * 2], records[i * 2 + 1]));
+                    }
+                }
+            }
+        };
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * @return The most recent records, pairs of timestamp and payload
+     */
+    long[] snapshot() {
+        long[] records = new long[CAPACITY * 2];
+        int count = mBuffer.snapshot(records);
+        long[] result = new long[count * 2];
+        System.arraycopy(records, 0, result, 0, result.length);
+        return result;
+    }
+}
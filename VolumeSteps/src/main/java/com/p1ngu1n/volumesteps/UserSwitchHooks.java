@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.app.ActivityManager;
+
+import java.lang.reflect.Method;
+
+import com.p1ngu1n.volumesteps.core.HookDiagnostics;
+
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Tells the VolumeController the current user changed. AudioService reads the volumes of the new user in
+ * readAudioSettings(true), the hook runs right before so they are read with the steps of the new user.
+ */
+class UserSwitchHooks {
+    private UserSwitchHooks() { }
+
+    /**
+     * Install the hook, requires Android 4.2.
+     * @param audioServiceClass The AudioService class
+     * @param controller The controller holding the snapshot of each user
+     */
+    static void install(Class<?> audioServiceClass, final VolumeController controller) {
+        // Hidden, resolved once
+        final Method getCurrentUser = XposedHelpers.findMethodExact(ActivityManager.class, "getCurrentUser");
+
+        XposedHelpers.findAndHookMethod(audioServiceClass, "readAudioSettings", boolean.class,
+                new TimedMethodHook(controller.getDiagnostics(), HookDiagnostics.HOOK_USER_SWITCH) {
+            @Override
+            protected void before(MethodHookParam param) throws Throwable {
+                if ((Boolean) param.args[0]) controller.onUserSwitched((Integer) getCurrentUser.invoke(null));
+            }
+        });
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.os.SystemClock;
+
+import java.lang.reflect.Field;
+
+import com.p1ngu1n.volumesteps.core.HookDiagnostics;
+import com.p1ngu1n.volumesteps.core.KeyRepeatAccelerator;
+import com.p1ngu1n.volumesteps.core.TraceEvents;
+import com.p1ngu1n.volumesteps.core.VolumeConfig;
+
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Accelerates repeated volume adjustments, so a stream with many steps can be set quickly.
+ * adjustStreamVolume is hooked to decide the number of steps of an adjustment, which is then applied by
+ * multiplying the delta passed to VolumeStreamState.adjustIndex within that call. On Lollipop and higher the public
+ * adjustStreamVolume calls a private overload, only the outermost call of a key press counts as an adjustment.
+ */
+class VolumeAdjustHooks {
+    // AudioService.SAFE_MEDIA_VOLUME_ACTIVE, raising the volume then has to pass the safe headset volume warning
+    private static final int SAFE_MEDIA_VOLUME_ACTIVE = 3;
+
+    private final VolumeController mController;
+    private final KeyRepeatAccelerator mAccelerator = new KeyRepeatAccelerator();
+    // Indices into the state of the adjustment in progress on the current binder thread
+    private static final int STEPS = 0;
+    private static final int DEPTH = 1;
+    // Number of steps of the adjustment, and the number of nested adjustStreamVolume calls
+    private final ThreadLocal<int[]> mAdjustment = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[] { 1, 0 };
+        }
+    };
+    // Since Jelly Bean MR1
+    private final Field mSafeMediaVolumeState;
+
+    private VolumeAdjustHooks(Class<?> audioServiceClass, VolumeController controller) {
+        mController = controller;
+        mSafeMediaVolumeState = findFieldIfExists(audioServiceClass, "mSafeMediaVolumeState");
+    }
+
+    /**
+     * Install the hooks.
+     * @param audioServiceClass The AudioService class
+     * @param controller The controller holding the active configuration
+     */
+    static void install(Class<?> audioServiceClass, VolumeController controller) {
+        VolumeAdjustHooks hooks = new VolumeAdjustHooks(audioServiceClass, controller);
+        HookDiagnostics diagnostics = controller.getDiagnostics();
+        Class<?> streamStateClass = XposedHelpers.findField(audioServiceClass, "mStreamStates").getType().getComponentType();
+
+        // adjustStreamVolume(int streamType, int direction, int flags, ...), adjustSuggestedStreamVolume calls it as well
+        XposedBridge.hookAllMethods(audioServiceClass, "adjustStreamVolume", hooks.new AdjustStreamVolumeHook(diagnostics));
+        // adjustIndex(int deltaIndex, int device, ...)
+        XposedBridge.hookAllMethods(streamStateClass, "adjustIndex", hooks.new AdjustIndexHook(diagnostics));
+    }
+
+    private class AdjustStreamVolumeHook extends TimedMethodHook {
+        AdjustStreamVolumeHook(HookDiagnostics diagnostics) {
+            super(diagnostics, HookDiagnostics.HOOK_VOLUME_ADJUST);
+        }
+
+        @Override
+        protected void before(MethodHookParam param) throws Throwable {
+            int[] adjustment = mAdjustment.get();
+            // A nested overload belongs to the adjustment which is already in progress
+            if (adjustment[DEPTH]++ > 0) return;
+
+            // The user takes over from a ramp in progress
+            mController.cancelRamps();
+
+            VolumeConfig config = mController.getConfig();
+            int streamType = (Integer) param.args[0];
+            int direction = (Integer) param.args[1];
+            int steps = mAccelerator.onAdjust(streamType, direction, SystemClock.uptimeMillis(),
+                    config.getKeyRepeatWindowMs(), config.getKeyAccelerationMaxSteps());
+
+            // Never skip the safe headset volume warning by raising past it in one adjustment
+            if (steps > 1 && direction > 0 && isSafeMediaVolumeActive(param.thisObject)) steps = 1;
+            if (steps > 1) mController.getTracer().record(TraceEvents.KEY_ACCELERATED, streamType, steps);
+            adjustment[STEPS] = steps;
+        }
+
+        @Override
+        protected void after(MethodHookParam param) throws Throwable {
+            int[] adjustment = mAdjustment.get();
+            if (--adjustment[DEPTH] == 0) adjustment[STEPS] = 1;
+        }
+    }
+
+    private class AdjustIndexHook extends TimedMethodHook {
+        AdjustIndexHook(HookDiagnostics diagnostics) {
+            super(diagnostics, HookDiagnostics.HOOK_VOLUME_ADJUST);
+        }
+
+        @Override
+        protected void before(MethodHookParam param) throws Throwable {
+            int steps = mAdjustment.get()[STEPS];
+            if (steps > 1) param.args[0] = (Integer) param.args[0] * steps;
+        }
+    }
+
+    private boolean isSafeMediaVolumeActive(Object audioService) throws IllegalAccessException {
+        if (mSafeMediaVolumeState == null) return false;
+        Object state = mSafeMediaVolumeState.get(audioService);
+        return (state instanceof Integer && (Integer) state == SAFE_MEDIA_VOLUME_ACTIVE);
+    }
+
+    private static Field findFieldIfExists(Class<?> clazz, String fieldName) {
+        try {
+            return XposedHelpers.findField(clazz, fieldName);
+        } catch (NoSuchFieldError e) {
+            return null;
+        }
+    }
+}
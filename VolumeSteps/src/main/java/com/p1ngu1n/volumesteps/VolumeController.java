@@ -0,0 +1,471 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.content.BroadcastReceiver;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.util.SparseArray;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+import com.p1ngu1n.volumesteps.core.AppProfile;
+import com.p1ngu1n.volumesteps.core.HookDiagnostics;
+import com.p1ngu1n.volumesteps.core.StepTable;
+import com.p1ngu1n.volumesteps.core.TraceEvents;
+import com.p1ngu1n.volumesteps.core.VolumeConfig;
+
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Holds the active configuration inside system_server and applies changes to the preferences without a reboot.
+ * Changes are detected by watching the preferences and the binary config, after which only the streams whose number of steps
+ * changed are updated. Their current indices are rescaled so the perceived volume stays the same.
+ * The profile of the app which last gained audio focus or started playing is applied the same way, the volumes
+ * it sets are ramped to. Every Android user has its own preferences, a snapshot of them is loaded when the user
+ * starts and swapped in when the user is switched to.
+ */
+class VolumeController {
+    private static final String LOG_TAG = "VolumeSteps+: ";
+    // The settings app writes the file and changes its permissions right after, wait for both
+    private static final long RELOAD_DELAY_MS = 500;
+    private static final int NO_PROFILE = -1;
+    // Every stream keeps its index while its steps change, so all of them are rescaled
+    private static final boolean[] RESCALE_ALL = new boolean[StepTable.CONFIGURABLE_STREAMS];
+    static {
+        Arrays.fill(RESCALE_ALL, true);
+    }
+    // Hidden constants of Intent
+    private static final String ACTION_USER_STARTING = "android.intent.action.USER_STARTING";
+    private static final String ACTION_USER_REMOVED = "android.intent.action.USER_REMOVED";
+    private static final String EXTRA_USER_HANDLE = "android.intent.extra.user_handle";
+
+    private final ConfigLoader mLoader;
+    private final Tracer mTracer = new Tracer();
+    private final HookDiagnostics mDiagnostics = new HookDiagnostics();
+    // Replaced as a whole on a reload, hooks read it once per call so they never mix two configurations
+    private volatile VolumeConfig mConfig;
+    // App id of the profile to apply, written by binder threads
+    private volatile int mRequestedAppId = NO_PROFILE;
+    // Set once AudioService has been constructed
+    private volatile Handler mHandler;
+    private volatile RampScheduler mRamp;
+
+    // Guards the fields below once AudioService has been created: reloads and profile switches run on the handler
+    // thread, user switches on the thread AudioService reads the settings of the new user on
+    private final Object mLock = new Object();
+    private VolumeConfig mBaseConfig;
+    private int[] mMaxStreamVolume;
+    private int mCurrentUserId = ConfigLoader.USER_OWNER;
+    // The snapshots of the users seen since boot, by user id
+    private final SparseArray<UserSnapshot> mSnapshots = new SparseArray<UserSnapshot>();
+
+    // Set before the handler runs anything
+    // The maximums of the device, before the configured steps were set
+    private int[] mDeviceSteps;
+    private Object mAudioService;
+    private ContentResolver mContentResolver;
+    private StreamStates mStreamStates;
+    private Field mSafeMediaVolumeIndex;
+
+    VolumeController(ConfigLoader loader, VolumeConfig config) {
+        mLoader = loader;
+        mBaseConfig = config;
+        mConfig = config;
+    }
+
+    /**
+     * @return The configuration which is currently active, an immutable snapshot which is safe to read from any thread
+     */
+    VolumeConfig getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * @return The tracer recording the events inside system_server
+     */
+    Tracer getTracer() {
+        return mTracer;
+    }
+
+    /**
+     * @return The diagnostics of the installed hooks
+     */
+    HookDiagnostics getDiagnostics() {
+        return mDiagnostics;
+    }
+
+    /**
+     * Set the configured maximum volumes, called before AudioService uses them. The maximums of the device are
+     * recorded first, they are the number of steps of the streams which aren't configured.
+     * @param maxStreamVolume The MAX_STREAM_VOLUME array of AudioService
+     */
+    void applyMaxStreamVolume(int[] maxStreamVolume) {
+        XposedBridge.log(LOG_TAG + "MAX_STREAM_VOLUME before: " + Arrays.toString(maxStreamVolume));
+        if (mDeviceSteps == null) mDeviceSteps = maxStreamVolume.clone();
+        mBaseConfig = mBaseConfig.withDefaults(mDeviceSteps);
+        mConfig = mBaseConfig;
+        mConfig.applyTo(maxStreamVolume);
+        mMaxStreamVolume = maxStreamVolume;
+        for (int streamType = 0; streamType < StepTable.CONFIGURABLE_STREAMS && streamType < maxStreamVolume.length; streamType++) {
+            mTracer.record(TraceEvents.MAX_STEPS_SET, streamType, maxStreamVolume[streamType]);
+        }
+        XposedBridge.log(LOG_TAG + "MAX_STREAM_VOLUME after: " + Arrays.toString(maxStreamVolume));
+    }
+
+    /**
+     * @return The maximums of the device before the configured steps were set, null before they were set
+     */
+    int[] getDeviceSteps() {
+        return mDeviceSteps;
+    }
+
+    /**
+     * Start watching the preferences of the owner, the starting users and tracing, called once AudioService has
+     * been constructed.
+     * @param audioService The AudioService instance
+     */
+    void startWatching(Object audioService) {
+        try {
+            mAudioService = audioService;
+            mStreamStates = new StreamStates(audioService.getClass());
+            mSafeMediaVolumeIndex = findSafeMediaVolumeIndex(audioService.getClass());
+            Handler handler = new Handler(((Handler) XposedHelpers.getObjectField(audioService, "mAudioHandler")).getLooper());
+            mRamp = new RampScheduler(mStreamStates, audioService, mTracer, handler.getLooper());
+
+            Context context = (Context) XposedHelpers.getObjectField(audioService, "mContext");
+            mContentResolver = context.getContentResolver();
+
+            mTracer.startFlushing(this);
+            StatusReceiver.register(context, handler, mTracer, mDiagnostics);
+
+            // Everything the handler runs has been set up
+            mHandler = handler;
+            synchronized (mLock) {
+                UserSnapshot owner = new UserSnapshot(ConfigLoader.USER_OWNER, mLoader, mBaseConfig);
+                mSnapshots.put(ConfigLoader.USER_OWNER, owner);
+                handler.post(owner.mStartWatching);
+            }
+            IntentFilter userFilter = new IntentFilter(ACTION_USER_STARTING);
+            userFilter.addAction(ACTION_USER_REMOVED);
+            context.registerReceiver(new UserReceiver(), userFilter, null, handler);
+        } catch (Throwable t) {
+            XposedBridge.log(LOG_TAG + "Unable to watch the preferences, changes require a reboot");
+            XposedBridge.log(t);
+        }
+    }
+
+    /**
+     * Switch to the profile of an app which gained audio focus or started playing, called from binder threads.
+     * Apps without a profile switch back to the configuration of the preferences. The lookup doesn't allocate,
+     * a switch is applied on the handler thread.
+     * @param uid The uid of the app
+     */
+    void onAppActive(int uid) {
+        Handler handler = mHandler;
+        if (handler == null) return;
+
+        AppProfile profile = mConfig.findProfile(uid);
+        int appId = (profile != null ? profile.getAppId() : NO_PROFILE);
+        if (appId == mRequestedAppId) return;
+
+        mRequestedAppId = appId;
+        handler.removeCallbacks(mSwitchProfile);
+        handler.post(mSwitchProfile);
+    }
+
+    /**
+     * Cancel the volume ramps in progress, called when the user adjusts the volume. Safe to call from any thread.
+     */
+    void cancelRamps() {
+        RampScheduler ramp = mRamp;
+        if (ramp != null) ramp.cancel();
+    }
+
+    /**
+     * Swap in the snapshot of the user switched to, called right before AudioService reads the volumes of the user.
+     * The streams AudioService reads again only get their new maximums, the streams it keeps the index of are
+     * rescaled. A snapshot is normally loaded when the user starts, one which isn't loaded yet is loaded right
+     * away, as AudioService must read the volumes of the user with the steps of the user.
+     * @param userId The user switched to
+     */
+    void onUserSwitched(int userId) {
+        Handler handler = mHandler;
+        if (handler == null) return;
+
+        synchronized (mLock) {
+            if (userId == mCurrentUserId) return;
+            mCurrentUserId = userId;
+            // Audio focus is discarded on a user switch
+            mRequestedAppId = NO_PROFILE;
+
+            UserSnapshot snapshot = mSnapshots.get(userId);
+            if (snapshot == null) {
+                snapshot = new UserSnapshot(userId, new ConfigLoader(userId), null);
+                mSnapshots.put(userId, snapshot);
+                handler.post(snapshot.mStartWatching);
+            }
+            if (snapshot.mLoaded == null) {
+                // Loading on the handler thread is still pending
+                handler.removeCallbacks(snapshot);
+                snapshot.mLoaded = snapshot.load();
+            }
+
+            mRamp.cancel();
+            mBaseConfig = snapshot.mLoaded;
+            boolean[] kept;
+            try {
+                kept = mStreamStates.keptOnUserSwitch(mAudioService);
+            } catch (Throwable t) {
+                XposedBridge.log(t);
+                kept = RESCALE_ALL;
+            }
+            apply(mBaseConfig.withProfile(null), kept);
+        }
+        mTracer.record(TraceEvents.USER_SWITCHED, -1, userId);
+    }
+
+    /**
+     * Load the snapshot of a user which is starting, so it is ready when the user is switched to.
+     */
+    private void onUserStarting(int userId) {
+        UserSnapshot snapshot;
+        synchronized (mLock) {
+            if (mSnapshots.get(userId) != null) return;
+            snapshot = new UserSnapshot(userId, new ConfigLoader(userId), null);
+            mSnapshots.put(userId, snapshot);
+        }
+        mHandler.post(snapshot.mStartWatching);
+        mHandler.post(snapshot);
+    }
+
+    private void onUserRemoved(int userId) {
+        UserSnapshot snapshot;
+        synchronized (mLock) {
+            snapshot = mSnapshots.get(userId);
+            if (snapshot == null) return;
+            mSnapshots.remove(userId);
+        }
+        // Runs on the handler thread, after the observer started watching
+        snapshot.mObserver.stopWatching();
+        mHandler.removeCallbacks(snapshot);
+    }
+
+    /**
+     * Apply the steps of the requested app profile to all streams at once, then set the volumes of the profile.
+     */
+    private final Runnable mSwitchProfile = new Runnable() {
+        @Override
+        public void run() {
+            AppProfile profile;
+            synchronized (mLock) {
+                profile = mBaseConfig.findProfile(mRequestedAppId);
+                if (profile == mConfig.getActiveProfile()) return;
+
+                mRamp.cancel();
+                apply(mBaseConfig.withProfile(profile), RESCALE_ALL);
+                if (profile != null) applyLevels(profile);
+            }
+            mTracer.record(TraceEvents.PROFILE_SWITCHED, -1, (profile != null ? profile.getAppId() : NO_PROFILE));
+        }
+    };
+
+    /**
+     * Apply a configuration, with mLock held.
+     * @param newConfig The configuration to apply
+     * @param rescale For every stream whether to rescale its current indices if its steps changed, so its
+     *                perceived volume stays the same. Without, only the maximum changes, for when AudioService
+     *                reads the indices again right after.
+     */
+    private void apply(VolumeConfig newConfig, boolean[] rescale) {
+        VolumeConfig oldConfig = mConfig;
+        // Set first, the volume curve hooks use it while the streams are rescaled
+        mConfig = newConfig;
+        boolean rescaled = false;
+        for (int streamType = 0; streamType < StepTable.CONFIGURABLE_STREAMS; streamType++) {
+            if (!oldConfig.stepsDiffer(newConfig, streamType) || streamType >= mMaxStreamVolume.length) continue;
+
+            int oldMaxSteps = mMaxStreamVolume[streamType];
+            int newMaxSteps = newConfig.getMaxSteps(streamType);
+            mMaxStreamVolume[streamType] = newMaxSteps;
+            try {
+                if (streamType < rescale.length && rescale[streamType]) {
+                    rescaled = true;
+                    mStreamStates.rescale(mAudioService, streamType, oldMaxSteps, newMaxSteps);
+                    mTracer.record(TraceEvents.STREAM_RESCALED, streamType, newMaxSteps);
+                } else {
+                    mStreamStates.setMaxSteps(mAudioService, streamType, newMaxSteps);
+                    mTracer.record(TraceEvents.MAX_STEPS_SET, streamType, newMaxSteps);
+                }
+            } catch (Throwable t) {
+                XposedBridge.log(t);
+            }
+        }
+        // The rescaled indices were persisted, so the next boot must not migrate them again. The setting belongs to
+        // the owner, who is the current user at boot.
+        if (rescaled && mCurrentUserId == ConfigLoader.USER_OWNER) {
+            VolumeSettings.storeSteps(mContentResolver, mMaxStreamVolume);
+        }
+
+        // Rescaling initialized the streams of which the steps changed, only the curve changed for the others
+        for (int streamType = 0; streamType < StepTable.CONFIGURABLE_STREAMS; streamType++) {
+            if (oldConfig.stepsDiffer(newConfig, streamType) || !oldConfig.curveDiffers(newConfig, streamType)
+                    || streamType >= mMaxStreamVolume.length) continue;
+
+            try {
+                mStreamStates.reinitialize(mAudioService, streamType, mMaxStreamVolume[streamType]);
+            } catch (Throwable t) {
+                XposedBridge.log(t);
+            }
+        }
+
+        if (mSafeMediaVolumeIndex != null && oldConfig.getSafeHeadsetVolumeIndex() != newConfig.getSafeHeadsetVolumeIndex()) {
+            try {
+                mSafeMediaVolumeIndex.setInt(mAudioService, newConfig.getSafeHeadsetVolumeIndex() * 10);
+            } catch (IllegalAccessException e) {
+                XposedBridge.log(e);
+            }
+        }
+    }
+
+    private void applyLevels(AppProfile profile) {
+        int[] targets = new int[StepTable.CONFIGURABLE_STREAMS];
+        for (int streamType = 0; streamType < targets.length; streamType++) {
+            int level = profile.getLevel(streamType);
+            if (level == AppProfile.UNCHANGED || streamType >= mMaxStreamVolume.length) {
+                targets[streamType] = RampScheduler.NONE;
+            } else {
+                targets[streamType] = (level * mMaxStreamVolume[streamType] + 50) / 100;
+            }
+        }
+        mRamp.start(targets);
+    }
+
+    private static Field findSafeMediaVolumeIndex(Class<?> audioServiceClass) {
+        try {
+            return XposedHelpers.findField(audioServiceClass, "mSafeMediaVolumeIndex");
+        } catch (NoSuchFieldError e) {
+            // Safe media volume exists since Jelly Bean MR1
+            return null;
+        }
+    }
+
+    /**
+     * The configuration of a user. Running it loads the preferences of the user on the handler thread and applies
+     * them if the user is the current one, keeping the active app profile. The preferences are watched once
+     * mStartWatching ran on the handler thread.
+     */
+    private class UserSnapshot implements Runnable {
+        private final int mUserId;
+        private final ConfigLoader mUserLoader;
+        private final PreferencesObserver mObserver;
+        // Guarded by mLock, null until loaded
+        private VolumeConfig mLoaded;
+
+        final Runnable mStartWatching = new Runnable() {
+            @Override
+            public void run() {
+                mObserver.startWatching();
+            }
+        };
+
+        UserSnapshot(int userId, ConfigLoader loader, VolumeConfig loaded) {
+            mUserId = userId;
+            mUserLoader = loader;
+            mLoaded = loaded;
+            mObserver = new PreferencesObserver(this);
+        }
+
+        VolumeConfig load() {
+            return mUserLoader.load().withDefaults(mDeviceSteps);
+        }
+
+        @Override
+        public void run() {
+            VolumeConfig loaded = load();
+            synchronized (mLock) {
+                mLoaded = loaded;
+                if (mUserId == mCurrentUserId) {
+                    // A ramp would continue with indices of the old number of steps
+                    mRamp.cancel();
+                    mBaseConfig = loaded;
+                    apply(mBaseConfig.withProfile(mBaseConfig.findProfile(mRequestedAppId)), RESCALE_ALL);
+                }
+            }
+            mTracer.record(TraceEvents.CONFIG_RELOADED, -1, mUserId);
+        }
+    }
+
+    /**
+     * Watches the directory of the preferences and the binary config of a user, as the files are replaced when they
+     * are written. Watching requires read permission on the directory, which the settings app grants when it
+     * publishes the preferences.
+     */
+    private class PreferencesObserver extends FileObserver {
+        private final UserSnapshot mSnapshot;
+
+        PreferencesObserver(UserSnapshot snapshot) {
+            super(snapshot.mUserLoader.getDirectory().getPath(), FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO | FileObserver.ATTRIB);
+            mSnapshot = snapshot;
+        }
+
+        @Override
+        public void startWatching() {
+            // The watch fails silently, the directory must be readable
+            File directory = mSnapshot.mUserLoader.getDirectory();
+            if (!directory.canRead()) {
+                XposedBridge.log(LOG_TAG + "Unable to watch " + directory + " for user " + mSnapshot.mUserId
+                        + ", changes require a reboot");
+            }
+            super.startWatching();
+        }
+
+        @Override
+        public void onEvent(int event, String path) {
+            if (path == null || !mSnapshot.mUserLoader.isConfigFile(path)) return;
+
+            mHandler.removeCallbacks(mSnapshot);
+            mHandler.postDelayed(mSnapshot, RELOAD_DELAY_MS);
+        }
+    }
+
+    /**
+     * Loads the snapshot of a user when it starts, before it can be switched to, and drops it when it is removed.
+     */
+    private class UserReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int userId = intent.getIntExtra(EXTRA_USER_HANDLE, -1);
+            if (userId < 0) return;
+
+            if (ACTION_USER_STARTING.equals(intent.getAction())) {
+                onUserStarting(userId);
+            } else {
+                onUserRemoved(userId);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import com.p1ngu1n.volumesteps.core.HookDiagnostics;
+import com.p1ngu1n.volumesteps.core.VolumeCurve;
+
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Applies the volume curves by translating the indices AudioService passes to the audio policy.
+ * Streams with a curve are initialized with a range of VolumeCurve.NATIVE_MAX steps, each index set afterwards
+ * is looked up in the table compiled when the configuration was loaded. Streams without a curve are untouched.
+ */
+class VolumeCurveHooks {
+    private VolumeCurveHooks() { }
+
+    /**
+     * Install the hooks.
+     * @param audioSystemClass The AudioSystem class
+     * @param controller The controller holding the active configuration
+     */
+    static void install(Class<?> audioSystemClass, final VolumeController controller) {
+        HookDiagnostics diagnostics = controller.getDiagnostics();
+
+        // initStreamVolume(int stream, int indexMin, int indexMax)
+        XposedBridge.hookAllMethods(audioSystemClass, "initStreamVolume", new TimedMethodHook(diagnostics, HookDiagnostics.HOOK_VOLUME_CURVE) {
+            @Override
+            protected void before(MethodHookParam param) throws Throwable {
+                if (controller.getConfig().getCurveTable((Integer) param.args[0]) == null) return;
+                param.args[2] = VolumeCurve.NATIVE_MAX;
+            }
+        });
+
+        // setStreamVolumeIndex(int stream, int index, [int device])
+        XposedBridge.hookAllMethods(audioSystemClass, "setStreamVolumeIndex", new TimedMethodHook(diagnostics, HookDiagnostics.HOOK_VOLUME_CURVE) {
+            @Override
+            protected void before(MethodHookParam param) throws Throwable {
+                int[] table = controller.getConfig().getCurveTable((Integer) param.args[0]);
+                if (table == null) return;
+                int index = (Integer) param.args[1];
+                param.args[1] = table[Math.max(0, Math.min(index, table.length - 1))];
+            }
+        });
+    }
+}
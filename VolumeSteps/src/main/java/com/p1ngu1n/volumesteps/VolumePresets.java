@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Map;
+
+import com.p1ngu1n.volumesteps.core.VolumePreset;
+
+/**
+ * Stores the volume presets and activates them. The presets are stored as a single preference.
+ */
+class VolumePresets {
+    static final String PREF_VOLUME_PRESETS = "pref_volume_presets";
+    // Private, unlike the preferences the module reads
+    private static final String SHORTCUT_PREFS_NAME = "shortcuts";
+    private static final String PREF_SHORTCUT_TOKEN = "shortcut_token";
+
+    private VolumePresets() { }
+
+    /**
+     * @param context The context of the settings app
+     * @return The preferences the settings and the module use
+     */
+    @SuppressWarnings("deprecation")
+    static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(getPrefsName(context), Context.MODE_WORLD_READABLE);
+    }
+
+    static VolumePreset[] load(SharedPreferences prefs) {
+        return VolumePreset.parse(prefs.getString(PREF_VOLUME_PRESETS, null));
+    }
+
+    static void store(SharedPreferences prefs, VolumePreset[] presets) {
+        prefs.edit().putString(PREF_VOLUME_PRESETS, VolumePreset.format(presets)).apply();
+    }
+
+    /**
+     * @param presets The presets to search
+     * @param name The name of the preset
+     * @return The index of the preset, or -1
+     */
+    static int indexOf(VolumePreset[] presets, String name) {
+        for (int i = 0; i < presets.length; i++) {
+            if (presets[i].getName().equals(name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Write every preference of the preset in a single commit and compile the config once, so the preferences are
+     * written to disk once and the module reloads once instead of once per changed preference.
+     * @param context The context of the settings app
+     * @param preset The preset to activate
+     * @return Whether the preferences were written
+     */
+    static boolean activate(Context context, VolumePreset preset) {
+        SharedPreferences prefs = getPreferences(context);
+        SharedPreferences.Editor editor = prefs.edit();
+        for (Map.Entry<String, Object> entry : preset.getValues().entrySet()) {
+            Object value = entry.getValue();
+            if (value == null) {
+                editor.remove(entry.getKey());
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(entry.getKey(), (Boolean) value);
+            } else if (value instanceof String) {
+                editor.putString(entry.getKey(), (String) value);
+            } else {
+                editor.putInt(entry.getKey(), (Integer) value);
+            }
+        }
+        // Synchronous, the config is compiled from the file the commit wrote
+        if (!editor.commit()) return false;
+
+        File sharedPrefsDir = new File(context.getApplicationInfo().dataDir, "shared_prefs");
+        ConfigWriter.publish(sharedPrefsDir, getPrefsName(context), prefs);
+        return true;
+    }
+
+    /**
+     * The secret launcher shortcuts pass to activate a preset, generated on first use. It is kept out of the
+     * world-readable preferences, so only the launchers which were given a shortcut know it.
+     * @param context The context of the settings app
+     * @return The token
+     */
+    static String getShortcutToken(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(SHORTCUT_PREFS_NAME, Context.MODE_PRIVATE);
+        String token = prefs.getString(PREF_SHORTCUT_TOKEN, null);
+        if (token == null) {
+            byte[] bytes = new byte[16];
+            new SecureRandom().nextBytes(bytes);
+            token = new BigInteger(1, bytes).toString(16);
+            prefs.edit().putString(PREF_SHORTCUT_TOKEN, token).commit();
+        }
+        return token;
+    }
+
+    private static String getPrefsName(Context context) {
+        return context.getPackageName() + "_preferences";
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.provider.Settings;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.p1ngu1n.volumesteps.core.StepTable;
+import com.p1ngu1n.volumesteps.core.VolumeMigration;
+
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Keeps the volumes AudioService persisted in the system settings on the same scale as the number of steps.
+ * At boot the volumes persisted at another step table are migrated, the step table they are now persisted at is
+ * stored after them. A migration which is interrupted leaves the old step table stored, so it is redone at the next boot.
+ */
+class VolumeSettings {
+    private static final String LOG_TAG = "VolumeSteps+: ";
+    private static final String[] PROJECTION = { Settings.System.NAME, Settings.System.VALUE };
+
+    private VolumeSettings() { }
+
+    /**
+     * Migrate the persisted volumes to the step table, called before AudioService reads them.
+     * @param resolver The content resolver of AudioService
+     * @param maxStreamVolume The MAX_STREAM_VOLUME array, after the configured steps were set
+     * @param debugging Whether to log the migrated volumes
+     */
+    static void migrate(ContentResolver resolver, int[] maxStreamVolume, boolean debugging) {
+        int[] newSteps = Arrays.copyOf(maxStreamVolume, Math.min(StepTable.CONFIGURABLE_STREAMS, maxStreamVolume.length));
+        String encodedSteps = VolumeMigration.encodeSteps(newSteps);
+        String storedSteps = Settings.System.getString(resolver, VolumeMigration.STEPS_SETTING);
+        if (encodedSteps.equals(storedSteps)) return;
+
+        // Without a stored table the scale of the volumes is unknown, they are left as they are
+        int[] oldSteps = VolumeMigration.decodeSteps(storedSteps);
+        Map<String, Integer> changes = (oldSteps != null ? VolumeMigration.migrate(readSettings(resolver), oldSteps, newSteps)
+                : new HashMap<String, Integer>());
+
+        if (!changes.isEmpty()) {
+            ContentValues[] values = new ContentValues[changes.size()];
+            int i = 0;
+            for (Map.Entry<String, Integer> change : changes.entrySet()) {
+                values[i++] = setting(change.getKey(), String.valueOf(change.getValue()));
+            }
+            resolver.bulkInsert(Settings.System.CONTENT_URI, values);
+        }
+        // Written last, so the volumes are never marked as migrated before they are
+        Settings.System.putString(resolver, VolumeMigration.STEPS_SETTING, encodedSteps);
+
+        XposedBridge.log(LOG_TAG + "Migrated " + changes.size() + " persisted volumes from steps " + storedSteps + " to " + encodedSteps);
+        if (debugging) XposedBridge.log(LOG_TAG + "Migrated volumes: " + changes);
+    }
+
+    /**
+     * Remember the step table the volumes are persisted at, after the indices were rescaled while running.
+     * @param resolver The content resolver of AudioService
+     * @param maxStreamVolume The MAX_STREAM_VOLUME array
+     */
+    static void storeSteps(ContentResolver resolver, int[] maxStreamVolume) {
+        Settings.System.putString(resolver, VolumeMigration.STEPS_SETTING, VolumeMigration.encodeSteps(maxStreamVolume));
+    }
+
+    /**
+     * Publish the maximums of the device, the settings app uses them as defaults and shows the streams they cover.
+     * @param resolver The content resolver of AudioService
+     * @param deviceSteps The MAX_STREAM_VOLUME array before the configured steps were set
+     */
+    static void storeDefaults(ContentResolver resolver, int[] deviceSteps) {
+        String encodedSteps = VolumeMigration.encodeSteps(deviceSteps);
+        if (!encodedSteps.equals(Settings.System.getString(resolver, VolumeMigration.DEFAULT_STEPS_SETTING))) {
+            Settings.System.putString(resolver, VolumeMigration.DEFAULT_STEPS_SETTING, encodedSteps);
+        }
+    }
+
+    /**
+     * Read all system settings, the settings provider of Marshmallow and higher doesn't support selections.
+     */
+    private static Map<String, String> readSettings(ContentResolver resolver) {
+        Map<String, String> settings = new HashMap<String, String>();
+        Cursor cursor = resolver.query(Settings.System.CONTENT_URI, PROJECTION, null, null, null);
+        if (cursor == null) return settings;
+        try {
+            while (cursor.moveToNext()) {
+                settings.put(cursor.getString(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return settings;
+    }
+
+    private static ContentValues setting(String name, String value) {
+        ContentValues values = new ContentValues();
+        values.put(Settings.System.NAME, name);
+        values.put(Settings.System.VALUE, value);
+        return values;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import com.p1ngu1n.volumesteps.core.ActiveStreamCache;
+import com.p1ngu1n.volumesteps.core.VolumePolicy;
+
+/**
+ * Cost of the getActiveStreamType decision for a key press without a suggested stream, which runs the full chain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ActiveStreamTypeBenchmark {
+    private StubAudioService mAudioService;
+    private LookupProbe mLookupProbe;
+    private NameCachedProbe mNameCachedProbe;
+    private ResolvedProbe mResolvedProbe;
+    private ActiveStreamCache mCache;
+
+    @Setup
+    public void setup() throws Exception {
+        mAudioService = new StubAudioService();
+        mLookupProbe = new LookupProbe();
+        mNameCachedProbe = new NameCachedProbe();
+        mResolvedProbe = new ResolvedProbe(StubAudioService.class);
+        mCache = new ActiveStreamCache();
+    }
+
+    /** Cold reflection: every member is looked up by name on each key press */
+    @Benchmark
+    public int coldLookup() throws Exception {
+        return VolumePolicy.decideActiveStream(VolumePolicy.USE_DEFAULT_STREAM_TYPE, VolumePolicy.MUSIC_ACTIVE_WINDOW_MS, mAudioService, mLookupProbe);
+    }
+
+    /** Warm reflection through a string-keyed member cache, as XposedHelpers does */
+    @Benchmark
+    public int warmNameCache() throws Exception {
+        return VolumePolicy.decideActiveStream(VolumePolicy.USE_DEFAULT_STREAM_TYPE, VolumePolicy.MUSIC_ACTIVE_WINDOW_MS, mAudioService, mNameCachedProbe);
+    }
+
+    /** Warm reflection through the members resolved when the hook is installed */
+    @Benchmark
+    public int warmResolved() throws Exception {
+        return VolumePolicy.decideActiveStream(VolumePolicy.USE_DEFAULT_STREAM_TYPE, VolumePolicy.MUSIC_ACTIVE_WINDOW_MS, mAudioService, mResolvedProbe);
+    }
+
+    /** A key repeat answered from the cached decision, only music activity is queried */
+    @Benchmark
+    public int warmCached() throws Exception {
+        return mCache.decide(VolumePolicy.USE_DEFAULT_STREAM_TYPE, 0, VolumePolicy.MUSIC_ACTIVE_WINDOW_MS, 0, mAudioService, mResolvedProbe);
+    }
+
+    /** Calls with a suggested stream return before any reflection */
+    @Benchmark
+    public int suggestedStream() throws Exception {
+        return VolumePolicy.decideActiveStream(VolumePolicy.USE_DEFAULT_STREAM_TYPE + 1, VolumePolicy.MUSIC_ACTIVE_WINDOW_MS, mAudioService, mResolvedProbe);
+    }
+
+    /** One-time cost of resolving the invocation plan when the hook is installed */
+    @Benchmark
+    public ResolvedProbe resolvePlan() throws Exception {
+        return new ResolvedProbe(StubAudioService.class);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.p1ngu1n.volumesteps.core.MapConfigSource;
+import com.p1ngu1n.volumesteps.core.StepTable;
+import com.p1ngu1n.volumesteps.core.VolumeConfig;
+import com.p1ngu1n.volumesteps.core.VolumeCurve;
+
+/**
+ * Swaps the configuration published to the hooks while reader threads use it, the way reloads in system_server
+ * race with the binder threads calling getActiveStreamType. Every configuration is derived from a single generation
+ * number, so a reader which sees fields of two different configurations, or a configuration which isn't fully
+ * constructed, finds values which don't belong together. Exits with status 1 if any torn read was seen.
+ *
+ * Run with: java -cp VolumeStepsBenchmark/build/classes/jmh:VolumeStepsCore/build/classes/main com.p1ngu1n.volumesteps.benchmark.ConfigSwapStress [seconds] [readers]
+ */
+public final class ConfigSwapStress {
+    // Generations cycle through the valid step counts
+    private static final int MIN_STEPS = 5;
+    private static final int STEP_RANGE = 46;
+    // A small pool of prepared configurations, so the writer swaps as fast as possible
+    private static final int POOL_SIZE = 64;
+
+    private static volatile VolumeConfig sConfig;
+
+    private ConfigSwapStress() { }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = (args.length > 0 ? Integer.parseInt(args[0]) : 10);
+        int readerCount = (args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors());
+
+        final VolumeConfig[] pool = new VolumeConfig[POOL_SIZE];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = create(i);
+        }
+        sConfig = pool[0];
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong torn = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(readerCount);
+        for (int i = 0; i < readerCount; i++) {
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long count = 0;
+                    while (running.get()) {
+                        if (!isConsistent(sConfig)) torn.incrementAndGet();
+                        count++;
+                    }
+                    reads.addAndGet(count);
+                    done.countDown();
+                }
+            }, "reader-" + i);
+            reader.start();
+        }
+
+        // Swap between the prepared configurations, and publish a newly loaded one every so often
+        long swaps = 0;
+        long end = System.nanoTime() + seconds * 1000000000L;
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < 1000; i++) {
+                sConfig = pool[(int) (swaps++ % POOL_SIZE)];
+            }
+            sConfig = create((int) swaps);
+        }
+        running.set(false);
+        done.await();
+
+        System.out.println("Readers: " + readerCount + ", swaps: " + swaps + ", reads: " + reads.get());
+        System.out.println("Torn reads: " + torn.get());
+        if (torn.get() != 0) System.exit(1);
+    }
+
+    /**
+     * Load a configuration of which every value follows from the generation.
+     */
+    private static VolumeConfig create(int generation) {
+        int steps = MIN_STEPS + generation % STEP_RANGE;
+        Map<String, Object> prefs = new HashMap<String, Object>();
+        for (int streamType = 0; streamType < StepTable.CONFIGURABLE_STREAMS; streamType++) {
+            prefs.put(StepTable.prefKey(streamType), steps);
+            prefs.put(StepTable.curvePrefKey(streamType), String.valueOf(generation % 2 == 0 ? VolumeCurve.CUBIC : VolumeCurve.STOCK));
+        }
+        prefs.put("pref_music_active_window", steps);
+        prefs.put("pref_key_repeat_window", steps * 10);
+        prefs.put("pref_key_acceleration", steps);
+        prefs.put("pref_persist_batched", generation % 2 == 0);
+        prefs.put("pref_persist_idle", steps);
+        return VolumeConfig.load(new MapConfigSource(prefs));
+    }
+
+    /**
+     * Read the configuration the way the hooks do and check that every value belongs to the same generation.
+     */
+    private static boolean isConsistent(VolumeConfig config) {
+        int steps = config.getMaxSteps(0);
+        for (int streamType = 1; streamType < StepTable.CONFIGURABLE_STREAMS; streamType++) {
+            if (config.getMaxSteps(streamType) != steps) return false;
+        }
+        if (config.getMusicActiveWindowMs() != steps * 1000
+                || config.getKeyRepeatWindowMs() != steps * 10
+                || config.getKeyAccelerationMaxSteps() != steps
+                || config.getPersistIdleMs() != steps * 1000) {
+            return false;
+        }
+
+        boolean curved = config.isPersistBatched();
+        for (int streamType = 0; streamType < StepTable.CONFIGURABLE_STREAMS; streamType++) {
+            int[] table = config.getCurveTable(streamType);
+            if (curved != (table != null)) return false;
+            if (table != null && (table.length != steps + 1 || table[steps] != VolumeCurve.NATIVE_MAX)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import com.p1ngu1n.volumesteps.core.MapConfigSource;
+import com.p1ngu1n.volumesteps.core.VolumeConfig;
+
+/**
+ * Boot-time cost of AudioMod.initHooks and the createAudioSystemThread hook, without the Xposed hooking itself.
+ * The preferences file is read into memory once, so the numbers exclude disk I/O.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InitHooksBenchmark {
+    private static final String LOG_TAG = "VolumeSteps+: ";
+    private static final String PREFS_FILE = "/com.p1ngu1n.volumesteps_preferences.xml";
+
+    private byte[] mPrefsXml;
+    private Map<String, Object> mPrefsValues;
+    private VolumeConfig mConfig;
+    private int[] mMaxStreamVolume;
+
+    @Setup
+    public void setup() throws Exception {
+        InputStream in = InitHooksBenchmark.class.getResourceAsStream(PREFS_FILE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+
+        mPrefsXml = out.toByteArray();
+        mPrefsValues = PreferencesXml.read(new ByteArrayInputStream(mPrefsXml));
+        mConfig = VolumeConfig.load(new MapConfigSource(mPrefsValues));
+        mMaxStreamVolume = StubAudioService.stockMaxStreamVolume();
+    }
+
+    /** Parsing the preferences file and loading the configuration from it */
+    @Benchmark
+    public VolumeConfig loadPreferences() throws Exception {
+        return VolumeConfig.load(new MapConfigSource(PreferencesXml.read(new ByteArrayInputStream(mPrefsXml))));
+    }
+
+    /** The sorted dump of all preferences logged when debugging is enabled */
+    @Benchmark
+    public void debugDump(Blackhole blackhole) {
+        Map<String, ?> sortedKeys = new TreeMap<String, Object>(mPrefsValues);
+        for (Map.Entry<String, ?> entry : sortedKeys.entrySet()) {
+            blackhole.consume(LOG_TAG + entry.getKey() + "=" + entry.getValue().toString());
+        }
+    }
+
+    /** Setting the configured steps in MAX_STREAM_VOLUME, including the before and after log lines */
+    @Benchmark
+    public void rewriteMaxStreamVolume(Blackhole blackhole) {
+        blackhole.consume(LOG_TAG + "MAX_STREAM_VOLUME before: " + Arrays.toString(mMaxStreamVolume));
+        mConfig.applyTo(mMaxStreamVolume);
+        blackhole.consume(LOG_TAG + "MAX_STREAM_VOLUME after: " + Arrays.toString(mMaxStreamVolume));
+    }
+
+    /** A complete initHooks run with debugging enabled, followed by the createAudioSystemThread hook */
+    @Benchmark
+    public int initHooks(Blackhole blackhole) throws Exception {
+        Map<String, Object> values = PreferencesXml.read(new ByteArrayInputStream(mPrefsXml));
+        VolumeConfig config = VolumeConfig.load(new MapConfigSource(values));
+        if (config.isDebugging()) {
+            Map<String, ?> sortedKeys = new TreeMap<String, Object>(values);
+            for (Map.Entry<String, ?> entry : sortedKeys.entrySet()) {
+                blackhole.consume(LOG_TAG + entry.getKey() + "=" + entry.getValue().toString());
+            }
+        }
+
+        int[] maxStreamVolume = StubAudioService.stockMaxStreamVolume();
+        blackhole.consume(LOG_TAG + "MAX_STREAM_VOLUME before: " + Arrays.toString(maxStreamVolume));
+        config.applyTo(maxStreamVolume);
+        blackhole.consume(LOG_TAG + "MAX_STREAM_VOLUME after: " + Arrays.toString(maxStreamVolume));
+        return config.getSafeHeadsetVolumeIndex();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.benchmark;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import com.p1ngu1n.volumesteps.core.AudioServiceProbe;
+
+/**
+ * Looks up every member by name on each call, the cost of a cold XposedHelpers.callMethod.
+ */
+public class LookupProbe implements AudioServiceProbe<Object> {
+    private static final int STREAM_MUSIC = 3;
+
+    @Override
+    public boolean isVoiceCapable(Object audioService) throws Exception {
+        return (Boolean) invoke(audioService, "isPlatformVoice");
+    }
+
+    @Override
+    public boolean isInCommunication(Object audioService) throws Exception {
+        return (Boolean) invoke(audioService, "isInCommunication");
+    }
+
+    @Override
+    public boolean isMusicActiveRecently(Object audioService, int windowMs) throws Exception {
+        return (Boolean) invoke(audioService, "isAfMusicActiveRecently", windowMs);
+    }
+
+    @Override
+    public boolean isRemoteMusicActive(Object audioService) throws Exception {
+        Field field = audioService.getClass().getDeclaredField("mMediaFocusControl");
+        field.setAccessible(true);
+        return (Boolean) invoke(field.get(audioService), "checkUpdateRemoteStateIfActive", STREAM_MUSIC);
+    }
+
+    private static Object invoke(Object obj, String methodName, Object... args) throws Exception {
+        Class<?>[] parameterTypes = new Class<?>[args.length];
+        for (int i = 0; i < args.length; i++) {
+            parameterTypes[i] = int.class;
+        }
+        Method method = obj.getClass().getDeclaredMethod(methodName, parameterTypes);
+        method.setAccessible(true);
+        return method.invoke(obj, args);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.benchmark;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.p1ngu1n.volumesteps.core.AudioServiceProbe;
+
+/**
+ * Caches members under a string key built on each call, the steady state of XposedHelpers.callMethod
+ * and getObjectField which the hook used before the invocation plan was introduced.
+ */
+public class NameCachedProbe implements AudioServiceProbe<Object> {
+    private static final int STREAM_MUSIC = 3;
+
+    private final Map<String, Member> mCache = new HashMap<String, Member>();
+
+    @Override
+    public boolean isVoiceCapable(Object audioService) throws Exception {
+        return (Boolean) invoke(audioService, "isPlatformVoice");
+    }
+
+    @Override
+    public boolean isInCommunication(Object audioService) throws Exception {
+        return (Boolean) invoke(audioService, "isInCommunication");
+    }
+
+    @Override
+    public boolean isMusicActiveRecently(Object audioService, int windowMs) throws Exception {
+        return (Boolean) invoke(audioService, "isAfMusicActiveRecently", windowMs);
+    }
+
+    @Override
+    public boolean isRemoteMusicActive(Object audioService) throws Exception {
+        Object mediaFocusControl = field(audioService, "mMediaFocusControl").get(audioService);
+        return (Boolean) invoke(mediaFocusControl, "checkUpdateRemoteStateIfActive", STREAM_MUSIC);
+    }
+
+    private synchronized Field field(Object obj, String fieldName) throws Exception {
+        String key = obj.getClass().getName() + '#' + fieldName;
+        Field field = (Field) mCache.get(key);
+        if (field == null) {
+            field = obj.getClass().getDeclaredField(fieldName);
+            field.setAccessible(true);
+            mCache.put(key, field);
+        }
+        return field;
+    }
+
+    private Object invoke(Object obj, String methodName, Object... args) throws Exception {
+        Class<?>[] parameterTypes = new Class<?>[args.length];
+        StringBuilder key = new StringBuilder(obj.getClass().getName()).append('#').append(methodName).append('(');
+        for (int i = 0; i < args.length; i++) {
+            parameterTypes[i] = int.class;
+            key.append(i == 0 ? "" : ",").append("int");
+        }
+        key.append(")#bestmatch");
+
+        Method method;
+        synchronized (this) {
+            method = (Method) mCache.get(key.toString());
+            if (method == null) {
+                method = obj.getClass().getDeclaredMethod(methodName, parameterTypes);
+                method.setAccessible(true);
+                mCache.put(key.toString(), method);
+            }
+        }
+        return method.invoke(obj, args);
+    }
+}
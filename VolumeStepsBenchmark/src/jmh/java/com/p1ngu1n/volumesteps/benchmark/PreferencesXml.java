@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.benchmark;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Parses a shared preferences XML file into a map, standing in for the parsing done by XSharedPreferences.
+ */
+public final class PreferencesXml {
+    private PreferencesXml() { }
+
+    /**
+     * Read the int, boolean and string preferences from a shared preferences file.
+     * @param in The contents of the file
+     * @return The preference values by key
+     */
+    public static Map<String, Object> read(InputStream in) throws Exception {
+        Map<String, Object> values = new HashMap<String, Object>();
+        NodeList nodes = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in).getDocumentElement().getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Node node = nodes.item(i);
+            if (node.getNodeType() != Node.ELEMENT_NODE) continue;
+
+            Element element = (Element) node;
+            String name = element.getAttribute("name");
+            if (element.getTagName().equals("int")) {
+                values.put(name, Integer.parseInt(element.getAttribute("value")));
+            } else if (element.getTagName().equals("boolean")) {
+                values.put(name, Boolean.parseBoolean(element.getAttribute("value")));
+            } else if (element.getTagName().equals("string")) {
+                values.put(name, element.getTextContent());
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.benchmark;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.p1ngu1n.volumesteps.core.ActiveStreamCache;
+import com.p1ngu1n.volumesteps.core.MusicActivityTracker;
+import com.p1ngu1n.volumesteps.core.ResolvedAudioServiceProbe;
+import com.p1ngu1n.volumesteps.core.VolumePolicy;
+
+/**
+ * Replays a trace of key presses, mode changes and playback events against the getActiveStreamType decision chain
+ * of the hook: ActiveStreamCache, MusicActivityTracker and the reflective invocation plan of every supported SDK,
+ * answered by a scripted AudioService. Events are applied in order; every run of key presses at the same moment is
+ * replayed by all threads at once, the way binder threads handle a burst of key repeats. Reports the decisions made,
+ * the key presses routed differently than the trace expects and the calls per second. Exits with status 1 if any
+ * key press was routed differently.
+ *
+ * Run with: java -cp VolumeStepsBenchmark/build/classes/jmh:VolumeStepsBenchmark/src/jmh/resources:VolumeStepsCore/build/classes/main com.p1ngu1n.volumesteps.benchmark.ReplaySimulator [trace file|builtin|random] [threads] [repeats]
+ */
+public final class ReplaySimulator {
+    private static final String BUILTIN_TRACE = "/active_stream.trace";
+    private static final int RANDOM_EVENTS = 20000;
+    private static final long RANDOM_SEED = 20140601L;
+    private static final int[] SDKS = { ResolvedAudioServiceProbe.SDK_JELLY_BEAN, ResolvedAudioServiceProbe.SDK_KITKAT, ResolvedAudioServiceProbe.SDK_LOLLIPOP };
+    private static final int RESULTS = VolumePolicy.RESULT_REMOTE_ACTIVE + 1;
+    // Only the first mismatches are printed, the rest is counted
+    private static final int MAX_REPORTED_MISMATCHES = 10;
+
+    private ReplaySimulator() { }
+
+    public static void main(String[] args) throws Exception {
+        String traceName = (args.length > 0 ? args[0] : "builtin");
+        int threadCount = (args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors());
+        int repeats = (args.length > 2 ? Integer.parseInt(args[2]) : 100);
+
+        ReplayTrace trace = loadTrace(traceName);
+        System.out.println("Trace: " + trace.getName() + ", events: " + trace.getEvents().size()
+                + ", threads: " + threadCount + ", repeats: " + repeats);
+
+        long mismatches = 0;
+        for (int sdk : SDKS) {
+            mismatches += replay(trace, sdk, threadCount, repeats);
+        }
+        if (mismatches != 0) System.exit(1);
+    }
+
+    private static ReplayTrace loadTrace(String name) throws Exception {
+        if (name.equals("random")) {
+            return ReplayTrace.generate(RANDOM_EVENTS, RANDOM_SEED, VolumePolicy.MUSIC_ACTIVE_WINDOW_MS);
+        }
+
+        InputStream in;
+        if (name.equals("builtin")) {
+            in = ReplaySimulator.class.getResourceAsStream(BUILTIN_TRACE);
+            if (in == null) throw new IllegalStateException(BUILTIN_TRACE + " is not on the classpath");
+        } else {
+            in = new FileInputStream(name);
+        }
+        try {
+            return ReplayTrace.read(name, new InputStreamReader(in, "UTF-8"));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Replay the trace with the invocation plan of an SDK.
+     * @return The number of key presses routed differently than expected
+     */
+    private static long replay(ReplayTrace trace, int sdk, int threadCount, int repeats) throws Exception {
+        Device device = new Device(sdk);
+        Burst burst = new Burst(threadCount);
+        Worker[] workers = new Worker[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            workers[i] = new Worker(device, burst, repeats);
+            Thread thread = new Thread(workers[i], "replay-" + sdk + "-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        // Apply the events in order, handing every run of key presses at the same moment to the workers
+        List<ReplayTrace.Event> events = trace.getEvents();
+        long elapsedNanos = 0;
+        int index = 0;
+        while (index < events.size()) {
+            ReplayTrace.Event event = events.get(index);
+            if (event.command != ReplayTrace.KEY) {
+                device.apply(event);
+                index++;
+                continue;
+            }
+
+            int end = index + 1;
+            while (end < events.size() && events.get(end).command == ReplayTrace.KEY && events.get(end).time == event.time) {
+                end++;
+            }
+            device.mNow = event.time;
+            burst.mKeys = events.subList(index, end);
+            burst.mStart.await();
+            long start = System.nanoTime();
+            burst.mEnd.await();
+            elapsedNanos += System.nanoTime() - start;
+            index = end;
+        }
+        burst.mKeys = null;
+        burst.mStart.await();
+
+        long[] counts = new long[RESULTS];
+        long calls = 0;
+        for (Worker worker : workers) {
+            for (int result = 0; result < RESULTS; result++) {
+                counts[result] += worker.mCounts[result];
+                calls += worker.mCounts[result];
+            }
+        }
+
+        StringBuilder decisions = new StringBuilder();
+        for (int result = 0; result < RESULTS; result++) {
+            if (result > 0) decisions.append(", ");
+            decisions.append(ReplayTrace.resultName(result)).append(' ').append(counts[result]);
+        }
+        double seconds = elapsedNanos / 1e9;
+        System.out.println("SDK " + sdk + ": " + calls + " calls in " + String.format("%.3f", seconds) + " s, "
+                + String.format("%.0f", (seconds > 0 ? calls / seconds : 0)) + " calls/s");
+        System.out.println("  Decisions: " + decisions);
+        System.out.println("  Mismatches: " + burst.mMismatches.get() + ", errors: " + burst.mErrors.get());
+        for (String mismatch : burst.mReported) {
+            System.out.println("    " + mismatch);
+        }
+        return burst.mMismatches.get() + burst.mErrors.get();
+    }
+
+    /**
+     * The scripted AudioService and the state of the hook for a single SDK.
+     */
+    private static final class Device {
+        private final ScriptedAudioService mAudioService = new ScriptedAudioService();
+        private final MusicActivityTracker mTracker = new MusicActivityTracker();
+        private final ActiveStreamCache mCache = new ActiveStreamCache();
+        private final ResolvedAudioServiceProbe mProbe;
+        private final Field mMode;
+        // The simulated time of the next key presses, set between bursts
+        private volatile long mNow;
+
+        Device(int sdk) throws Exception {
+            mProbe = new ResolvedAudioServiceProbe(ScriptedAudioService.class, sdk, mTracker) {
+                @Override
+                protected long now() {
+                    return mNow;
+                }
+            };
+            mMode = ScriptedAudioService.class.getDeclaredField("mMode");
+            mMode.setAccessible(true);
+        }
+
+        /**
+         * Apply an event other than a key press, invalidating the cache where the hooks on AudioService do.
+         * Voice capability never changes on a device, a change is treated like a reboot.
+         */
+        void apply(ReplayTrace.Event event) {
+            switch (event.command) {
+                case ReplayTrace.VOICE:
+                    mAudioService.setVoiceCapable(event.value != 0);
+                    mCache.invalidate();
+                    break;
+                case ReplayTrace.MODE:
+                    mAudioService.setMode(event.value);
+                    mCache.invalidate();
+                    break;
+                case ReplayTrace.PLAY:
+                    mTracker.onPlaybackStarted(event.source, event.time);
+                    break;
+                case ReplayTrace.STOP:
+                    mTracker.onPlaybackStopped(event.source, event.time);
+                    break;
+                case ReplayTrace.REMOTE:
+                    mAudioService.setRemoteActive(event.value != 0);
+                    mCache.invalidate();
+                    break;
+                case ReplayTrace.FOCUS:
+                    mCache.invalidate();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown command " + event.command);
+            }
+        }
+
+        /**
+         * Decide a key press the way ActiveStreamTypeHook.before does.
+         */
+        int decide(ReplayTrace.Event key) throws Exception {
+            int mode = mMode.getInt(mAudioService);
+            return mCache.decide(key.value, mode, VolumePolicy.MUSIC_ACTIVE_WINDOW_MS, key.time, mAudioService, mProbe);
+        }
+    }
+
+    /**
+     * The key presses handed to the workers, and what they found.
+     */
+    private static final class Burst {
+        private final CyclicBarrier mStart;
+        private final CyclicBarrier mEnd;
+        // Written by the coordinator before the start barrier, null to stop the workers
+        private volatile List<ReplayTrace.Event> mKeys;
+        private final AtomicLong mMismatches = new AtomicLong();
+        private final AtomicLong mErrors = new AtomicLong();
+        private final List<String> mReported = Collections.synchronizedList(new ArrayList<String>());
+
+        Burst(int threadCount) {
+            mStart = new CyclicBarrier(threadCount + 1);
+            mEnd = new CyclicBarrier(threadCount + 1);
+        }
+
+        void report(String message) {
+            synchronized (mReported) {
+                if (mReported.size() < MAX_REPORTED_MISMATCHES) mReported.add(message);
+            }
+        }
+    }
+
+    private static final class Worker implements Runnable {
+        private final Device mDevice;
+        private final Burst mBurst;
+        private final int mRepeats;
+        // Only read by the coordinator after the workers stopped
+        private final long[] mCounts = new long[RESULTS];
+
+        Worker(Device device, Burst burst, int repeats) {
+            mDevice = device;
+            mBurst = burst;
+            mRepeats = repeats;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    mBurst.mStart.await();
+                    List<ReplayTrace.Event> keys = mBurst.mKeys;
+                    if (keys == null) return;
+
+                    for (int repeat = 0; repeat < mRepeats; repeat++) {
+                        for (ReplayTrace.Event key : keys) {
+                            press(key);
+                        }
+                    }
+                    mBurst.mEnd.await();
+                }
+            } catch (Exception e) {
+                // A broken barrier leaves the coordinator waiting, this only happens on interruption
+                e.printStackTrace();
+            }
+        }
+
+        private void press(ReplayTrace.Event key) {
+            int result;
+            try {
+                result = mDevice.decide(key);
+            } catch (Exception e) {
+                mBurst.mErrors.incrementAndGet();
+                mBurst.report("line " + key.line + " at " + key.time + " ms: " + e);
+                return;
+            }
+
+            mCounts[result]++;
+            if (key.expected != ReplayTrace.NO_EXPECTATION && key.expected != result) {
+                mBurst.mMismatches.incrementAndGet();
+                mBurst.report("line " + key.line + " at " + key.time + " ms: expected "
+                        + ReplayTrace.resultName(key.expected) + ", decided " + ReplayTrace.resultName(result));
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.p1ngu1n.volumesteps.core.AudioServiceProbe;
+import com.p1ngu1n.volumesteps.core.MusicActivityTracker;
+import com.p1ngu1n.volumesteps.core.VolumePolicy;
+
+/**
+ * A trace of key presses, mode changes and playback events, read from a script or generated. A script has one event
+ * per line, starting with its time in milliseconds; a key press may state the routing it expects:
+ *
+ * <pre>
+ * # time command [argument] [expect=result]
+ * 0    voice on
+ * 100  play spotify
+ * 200  key expect=music_active
+ * 200  key 2 expect=suggested
+ * 5300 stop spotify
+ * 5400 mode 3
+ * 5500 key expect=in_communication
+ * </pre>
+ *
+ * Commands are voice on|off, mode [mode], play [source], stop [source], remote on|off, focus and key [stream].
+ */
+public final class ReplayTrace {
+    public static final int VOICE = 0;
+    public static final int MODE = 1;
+    public static final int PLAY = 2;
+    public static final int STOP = 3;
+    public static final int REMOTE = 4;
+    public static final int FOCUS = 5;
+    public static final int KEY = 6;
+    public static final int NO_EXPECTATION = -1;
+
+    private static final String[] COMMANDS = { "voice", "mode", "play", "stop", "remote", "focus", "key" };
+    // Indexed by the VolumePolicy.RESULT_* constants
+    private static final String[] RESULTS = {
+            "music", "suggested", "not_voice_capable", "in_communication", "music_active", "remote_active"
+    };
+
+    /**
+     * An event of the trace, a key press carries its stream and expected result.
+     */
+    public static final class Event {
+        // The line in the script, or the number of a generated event
+        public final int line;
+        public final long time;
+        public final int command;
+        // The stream of a key press, the mode, or 1 for on and 0 for off
+        public final int value;
+        public final String source;
+        public final int expected;
+
+        Event(int line, long time, int command, int value, String source, int expected) {
+            this.line = line;
+            this.time = time;
+            this.command = command;
+            this.value = value;
+            this.source = source;
+            this.expected = expected;
+        }
+    }
+
+    private final String mName;
+    private final List<Event> mEvents;
+
+    private ReplayTrace(String name, List<Event> events) {
+        mName = name;
+        mEvents = Collections.unmodifiableList(events);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public List<Event> getEvents() {
+        return mEvents;
+    }
+
+    /**
+     * @param result One of the VolumePolicy.RESULT_* constants
+     * @return The name of the result in scripts
+     */
+    public static String resultName(int result) {
+        return RESULTS[result];
+    }
+
+    /**
+     * Read a script.
+     * @param name The name of the trace, used in reports
+     * @param in The script
+     * @throws IllegalArgumentException If a line can't be parsed
+     */
+    public static ReplayTrace read(String name, Reader in) throws IOException {
+        List<Event> events = new ArrayList<Event>();
+        BufferedReader reader = new BufferedReader(in);
+        long lastTime = 0;
+        String text;
+        for (int line = 1; (text = reader.readLine()) != null; line++) {
+            int comment = text.indexOf('#');
+            if (comment >= 0) text = text.substring(0, comment);
+            text = text.trim();
+            if (text.isEmpty()) continue;
+
+            try {
+                Event event = parse(line, text.split("\\s+"));
+                if (event.time < lastTime) throw new IllegalArgumentException("time goes backwards");
+                lastTime = event.time;
+                events.add(event);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(name + ":" + line + ": " + e.getMessage() + ": " + text, e);
+            }
+        }
+        return new ReplayTrace(name, events);
+    }
+
+    private static Event parse(int line, String[] tokens) {
+        if (tokens.length < 2) throw new IllegalArgumentException("expected a time and a command");
+        long time = Long.parseLong(tokens[0]);
+        int command = indexOf(COMMANDS, tokens[1], "command");
+
+        int expected = NO_EXPECTATION;
+        int argumentCount = tokens.length - 2;
+        if (argumentCount > 0 && tokens[tokens.length - 1].startsWith("expect=")) {
+            if (command != KEY) throw new IllegalArgumentException("only key presses can expect a result");
+            expected = indexOf(RESULTS, tokens[tokens.length - 1].substring("expect=".length()), "result");
+            argumentCount--;
+        }
+        String argument = (argumentCount > 0 ? tokens[2] : null);
+        if (argumentCount > 1) throw new IllegalArgumentException("too many arguments");
+
+        switch (command) {
+            case VOICE:
+            case REMOTE:
+                if ("on".equals(argument)) return new Event(line, time, command, 1, null, expected);
+                if ("off".equals(argument)) return new Event(line, time, command, 0, null, expected);
+                throw new IllegalArgumentException("expected on or off");
+            case MODE:
+                if (argument == null) throw new IllegalArgumentException("expected a mode");
+                return new Event(line, time, command, Integer.parseInt(argument), null, expected);
+            case PLAY:
+            case STOP:
+                if (argument == null) throw new IllegalArgumentException("expected a source");
+                return new Event(line, time, command, 0, argument, expected);
+            case KEY:
+                int stream = (argument != null ? Integer.parseInt(argument) : VolumePolicy.USE_DEFAULT_STREAM_TYPE);
+                return new Event(line, time, command, stream, null, expected);
+            default:
+                if (argument != null) throw new IllegalArgumentException("no argument expected");
+                return new Event(line, time, command, 0, null, expected);
+        }
+    }
+
+    private static int indexOf(String[] names, String name, String kind) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        throw new IllegalArgumentException("unknown " + kind + " '" + name + "'");
+    }
+
+    /**
+     * Generate a random trace. The expected result of every key press is decided by VolumePolicy.decideActiveStream
+     * on a plain model of the state, without any caching, so the replay checks the cached decisions against it.
+     * @param events The number of events to generate
+     * @param seed The seed, the same seed generates the same trace
+     * @param musicActiveWindowMs The period in which music counts as active, in milliseconds
+     */
+    public static ReplayTrace generate(int events, long seed, int musicActiveWindowMs) throws Exception {
+        Random random = new Random(seed);
+        Model model = new Model();
+        List<Event> trace = new ArrayList<Event>(events);
+        long time = 0;
+        while (trace.size() < events) {
+            // Spread over the music active window, so playback stops are seen on both sides of it
+            time += random.nextInt(musicActiveWindowMs / 2);
+            int roll = random.nextInt(100);
+            if (roll < 50) {
+                // A burst of key repeats at the same moment
+                int burst = 1 + random.nextInt(5);
+                int stream = (random.nextInt(5) == 0 ? 2 : VolumePolicy.USE_DEFAULT_STREAM_TYPE);
+                model.mNow = time;
+                int expected = VolumePolicy.decideActiveStream(stream, musicActiveWindowMs, model, model);
+                for (int i = 0; i < burst && trace.size() < events; i++) {
+                    trace.add(new Event(trace.size() + 1, time, KEY, stream, null, expected));
+                }
+            } else if (roll < 58) {
+                int mode = random.nextInt(4);
+                model.mMode = mode;
+                trace.add(new Event(trace.size() + 1, time, MODE, mode, null, NO_EXPECTATION));
+            } else if (roll < 85) {
+                String source = "source" + random.nextInt(3);
+                boolean play = random.nextBoolean();
+                Long since = model.mPlaying.remove(source);
+                if (play) {
+                    model.mPlaying.put(source, time);
+                    model.mLastActive = time;
+                } else if (since != null && time - since <= MusicActivityTracker.MAX_PLAYING_AGE_MS) {
+                    model.mLastActive = time;
+                }
+                trace.add(new Event(trace.size() + 1, time, (play ? PLAY : STOP), 0, source, NO_EXPECTATION));
+            } else if (roll < 93) {
+                model.mRemoteActive = random.nextBoolean();
+                trace.add(new Event(trace.size() + 1, time, REMOTE, (model.mRemoteActive ? 1 : 0), null, NO_EXPECTATION));
+            } else if (roll < 98) {
+                trace.add(new Event(trace.size() + 1, time, FOCUS, 0, null, NO_EXPECTATION));
+            } else {
+                model.mVoiceCapable = random.nextInt(4) != 0;
+                trace.add(new Event(trace.size() + 1, time, VOICE, (model.mVoiceCapable ? 1 : 0), null, NO_EXPECTATION));
+            }
+        }
+        return new ReplayTrace("random (seed " + seed + ")", trace);
+    }
+
+    /**
+     * The state a trace sets, answering the policy directly.
+     */
+    private static final class Model implements AudioServiceProbe<Model> {
+        private boolean mVoiceCapable = true;
+        private int mMode = 0;
+        private boolean mRemoteActive = false;
+        // The time each source reported playing, there are fewer sources than the tracker remembers
+        private final Map<String, Long> mPlaying = new HashMap<String, Long>();
+        private long mLastActive = Long.MIN_VALUE / 2;
+        private long mNow;
+
+        @Override
+        public boolean isVoiceCapable(Model model) {
+            return mVoiceCapable;
+        }
+
+        @Override
+        public boolean isInCommunication(Model model) {
+            return mMode == 2 || mMode == 3;
+        }
+
+        @Override
+        public boolean isMusicActiveRecently(Model model, int windowMs) {
+            for (long since : mPlaying.values()) {
+                if (mNow - since <= MusicActivityTracker.MAX_PLAYING_AGE_MS) return true;
+            }
+            return mNow - mLastActive <= windowMs;
+        }
+
+        @Override
+        public boolean isRemoteMusicActive(Model model) {
+            return mRemoteActive;
+        }
+    }
+}
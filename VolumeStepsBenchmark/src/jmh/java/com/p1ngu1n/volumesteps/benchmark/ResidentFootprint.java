@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.benchmark;
+
+import java.io.InputStream;
+import java.util.Map;
+
+import com.p1ngu1n.volumesteps.core.ActiveStreamCache;
+import com.p1ngu1n.volumesteps.core.HookDiagnostics;
+import com.p1ngu1n.volumesteps.core.MapConfigSource;
+import com.p1ngu1n.volumesteps.core.MusicActivityTracker;
+import com.p1ngu1n.volumesteps.core.TraceBuffer;
+import com.p1ngu1n.volumesteps.core.VolumeConfig;
+
+/**
+ * Measures the heap retained by the module state initHooks leaves behind: the parsed preferences, the configuration
+ * and the state of the hooks. When the hooks were installed in zygote every app process inherited this state,
+ * so this is the heap saved per app process, excluding the hook bookkeeping of Xposed itself.
+ *
+ * Run with: java -cp VolumeStepsBenchmark/build/classes/jmh:VolumeStepsBenchmark/build/resources/jmh:VolumeStepsCore/build/classes/main com.p1ngu1n.volumesteps.benchmark.ResidentFootprint
+ */
+public final class ResidentFootprint {
+    private static final String PREFS_FILE = "/com.p1ngu1n.volumesteps_preferences.xml";
+    private static final int COPIES = 10000;
+    // Same capacity as the Tracer in system_server
+    private static final int TRACE_CAPACITY = 256;
+
+    private ResidentFootprint() { }
+
+    public static void main(String[] args) throws Exception {
+        // Warm up the class loading and parser, so only the retained objects are measured
+        createState();
+
+        Object[] states = new Object[COPIES];
+        long before = usedHeap();
+        for (int i = 0; i < COPIES; i++) {
+            states[i] = createState();
+        }
+        long after = usedHeap();
+
+        System.out.println("Retained per process: " + (after - before) / COPIES + " bytes");
+        System.out.println("Kept " + states.length + " copies");
+    }
+
+    private static Object[] createState() throws Exception {
+        InputStream in = ResidentFootprint.class.getResourceAsStream(PREFS_FILE);
+        Map<String, Object> prefs = PreferencesXml.read(in);
+        in.close();
+
+        return new Object[] {
+                prefs,
+                VolumeConfig.load(new MapConfigSource(prefs)),
+                new TraceBuffer(TRACE_CAPACITY),
+                new HookDiagnostics(),
+                new MusicActivityTracker(),
+                new ActiveStreamCache()
+        };
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
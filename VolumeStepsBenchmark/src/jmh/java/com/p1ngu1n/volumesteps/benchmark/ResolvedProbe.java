@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.benchmark;
+
+import com.p1ngu1n.volumesteps.core.MusicActivityTracker;
+import com.p1ngu1n.volumesteps.core.ResolvedAudioServiceProbe;
+
+/**
+ * Resolves every member once on construction, with the same plan ActiveStreamTypeHook uses on Lollipop and higher.
+ * No playback is reported to its tracker, like the stub music is never active.
+ */
+public class ResolvedProbe extends ResolvedAudioServiceProbe {
+    public ResolvedProbe(Class<?> audioServiceClass) {
+        super(audioServiceClass, SDK_LOLLIPOP, new MusicActivityTracker());
+    }
+
+    @Override
+    protected long now() {
+        return 0;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.benchmark;
+
+/**
+ * AudioService of which the state is set by a replayed trace. It has the members of every SDK branch the hook
+ * resolves: mVoiceCapable and isPlatformVoice, and checkUpdateRemoteStateIfActive on AudioService as well as on
+ * MediaFocusControl. Members the hook reads are private like in the real class, so they are only reached through
+ * reflection. The state is only changed between bursts of key presses.
+ */
+@SuppressWarnings("unused")
+public class ScriptedAudioService {
+    // AudioSystem.MODE_IN_CALL and MODE_IN_COMMUNICATION
+    private static final int MODE_IN_CALL = 2;
+    private static final int MODE_IN_COMMUNICATION = 3;
+
+    private boolean mVoiceCapable = true;
+    private int mMode = 0;
+    private boolean mRemoteActive = false;
+    private final MediaFocusControl mMediaFocusControl = new MediaFocusControl();
+
+    /**
+     * Holds the remote playback state on KitKat and higher.
+     */
+    public static class MediaFocusControl {
+        private boolean mRemoteActive = false;
+
+        private boolean checkUpdateRemoteStateIfActive(int streamType) {
+            return mRemoteActive;
+        }
+    }
+
+    private boolean isPlatformVoice() {
+        return mVoiceCapable;
+    }
+
+    private boolean isInCommunication() {
+        return mMode == MODE_IN_CALL || mMode == MODE_IN_COMMUNICATION;
+    }
+
+    // Before KitKat
+    private boolean checkUpdateRemoteStateIfActive(int streamType) {
+        return mRemoteActive;
+    }
+
+    public void setVoiceCapable(boolean voiceCapable) {
+        mVoiceCapable = voiceCapable;
+    }
+
+    public void setMode(int mode) {
+        mMode = mode;
+    }
+
+    public void setRemoteActive(boolean remoteActive) {
+        mRemoteActive = remoteActive;
+        mMediaFocusControl.mRemoteActive = remoteActive;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import com.p1ngu1n.volumesteps.core.StepRange;
+
+/**
+ * Cost of a SeekBar drag event in SeekBarDialogPreference: translating the index and formatting the summary.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StepRangeBenchmark {
+    private final StepRange mRange = new StepRange(5, 50, 1);
+    private final String mFormat = "%1$s steps";
+    private int mIndex;
+
+    @Benchmark
+    public int translate() {
+        mIndex = (mIndex + 1) % (mRange.maxIndex() + 1);
+        return mRange.valueToIndex(mRange.indexToValue(mIndex));
+    }
+
+    @Benchmark
+    public CharSequence formatSummary() {
+        mIndex = (mIndex + 1) % (mRange.maxIndex() + 1);
+        return String.format(mFormat, mRange.indexToValue(mIndex));
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.benchmark;
+
+/**
+ * Mimics the fields and methods of AudioService (KitKat and higher) which are used by the hooks.
+ * Members are private like in the real class, so they can only be reached through reflection.
+ */
+@SuppressWarnings("unused")
+public class StubAudioService {
+    private static int[] MAX_STREAM_VOLUME = { 5, 7, 7, 15, 7, 7, 15, 7, 15, 15 };
+
+    private boolean mVoiceCapable = true;
+    private int mMode = 0;
+    private boolean mMusicActive = false;
+    private StubMediaFocusControl mMediaFocusControl = new StubMediaFocusControl();
+
+    private boolean isPlatformVoice() {
+        return mVoiceCapable;
+    }
+
+    private boolean isInCommunication() {
+        return mMode == 3;
+    }
+
+    private boolean isAfMusicActiveRecently(int sinceMs) {
+        return mMusicActive;
+    }
+
+    private void createAudioSystemThread() { }
+
+    /**
+     * @return A fresh copy of the stock MAX_STREAM_VOLUME array
+     */
+    public static int[] stockMaxStreamVolume() {
+        return MAX_STREAM_VOLUME.clone();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers the parts of the getActiveStreamType decision which only change on specific events:
+ * voice capability, whether a call is ongoing and whether music plays remotely.
+ * The cache is keyed by the audio mode and dropped by invalidate(), which is called from hooks on
+ * mode, audio focus and remote playback changes. Music activity is time based and always queried.
+ */
+public final class ActiveStreamCache {
+    /** Upper bound on the age of a cached decision, in case an event is missed */
+    public static final long MAX_AGE_MS = VolumePolicy.MUSIC_ACTIVE_WINDOW_MS;
+
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private volatile Entry mEntry;
+
+    private static final class Entry {
+        final int generation;
+        final int mode;
+        final long evaluatedAt;
+        final int result;
+        final boolean remoteMusicActive;
+
+        Entry(int generation, int mode, long evaluatedAt, int result, boolean remoteMusicActive) {
+            this.generation = generation;
+            this.mode = mode;
+            this.evaluatedAt = evaluatedAt;
+            this.result = result;
+            this.remoteMusicActive = remoteMusicActive;
+        }
+    }
+
+    /**
+     * Drop the cached decision, it is evaluated again on the next key press.
+     */
+    public void invalidate() {
+        mGeneration.incrementAndGet();
+    }
+
+    /**
+     * Same decision as VolumePolicy.decideActiveStream, using the cached state when it is still valid.
+     * @param suggestedStreamType The stream type passed to getActiveStreamType
+     * @param mode The current audio mode of AudioService
+     * @param musicActiveWindowMs The period in which music counts as active, in milliseconds
+     * @param now The current time in milliseconds, from a monotonic clock
+     * @param audioService The AudioService instance
+     * @param probe The probe to query the state of AudioService with
+     * @return The outcome, RESULT_TARGET_MUSIC if nothing else is active, otherwise what is
+     */
+    public <S> int decide(int suggestedStreamType, int mode, int musicActiveWindowMs, long now,
+                          S audioService, AudioServiceProbe<S> probe) throws Exception {
+        if (suggestedStreamType != VolumePolicy.USE_DEFAULT_STREAM_TYPE) return VolumePolicy.RESULT_STREAM_SUGGESTED;
+
+        // Read the generation before evaluating, an invalidation during the evaluation then discards the result
+        int generation = mGeneration.get();
+        Entry entry = mEntry;
+        if (entry == null || entry.generation != generation || entry.mode != mode || now - entry.evaluatedAt > MAX_AGE_MS) {
+            entry = evaluate(generation, mode, now, audioService, probe);
+            mEntry = entry;
+        }
+
+        if (entry.result != VolumePolicy.RESULT_TARGET_MUSIC) return entry.result;
+        if (probe.isMusicActiveRecently(audioService, musicActiveWindowMs)) return VolumePolicy.RESULT_MUSIC_ACTIVE;
+        if (entry.remoteMusicActive) return VolumePolicy.RESULT_REMOTE_ACTIVE;
+        return VolumePolicy.RESULT_TARGET_MUSIC;
+    }
+
+    private static <S> Entry evaluate(int generation, int mode, long now, S audioService, AudioServiceProbe<S> probe) throws Exception {
+        if (!probe.isVoiceCapable(audioService)) {
+            return new Entry(generation, mode, now, VolumePolicy.RESULT_NOT_VOICE_CAPABLE, false);
+        }
+        if (probe.isInCommunication(audioService)) {
+            return new Entry(generation, mode, now, VolumePolicy.RESULT_IN_COMMUNICATION, false);
+        }
+        return new Entry(generation, mode, now, VolumePolicy.RESULT_TARGET_MUSIC, probe.isRemoteMusicActive(audioService));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The volume settings of an app, applied while the app has audio focus or plays.
+ * A profile overrides the number of steps and sets the volume of each stream, or leaves it unchanged.
+ * Apps are identified by their app id, the part of the uid which is the same for every user.
+ */
+public final class AppProfile {
+    /** Value of a stream which keeps the number of steps or the volume it has */
+    public static final int UNCHANGED = -1;
+    /** Number of uids reserved per user, see UserHandle.PER_USER_RANGE */
+    public static final int PER_USER_RANGE = 100000;
+
+    private final String mPackageName;
+    private final int mAppId;
+    private final int[] mSteps;
+    private final int[] mLevels;
+
+    /**
+     * @param packageName The package of the app
+     * @param uid The uid of the app, of any user
+     * @param steps The number of steps of each stream, or UNCHANGED
+     * @param levels The volume of each stream in percent, or UNCHANGED
+     */
+    public AppProfile(String packageName, int uid, int[] steps, int[] levels) {
+        mPackageName = packageName;
+        mAppId = appId(uid);
+        mSteps = steps.clone();
+        mLevels = levels.clone();
+    }
+
+    /**
+     * @param uid A uid of any user
+     * @return The app id of the uid
+     */
+    public static int appId(int uid) {
+        return uid % PER_USER_RANGE;
+    }
+
+    public String getPackageName() {
+        return mPackageName;
+    }
+
+    public int getAppId() {
+        return mAppId;
+    }
+
+    /**
+     * @param streamType The stream type
+     * @return The number of steps of the stream while the profile is active, or UNCHANGED
+     */
+    public int getSteps(int streamType) {
+        return mSteps[streamType];
+    }
+
+    /**
+     * @param streamType The stream type
+     * @return The volume the stream is set to when the profile becomes active in percent, or UNCHANGED
+     */
+    public int getLevel(int streamType) {
+        return mLevels[streamType];
+    }
+
+    /**
+     * Parse the profiles as stored in the preferences: entries separated by semicolons, each holding the package,
+     * app id, steps and levels separated by colons, with the values of the streams separated by commas.
+     * Malformed entries are skipped.
+     * @param value The stored profiles, may be null
+     * @return The profiles
+     */
+    public static AppProfile[] parse(String value) {
+        if (value == null) return new AppProfile[0];
+        List<AppProfile> profiles = new ArrayList<AppProfile>();
+
+        for (String entry : value.split(";")) {
+            String[] fields = entry.split(":");
+            if (fields.length != 4) continue;
+            try {
+                int[] steps = parseStreams(fields[2]);
+                int[] levels = parseStreams(fields[3]);
+                if (steps == null || levels == null) continue;
+                profiles.add(new AppProfile(fields[0], Integer.parseInt(fields[1]), steps, levels));
+            } catch (NumberFormatException e) {
+                // Skip the entry
+            }
+        }
+        return profiles.toArray(new AppProfile[profiles.size()]);
+    }
+
+    /**
+     * @param profiles The profiles to store
+     * @return The profiles in the form read by parse
+     */
+    public static String format(AppProfile[] profiles) {
+        StringBuilder builder = new StringBuilder();
+        for (AppProfile profile : profiles) {
+            if (builder.length() > 0) builder.append(';');
+            builder.append(profile.mPackageName).append(':').append(profile.mAppId).append(':');
+            formatStreams(builder, profile.mSteps);
+            builder.append(':');
+            formatStreams(builder, profile.mLevels);
+        }
+        return builder.toString();
+    }
+
+    // Profiles stored before more streams became configurable leave the new streams unchanged
+    private static int[] parseStreams(String field) {
+        String[] values = field.split(",");
+        if (values.length > StepTable.CONFIGURABLE_STREAMS) return null;
+        int[] streams = new int[StepTable.CONFIGURABLE_STREAMS];
+        for (int streamType = 0; streamType < streams.length; streamType++) {
+            streams[streamType] = (streamType < values.length ? Integer.parseInt(values[streamType]) : UNCHANGED);
+        }
+        return streams;
+    }
+
+    private static void formatStreams(StringBuilder builder, int[] streams) {
+        for (int streamType = 0; streamType < streams.length; streamType++) {
+            if (streamType > 0) builder.append(',');
+            builder.append(streams[streamType]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mPackageName + " (" + mAppId + ")";
+    }
+}
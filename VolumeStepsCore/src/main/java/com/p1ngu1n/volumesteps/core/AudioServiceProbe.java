@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+/**
+ * Queries the state of AudioService needed to decide which stream the volume keys control.
+ * @param <S> Type of the AudioService instance
+ */
+public interface AudioServiceProbe<S> {
+    /**
+     * @param audioService The AudioService instance
+     * @return Whether the device is capable of voice calls
+     */
+    boolean isVoiceCapable(S audioService) throws Exception;
+
+    /**
+     * @param audioService The AudioService instance
+     * @return Whether a call or VoIP session is ongoing
+     */
+    boolean isInCommunication(S audioService) throws Exception;
+
+    /**
+     * @param audioService The AudioService instance
+     * @param windowMs The period in which music must have been active, in milliseconds
+     * @return Whether music was active locally within the given period
+     */
+    boolean isMusicActiveRecently(S audioService, int windowMs) throws Exception;
+
+    /**
+     * @param audioService The AudioService instance
+     * @return Whether music is playing remotely
+     */
+    boolean isRemoteMusicActive(S audioService) throws Exception;
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary form of a VolumeConfig, compiled by the settings app so the hook can load the configuration
+ * in one pass instead of parsing the preferences XML.
+ *
+ * Layout, big endian ints: magic, version, checksum and length of the preferences XML the config was compiled from,
+ * number of streams, the steps of each stream, flags,
+ * music active window in milliseconds, key repeat window in milliseconds, key acceleration maximum steps,
+ * persist idle time in milliseconds, the curve of each stream, the custom curve control points,
+ * safe headset volume index, length in bytes of the app profiles, the app profiles, CRC32 of everything before it.
+ * An app profile is the length of its UTF-8 package name, the package name, the app id, and the steps and
+ * the level of each stream.
+ *
+ * The checksum of the preferences XML lets the loader detect a config which no longer matches the preferences, such
+ * as after the preferences were restored from a backup or replaced without the config.
+ */
+public final class ConfigCodec {
+    /** Name of the file, next to the preferences file */
+    public static final String FILE_NAME = "volumesteps.cfg";
+
+    private static final int MAGIC = 0x5653502B; // "VSP+"
+    private static final int VERSION = 7;
+    /** Source of a config which isn't tied to a preferences file, it is used whatever preferences are next to it */
+    public static final long NO_SOURCE = -1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int FLAG_DEBUGGING = 1;
+    private static final int FLAG_COMPATIBILITY_MODE_LG = 1 << 1;
+    private static final int FLAG_SAFE_HEADSET_VOLUME_DISABLED = 1 << 2;
+    private static final int FLAG_VOLUME_KEYS_CONTROL_MUSIC = 1 << 3;
+    private static final int FLAG_PERSIST_BATCHED = 1 << 4;
+
+    // Magic, version, source checksum, source length, number of streams, flags, music active window, key repeat window, key acceleration,
+    // persist idle time, safe headset volume index, length of the app profiles and checksum
+    private static final int FIXED_INTS = 13;
+    // Offset of the number of streams, the fields following it are decoded from a copy
+    private static final int STREAMS_OFFSET = 16;
+
+    private ConfigCodec() { }
+
+    /**
+     * Encode a configuration which isn't tied to a preferences file.
+     * @param config The configuration to encode
+     * @return The encoded configuration
+     */
+    public static byte[] encode(VolumeConfig config) {
+        return encode(config, NO_SOURCE);
+    }
+
+    /**
+     * @param config The configuration to encode
+     * @param source The stamp of the preferences XML the configuration was loaded from, see stamp, or NO_SOURCE
+     * @return The encoded configuration
+     */
+    public static byte[] encode(VolumeConfig config, long source) {
+        int streams = StepTable.CONFIGURABLE_STREAMS;
+        AppProfile[] profiles = config.getProfiles();
+        byte[][] packageNames = new byte[profiles.length][];
+        int profilesLength = 0;
+        for (int i = 0; i < profiles.length; i++) {
+            packageNames[i] = profiles[i].getPackageName().getBytes(UTF_8);
+            profilesLength += packageNames[i].length + profileSize(streams);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size(streams) + profilesLength);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(source);
+        buffer.putInt(streams);
+        for (int streamType = 0; streamType < streams; streamType++) {
+            buffer.putInt(config.getMaxSteps(streamType));
+        }
+
+        int flags = 0;
+        if (config.isDebugging()) flags |= FLAG_DEBUGGING;
+        if (config.isCompatibilityModeLG()) flags |= FLAG_COMPATIBILITY_MODE_LG;
+        if (config.isSafeHeadsetVolumeDisabled()) flags |= FLAG_SAFE_HEADSET_VOLUME_DISABLED;
+        if (config.isVolumeKeysControlMusic()) flags |= FLAG_VOLUME_KEYS_CONTROL_MUSIC;
+        if (config.isPersistBatched()) flags |= FLAG_PERSIST_BATCHED;
+        buffer.putInt(flags);
+        buffer.putInt(config.getMusicActiveWindowMs());
+        buffer.putInt(config.getKeyRepeatWindowMs());
+        buffer.putInt(config.getKeyAccelerationMaxSteps());
+        buffer.putInt(config.getPersistIdleMs());
+        for (int streamType = 0; streamType < streams; streamType++) {
+            buffer.putInt(config.getCurve(streamType));
+        }
+        for (int i = 0; i < VolumeCurve.CONTROL_POINTS; i++) {
+            buffer.putInt(config.getControlPoint(i));
+        }
+        buffer.putInt(config.getSafeHeadsetVolumeIndex());
+        buffer.putInt(profilesLength);
+        for (int i = 0; i < profiles.length; i++) {
+            buffer.putInt(packageNames[i].length);
+            buffer.put(packageNames[i]);
+            buffer.putInt(profiles[i].getAppId());
+            for (int streamType = 0; streamType < streams; streamType++) {
+                buffer.putInt(profiles[i].getSteps(streamType));
+            }
+            for (int streamType = 0; streamType < streams; streamType++) {
+                buffer.putInt(profiles[i].getLevel(streamType));
+            }
+        }
+
+        buffer.putInt((int) checksum(buffer.array(), buffer.position()));
+        return buffer.array();
+    }
+
+    /**
+     * Stamp identifying the content of a preferences XML, stored in the configs compiled from it.
+     * @param source The content of the preferences XML
+     * @param length The number of bytes of the content
+     * @return The CRC32 of the content in the upper and its length in the lower 32 bits
+     */
+    public static long stamp(byte[] source, int length) {
+        return (checksum(source, length) << 32) | length;
+    }
+
+    /**
+     * Decode a configuration which isn't checked against a preferences file.
+     * @param buffer The encoded configuration
+     * @return The decoded configuration
+     * @throws IllegalArgumentException If the data is not a configuration of this version or is corrupt
+     */
+    public static VolumeConfig decode(ByteBuffer buffer) {
+        return decode(buffer, NO_SOURCE);
+    }
+
+    /**
+     * Decode a configuration, reading from the position of the buffer up to its limit.
+     * @param buffer The encoded configuration
+     * @param source The stamp of the preferences XML next to the configuration, or NO_SOURCE to skip the check
+     * @return The decoded configuration
+     * @throws IllegalArgumentException If the data is not a configuration of this version, is corrupt, or was
+     *                                  compiled from other preferences
+     */
+    public static VolumeConfig decode(ByteBuffer buffer, long source) {
+        int start = buffer.position();
+        int length = buffer.remaining();
+        if (length < FIXED_INTS * 4) throw new IllegalArgumentException("Truncated config");
+        if (buffer.getInt() != MAGIC) throw new IllegalArgumentException("Not a config");
+        int version = buffer.getInt();
+        if (version != VERSION) throw new IllegalArgumentException("Unsupported config version " + version);
+        long compiledFrom = buffer.getLong();
+        if (source != NO_SOURCE && compiledFrom != NO_SOURCE && compiledFrom != source) {
+            throw new IllegalArgumentException("Compiled from other preferences");
+        }
+
+        int streams = buffer.getInt();
+        if (streams != StepTable.CONFIGURABLE_STREAMS || length < size(streams)
+                || length != size(streams) + buffer.getInt(start + size(streams) - 8)) {
+            throw new IllegalArgumentException("Corrupt config");
+        }
+        byte[] data = new byte[length - 4];
+        buffer.position(start);
+        buffer.get(data);
+        if (buffer.getInt() != (int) checksum(data, data.length)) throw new IllegalArgumentException("Checksum mismatch");
+
+        ByteBuffer fields = ByteBuffer.wrap(data, STREAMS_OFFSET + 4, data.length - STREAMS_OFFSET - 4);
+        int[] maxSteps = new int[streams];
+        for (int streamType = 0; streamType < streams; streamType++) {
+            maxSteps[streamType] = fields.getInt();
+        }
+        int flags = fields.getInt();
+        int musicActiveWindowMs = fields.getInt();
+        int keyRepeatWindowMs = fields.getInt();
+        int keyAccelerationMaxSteps = fields.getInt();
+        int persistIdleMs = fields.getInt();
+        int[] curves = new int[streams];
+        for (int streamType = 0; streamType < streams; streamType++) {
+            curves[streamType] = fields.getInt();
+        }
+        int[] controlPoints = new int[VolumeCurve.CONTROL_POINTS];
+        for (int i = 0; i < controlPoints.length; i++) {
+            controlPoints[i] = fields.getInt();
+        }
+        int safeHeadsetVolumeIndex = fields.getInt();
+        AppProfile[] profiles = decodeProfiles(fields, fields.getInt(), streams);
+
+        VolumeConfig config = new VolumeConfig(maxSteps,
+                (flags & FLAG_DEBUGGING) != 0,
+                (flags & FLAG_COMPATIBILITY_MODE_LG) != 0,
+                (flags & FLAG_SAFE_HEADSET_VOLUME_DISABLED) != 0,
+                (flags & FLAG_VOLUME_KEYS_CONTROL_MUSIC) != 0,
+                musicActiveWindowMs,
+                keyRepeatWindowMs,
+                keyAccelerationMaxSteps,
+                (flags & FLAG_PERSIST_BATCHED) != 0,
+                persistIdleMs,
+                curves,
+                controlPoints,
+                profiles);
+        if (config.getSafeHeadsetVolumeIndex() != safeHeadsetVolumeIndex) throw new IllegalArgumentException("Corrupt config");
+        return config;
+    }
+
+    private static AppProfile[] decodeProfiles(ByteBuffer fields, int length, int streams) {
+        List<AppProfile> profiles = new ArrayList<AppProfile>();
+        int end = fields.position() + length;
+        try {
+            while (fields.position() < end) {
+                int packageNameLength = fields.getInt();
+                if (packageNameLength < 0 || packageNameLength > end - fields.position()) break;
+                byte[] packageName = new byte[packageNameLength];
+                fields.get(packageName);
+                int appId = fields.getInt();
+                int[] steps = new int[streams];
+                for (int streamType = 0; streamType < streams; streamType++) {
+                    steps[streamType] = fields.getInt();
+                }
+                int[] levels = new int[streams];
+                for (int streamType = 0; streamType < streams; streamType++) {
+                    levels[streamType] = fields.getInt();
+                }
+                profiles.add(new AppProfile(new String(packageName, UTF_8), appId, steps, levels));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Corrupt config");
+        }
+        if (fields.position() != end) throw new IllegalArgumentException("Corrupt config");
+        return profiles.toArray(new AppProfile[profiles.size()]);
+    }
+
+    // The steps and the curve of each stream and the control points come on top of the fixed ints, the app profiles
+    // come on top of that
+    private static int size(int streams) {
+        return (FIXED_INTS + streams * 2 + VolumeCurve.CONTROL_POINTS) * 4;
+    }
+
+    // Size of an app profile without its package name: the length of the package name, the app id, steps and levels
+    private static int profileSize(int streams) {
+        return (2 + streams * 2) * 4;
+    }
+
+    private static long checksum(byte[] data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        return crc.getValue();
+    }
+}
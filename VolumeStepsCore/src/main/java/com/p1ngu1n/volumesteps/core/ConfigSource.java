@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+/**
+ * Read-only view on the user's preferences, implemented on top of SharedPreferences by the module.
+ */
+public interface ConfigSource {
+    /**
+     * Retrieve an int value from the preferences.
+     * @param key The name of the preference to retrieve
+     * @param defValue Value to return if this preference does not exist
+     * @return The preference value if it exists, or defValue
+     */
+    int getInt(String key, int defValue);
+
+    /**
+     * Retrieve a boolean value from the preferences.
+     * @param key The name of the preference to retrieve
+     * @param defValue Value to return if this preference does not exist
+     * @return The preference value if it exists, or defValue
+     */
+    boolean getBoolean(String key, boolean defValue);
+
+    /**
+     * Retrieve a String value from the preferences.
+     * @param key The name of the preference to retrieve
+     * @param defValue Value to return if this preference does not exist
+     * @return The preference value if it exists, or defValue
+     */
+    String getString(String key, String defValue);
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Time spent in each installed hook, the reasons the getActiveStreamType hook left a call untouched and
+ * counters of the work the hooks saved. Everything is exported as a single long array, so it can be sent to the settings app cheaply.
+ */
+public final class HookDiagnostics {
+    // The hooks which are timed
+    public static final int HOOK_CREATE_AUDIO_SYSTEM_THREAD = 0;
+    public static final int HOOK_AUDIO_SERVICE_CONSTRUCTED = 1;
+    public static final int HOOK_GET_ACTIVE_STREAM_TYPE = 2;
+    public static final int HOOK_INVALIDATE = 3;
+    public static final int HOOK_MUSIC_ACTIVITY = 4;
+    public static final int HOOK_VOLUME_ADJUST = 5;
+    public static final int HOOK_PERSIST_VOLUME = 6;
+    public static final int HOOK_VOLUME_CURVE = 7;
+    public static final int HOOK_APP_PROFILE = 8;
+    public static final int HOOK_USER_SWITCH = 9;
+    public static final int HOOKS = 10;
+
+    /** The toggle is off, the remaining reasons are the VolumePolicy.RESULT_* outcomes */
+    public static final int REASON_DISABLED = 6;
+    public static final int REASONS = 7;
+
+    // Volume persist requests by AudioService and the ones actually written to the settings database
+    public static final int COUNTER_PERSIST_REQUESTED = 0;
+    public static final int COUNTER_PERSIST_WRITTEN = 1;
+    public static final int COUNTERS = 2;
+
+    /** Length of an export */
+    public static final int EXPORT_SIZE = HOOKS * LatencyHistogram.SNAPSHOT_SIZE + REASONS + COUNTERS;
+    private static final int REASONS_OFFSET = HOOKS * LatencyHistogram.SNAPSHOT_SIZE;
+    private static final int COUNTERS_OFFSET = REASONS_OFFSET + REASONS;
+
+    private static final String[] HOOK_NAMES = {
+            "createAudioSystemThread",
+            "AudioService constructor",
+            "getActiveStreamType",
+            "invalidation hooks",
+            "music activity hooks",
+            "volume adjust hooks",
+            "persistVolume",
+            "volume curve hooks",
+            "app profile hooks",
+            "user switch hook"
+    };
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[HOOKS];
+    private final AtomicLongArray mReasons = new AtomicLongArray(REASONS);
+    private final AtomicLongArray mCounters = new AtomicLongArray(COUNTERS);
+
+    public HookDiagnostics() {
+        for (int i = 0; i < HOOKS; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Record the time spent in a hook.
+     * @param hook One of the HOOK_* constants
+     * @param nanos The duration in nanoseconds
+     */
+    public void recordLatency(int hook, long nanos) {
+        mHistograms[hook].record(nanos);
+    }
+
+    /**
+     * Count the outcome of the getActiveStreamType hook.
+     * @param reason A VolumePolicy.RESULT_* constant or REASON_DISABLED
+     */
+    public void countReason(int reason) {
+        mReasons.incrementAndGet(reason);
+    }
+
+    /**
+     * @param counter One of the COUNTER_* constants
+     */
+    public void increment(int counter) {
+        mCounters.incrementAndGet(counter);
+    }
+
+    /**
+     * @return The histogram snapshots of all hooks followed by the reason counters and the other counters
+     */
+    public long[] export() {
+        long[] export = new long[EXPORT_SIZE];
+        for (int i = 0; i < HOOKS; i++) {
+            mHistograms[i].snapshot(export, i * LatencyHistogram.SNAPSHOT_SIZE);
+        }
+        for (int i = 0; i < REASONS; i++) {
+            export[REASONS_OFFSET + i] = mReasons.get(i);
+        }
+        for (int i = 0; i < COUNTERS; i++) {
+            export[COUNTERS_OFFSET + i] = mCounters.get(i);
+        }
+        return export;
+    }
+
+    /**
+     * Describe an export as lines of text, one per hook, one per reason and the volume persists.
+     * @param export An array returned by export()
+     * @return The lines
+     */
+    public static String[] describe(long[] export) {
+        String[] lines = new String[HOOKS + REASONS + 1];
+        for (int i = 0; i < HOOKS; i++) {
+            int offset = i * LatencyHistogram.SNAPSHOT_SIZE;
+            lines[i] = HOOK_NAMES[i] + ": " + LatencyHistogram.count(export, offset) + " calls"
+                    + ", p50 " + formatNanos(LatencyHistogram.percentile(export, offset, 0.5))
+                    + ", p99 " + formatNanos(LatencyHistogram.percentile(export, offset, 0.99))
+                    + ", max " + formatNanos(LatencyHistogram.max(export, offset));
+        }
+        for (int i = 0; i < REASONS; i++) {
+            String reason = (i == REASON_DISABLED ? "toggle disabled" : TraceEvents.resultName(i));
+            lines[HOOKS + i] = reason + ": " + export[REASONS_OFFSET + i];
+        }
+        long requested = export[COUNTERS_OFFSET + COUNTER_PERSIST_REQUESTED];
+        long written = export[COUNTERS_OFFSET + COUNTER_PERSIST_WRITTEN];
+        lines[HOOKS + REASONS] = "volume persists: " + requested + " requested, " + written + " written, "
+                + (requested - written) + " saved";
+        return lines;
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 10000) return nanos + " ns";
+        if (nanos < 10000000) return (nanos / 1000) + " us";
+        return (nanos / 1000000) + " ms";
+    }
+}
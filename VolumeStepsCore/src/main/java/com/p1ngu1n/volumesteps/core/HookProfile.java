@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import java.util.Properties;
+
+/**
+ * The members the module hooks on a specific build of Android: the AudioService class and the array holding the
+ * maximum stream volumes. A profile is probed once per build and cached, keyed by the build fingerprint.
+ */
+public final class HookProfile {
+    private static final int VERSION = 1;
+
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_AUDIO_SERVICE = "audio_service";
+    private static final String KEY_MAX_STREAM_VOLUME = "max_stream_volume";
+    private static final String KEY_MAX_STREAM_VOLUME_STATIC = "max_stream_volume_static";
+
+    private final String mFingerprint;
+    private final String mAudioServiceClass;
+    private final String mMaxStreamVolumeField;
+    private final boolean mMaxStreamVolumeStatic;
+
+    /**
+     * @param fingerprint The build fingerprint the profile was probed on
+     * @param audioServiceClass The name of the AudioService class constructed by the system
+     * @param maxStreamVolumeField The name of the array holding the maximum stream volumes
+     * @param maxStreamVolumeStatic Whether that array is a static field, it is since KitKat
+     */
+    public HookProfile(String fingerprint, String audioServiceClass, String maxStreamVolumeField, boolean maxStreamVolumeStatic) {
+        mFingerprint = fingerprint;
+        mAudioServiceClass = audioServiceClass;
+        mMaxStreamVolumeField = maxStreamVolumeField;
+        mMaxStreamVolumeStatic = maxStreamVolumeStatic;
+    }
+
+    /**
+     * Read a cached profile.
+     * @param properties The properties the profile was stored in
+     * @param fingerprint The fingerprint of the running build
+     * @return The profile, null if it is incomplete, of another version or probed on another build
+     */
+    public static HookProfile fromProperties(Properties properties, String fingerprint) {
+        if (!String.valueOf(VERSION).equals(properties.getProperty(KEY_VERSION))) return null;
+        if (!fingerprint.equals(properties.getProperty(KEY_FINGERPRINT))) return null;
+
+        String audioServiceClass = properties.getProperty(KEY_AUDIO_SERVICE);
+        String maxStreamVolumeField = properties.getProperty(KEY_MAX_STREAM_VOLUME);
+        String maxStreamVolumeStatic = properties.getProperty(KEY_MAX_STREAM_VOLUME_STATIC);
+        if (audioServiceClass == null || maxStreamVolumeField == null || maxStreamVolumeStatic == null) return null;
+
+        return new HookProfile(fingerprint, audioServiceClass, maxStreamVolumeField, Boolean.parseBoolean(maxStreamVolumeStatic));
+    }
+
+    /**
+     * @return The profile as properties, to cache it
+     */
+    public Properties toProperties() {
+        Properties properties = new Properties();
+        properties.setProperty(KEY_VERSION, String.valueOf(VERSION));
+        properties.setProperty(KEY_FINGERPRINT, mFingerprint);
+        properties.setProperty(KEY_AUDIO_SERVICE, mAudioServiceClass);
+        properties.setProperty(KEY_MAX_STREAM_VOLUME, mMaxStreamVolumeField);
+        properties.setProperty(KEY_MAX_STREAM_VOLUME_STATIC, String.valueOf(mMaxStreamVolumeStatic));
+        return properties;
+    }
+
+    public String getFingerprint() {
+        return mFingerprint;
+    }
+
+    public String getAudioServiceClass() {
+        return mAudioServiceClass;
+    }
+
+    public String getMaxStreamVolumeField() {
+        return mMaxStreamVolumeField;
+    }
+
+    public boolean isMaxStreamVolumeStatic() {
+        return mMaxStreamVolumeStatic;
+    }
+
+    @Override
+    public String toString() {
+        return mAudioServiceClass + "." + mMaxStreamVolumeField + (mMaxStreamVolumeStatic ? " (static)" : "");
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+/**
+ * Immutable map from app id to AppProfile using open addressing on primitive int keys, so a lookup on the audio
+ * focus path neither allocates nor boxes.
+ */
+public final class IntProfileMap {
+    private static final int EMPTY = -1;
+
+    private final int[] mKeys;
+    private final AppProfile[] mValues;
+    private final int mMask;
+
+    /**
+     * @param profiles The profiles to map by their app id, later profiles replace earlier ones of the same app
+     */
+    public IntProfileMap(AppProfile[] profiles) {
+        // At most half full, so probe sequences stay short
+        int capacity = Integer.highestOneBit(Math.max(1, profiles.length) * 2 - 1) << 1;
+        mKeys = new int[capacity];
+        mValues = new AppProfile[capacity];
+        mMask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            mKeys[i] = EMPTY;
+        }
+
+        for (AppProfile profile : profiles) {
+            int slot = slot(profile.getAppId());
+            while (mKeys[slot] != EMPTY && mKeys[slot] != profile.getAppId()) {
+                slot = (slot + 1) & mMask;
+            }
+            mKeys[slot] = profile.getAppId();
+            mValues[slot] = profile;
+        }
+    }
+
+    /**
+     * @param uid A uid of any user
+     * @return The profile of the app, or null if it has none
+     */
+    public AppProfile get(int uid) {
+        if (uid < 0) return null;
+        int appId = AppProfile.appId(uid);
+        for (int slot = slot(appId); mKeys[slot] != EMPTY; slot = (slot + 1) & mMask) {
+            if (mKeys[slot] == appId) return mValues[slot];
+        }
+        return null;
+    }
+
+    private int slot(int key) {
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mMask;
+    }
+}
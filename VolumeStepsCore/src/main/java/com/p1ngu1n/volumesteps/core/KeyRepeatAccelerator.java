@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+/**
+ * Detects repeated volume key presses and accelerates them: the longer a key is held or the faster it is pressed,
+ * the more steps a single adjustment moves. Reaching a volume then takes fewer adjustments, each of which
+ * updates the index, refreshes the volume panel and persists the volume in AudioService.
+ */
+public final class KeyRepeatAccelerator {
+    /** Number of repeats after which an adjustment moves one step more */
+    public static final int REPEATS_PER_STEP = 3;
+
+    private int mStreamType = -1;
+    private int mDirection;
+    private long mLastAdjust;
+    private int mRepeats;
+
+    /**
+     * Register an adjustment and get the number of steps it should move. An adjustment of another stream or in
+     * another direction starts over, so a stream or mode change needs no separate reset.
+     * @param streamType The stream being adjusted
+     * @param direction The direction of the adjustment, only 1 and -1 are accelerated
+     * @param now The current time in milliseconds, from a monotonic clock
+     * @param windowMs The maximum time between adjustments for them to count as repeats
+     * @param maxSteps The maximum number of steps per adjustment, 1 disables the acceleration
+     * @return The number of steps the adjustment should move
+     */
+    public synchronized int onAdjust(int streamType, int direction, long now, int windowMs, int maxSteps) {
+        if (maxSteps <= 1 || (direction != 1 && direction != -1)) {
+            mDirection = 0;
+            return 1;
+        }
+
+        if (streamType == mStreamType && direction == mDirection && now - mLastAdjust <= windowMs) {
+            mRepeats++;
+        } else {
+            mRepeats = 0;
+        }
+        mStreamType = streamType;
+        mDirection = direction;
+        mLastAdjust = now;
+        return Math.min(maxSteps, 1 + mRepeats / REPEATS_PER_STEP);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with power of two buckets, which can be recorded into from any thread without locks.
+ * Bucket 0 counts durations of 0 ns, bucket i durations from 2^(i-1) up to 2^i ns, the last bucket everything longer.
+ * Percentiles are therefore estimated by the upper bound of their bucket, which is accurate to a factor of two.
+ */
+public final class LatencyHistogram {
+    /** Number of buckets, the last one starts at about 1 second */
+    public static final int BUCKETS = 32;
+    /** Length of a snapshot: the bucket counts followed by the maximum */
+    public static final int SNAPSHOT_SIZE = BUCKETS + 1;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Record a duration.
+     * @param nanos The duration in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        mBuckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos)));
+
+        long max = mMax.get();
+        while (nanos > max && !mMax.compareAndSet(max, nanos)) {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     * Copy the histogram, the copy isn't atomic so it may miss durations recorded concurrently.
+     * @param out Receives SNAPSHOT_SIZE values
+     * @param offset The index in out to start at
+     */
+    public void snapshot(long[] out, int offset) {
+        for (int i = 0; i < BUCKETS; i++) {
+            out[offset + i] = mBuckets.get(i);
+        }
+        out[offset + BUCKETS] = mMax.get();
+    }
+
+    /**
+     * @param snapshot An array containing a snapshot
+     * @param offset The index of the snapshot in the array
+     * @return The number of recorded durations
+     */
+    public static long count(long[] snapshot, int offset) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += snapshot[offset + i];
+        }
+        return count;
+    }
+
+    /**
+     * @param snapshot An array containing a snapshot
+     * @param offset The index of the snapshot in the array
+     * @return The longest recorded duration in nanoseconds
+     */
+    public static long max(long[] snapshot, int offset) {
+        return snapshot[offset + BUCKETS];
+    }
+
+    /**
+     * Estimate a percentile by the upper bound of the bucket it falls in.
+     * @param snapshot An array containing a snapshot
+     * @param offset The index of the snapshot in the array
+     * @param fraction The percentile as a fraction, like 0.99
+     * @return The estimated duration in nanoseconds, 0 if nothing was recorded
+     */
+    public static long percentile(long[] snapshot, int offset, double fraction) {
+        long count = count(snapshot, offset);
+        if (count == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(count * fraction));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[offset + i];
+            if (seen >= rank) {
+                long upperBound = (i == 0 ? 0 : 1L << i);
+                return Math.min(upperBound, max(snapshot, offset));
+            }
+        }
+        return max(snapshot, offset);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import java.util.Map;
+
+/**
+ * ConfigSource backed by a map of preference values, as returned by SharedPreferences.getAll().
+ */
+public class MapConfigSource implements ConfigSource {
+    private final Map<String, ?> mValues;
+
+    public MapConfigSource(Map<String, ?> values) {
+        mValues = values;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Object value = mValues.get(key);
+        return (value instanceof Integer ? (Integer) value : defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Object value = mValues.get(key);
+        return (value instanceof Boolean ? (Boolean) value : defValue);
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        Object value = mValues.get(key);
+        return (value instanceof String ? (String) value : defValue);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tracks whether music is playing, fed by playback start and stop events instead of querying the native audio policy.
+ * Events replace an immutable snapshot of the playing sources and advance the last active time with compare-and-set,
+ * so no event ever blocks the volume key path, which only reads two atomic fields.
+ *
+ * A source whose process dies while playing never reports it stopped, so a source counts as playing for at most
+ * MAX_PLAYING_AGE_MS after it last reported playing, and at most MAX_SOURCES sources are remembered. Forgetting
+ * a source which still plays is harmless, the volume keys then control music which AudioService picks for active
+ * music as well.
+ */
+public final class MusicActivityTracker {
+    /** Time after which a source which reported playing no longer counts as playing, in milliseconds */
+    public static final long MAX_PLAYING_AGE_MS = 30 * 60 * 1000;
+    /** Number of playing sources remembered, the one which reported playing longest ago is forgotten first */
+    public static final int MAX_SOURCES = 16;
+
+    private static final long NEVER = Long.MIN_VALUE / 2;
+
+    private final AtomicReference<Playing> mPlaying = new AtomicReference<Playing>(Playing.NONE);
+    private final AtomicLong mLastActive = new AtomicLong(NEVER);
+
+    /**
+     * The sources playing at some moment, in the order they reported playing. Never modified, an event replaces it
+     * as a whole.
+     */
+    private static final class Playing {
+        static final Playing NONE = new Playing(new Object[0], new long[0]);
+
+        final Object[] sources;
+        final long[] since;
+        // The time the most recent source reported playing, every source is aged out once this one is
+        final long newest;
+
+        Playing(Object[] sources, long[] since) {
+            this.sources = sources;
+            this.since = since;
+            long newest = NEVER;
+            for (long time : since) {
+                newest = Math.max(newest, time);
+            }
+            this.newest = newest;
+        }
+
+        /**
+         * @return The time the source reported playing, NEVER if it isn't remembered
+         */
+        long sinceOf(Object source) {
+            for (int i = 0; i < sources.length; i++) {
+                if (sources[i].equals(source)) return since[i];
+            }
+            return NEVER;
+        }
+
+        /**
+         * @param source The source which reported its state
+         * @param now The current time, sources aged out at it are dropped
+         * @param playing Whether the source is playing, it is added as the most recent source if so
+         * @return The updated copy
+         */
+        Playing update(Object source, long now, boolean playing) {
+            int keep = 0;
+            for (int i = 0; i < sources.length; i++) {
+                if (keeps(i, source, now)) keep++;
+            }
+            // The sources which reported playing longest ago make room when the limit is reached
+            int skip = (playing ? Math.max(0, keep + 1 - MAX_SOURCES) : 0);
+            int length = keep - skip + (playing ? 1 : 0);
+            Object[] newSources = new Object[length];
+            long[] newSince = new long[length];
+            int j = 0;
+            for (int i = 0; i < sources.length; i++) {
+                if (!keeps(i, source, now)) continue;
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                newSources[j] = sources[i];
+                newSince[j++] = since[i];
+            }
+            if (playing) {
+                newSources[j] = source;
+                newSince[j] = now;
+            }
+            return new Playing(newSources, newSince);
+        }
+
+        private boolean keeps(int i, Object source, long now) {
+            return now - since[i] <= MAX_PLAYING_AGE_MS && !sources[i].equals(source);
+        }
+    }
+
+    /**
+     * A source, like a remote control client or media session, started playing or reported it is still playing.
+     * @param source Object identifying the source
+     * @param now The current time in milliseconds, from a monotonic clock
+     */
+    public void onPlaybackStarted(Object source, long now) {
+        Playing playing;
+        do {
+            playing = mPlaying.get();
+        } while (!mPlaying.compareAndSet(playing, playing.update(source, now, true)));
+        advanceLastActive(now);
+    }
+
+    /**
+     * A source stopped or paused playing, or went away.
+     * @param source Object identifying the source
+     * @param now The current time in milliseconds, from a monotonic clock
+     */
+    public void onPlaybackStopped(Object source, long now) {
+        Playing playing;
+        long since;
+        do {
+            playing = mPlaying.get();
+            since = playing.sinceOf(source);
+            if (since == NEVER) return;
+        } while (!mPlaying.compareAndSet(playing, playing.update(source, now, false)));
+        // A source which was aged out already stopped counting as playing before
+        if (now - since <= MAX_PLAYING_AGE_MS) advanceLastActive(now);
+    }
+
+    /**
+     * Music was found to be active by another means, such as AudioService querying the audio policy itself.
+     * @param now The current time in milliseconds, from a monotonic clock
+     */
+    public void onActiveObserved(long now) {
+        advanceLastActive(now);
+    }
+
+    private void advanceLastActive(long now) {
+        long lastActive;
+        do {
+            lastActive = mLastActive.get();
+            if (now <= lastActive) return;
+        } while (!mLastActive.compareAndSet(lastActive, now));
+    }
+
+    /**
+     * @param now The current time in milliseconds, from a monotonic clock
+     * @param windowMs The period in which music must have been active, in milliseconds
+     * @return Whether music is playing or stopped less than windowMs ago
+     */
+    public boolean isActiveRecently(long now, int windowMs) {
+        return now - mPlaying.get().newest <= MAX_PLAYING_AGE_MS || now - mLastActive.get() <= windowMs;
+    }
+}
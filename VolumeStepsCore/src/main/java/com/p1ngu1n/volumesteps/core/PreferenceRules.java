@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The type of every preference and the values the settings allow for them, shared by the settings and the tools
+ * which write preferences without them.
+ */
+public final class PreferenceRules {
+    public static final int TYPE_UNKNOWN = -1;
+    public static final int TYPE_INT = 0;
+    public static final int TYPE_BOOLEAN = 1;
+    public static final int TYPE_STRING = 2;
+
+    /** Number of steps of a stream, the settings extend it to include the maximum of the device */
+    public static final StepRange STEPS = new StepRange(5, 50, 1);
+    /** Custom control points of the volume curves, in percent */
+    public static final StepRange CURVE_POINT = new StepRange(0, 100, 1);
+    /** Volume of a stream set by an app profile, in percent */
+    public static final StepRange LEVEL = new StepRange(0, 100, 1);
+
+    private static final Map<String, StepRange> INT_RANGES = new HashMap<String, StepRange>();
+    private static final Set<String> BOOLEANS = new HashSet<String>();
+    private static final Set<String> STRINGS = new HashSet<String>();
+
+    static {
+        for (int streamType = 0; streamType < StepTable.CONFIGURABLE_STREAMS; streamType++) {
+            INT_RANGES.put(StepTable.prefKey(streamType), STEPS);
+            STRINGS.add(StepTable.curvePrefKey(streamType));
+        }
+        for (int i = 1; i <= VolumeCurve.CONTROL_POINTS; i++) {
+            INT_RANGES.put("pref_curve_point_" + i, CURVE_POINT);
+        }
+        INT_RANGES.put("pref_music_active_window", new StepRange(1, 30, 1));
+        INT_RANGES.put("pref_key_acceleration", new StepRange(1, 5, 1));
+        INT_RANGES.put("pref_key_repeat_window", new StepRange(100, 1000, 50));
+        INT_RANGES.put("pref_persist_idle", new StepRange(1, 60, 1));
+
+        BOOLEANS.add("pref_debug");
+        BOOLEANS.add("pref_compatibility_mode_lg");
+        BOOLEANS.add("pref_safe_headset_volume_disabled");
+        BOOLEANS.add("pref_volume_keys_control_music");
+        BOOLEANS.add("pref_persist_batched");
+        BOOLEANS.add("pref_launcher");
+        BOOLEANS.add("pref_show_reboot_dialog");
+
+        STRINGS.add("pref_app_profiles");
+        STRINGS.add("pref_volume_presets");
+    }
+
+    private PreferenceRules() { }
+
+    /**
+     * @param key The key of a preference
+     * @return One of the TYPE constants, TYPE_UNKNOWN if the settings have no such preference
+     */
+    public static int typeOf(String key) {
+        if (INT_RANGES.containsKey(key)) return TYPE_INT;
+        if (BOOLEANS.contains(key)) return TYPE_BOOLEAN;
+        if (STRINGS.contains(key)) return TYPE_STRING;
+        return TYPE_UNKNOWN;
+    }
+
+    /**
+     * @param key The key of an int preference
+     * @return The values the settings allow, null if the preference doesn't hold an int
+     */
+    public static StepRange rangeOf(String key) {
+        return INT_RANGES.get(key);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * Answers the queries of VolumePolicy on an AudioService through reflection. All methods and fields are resolved
+ * once on construction according to the invocation plan of the SDK, so answering a query does no string-keyed
+ * lookups. Members are searched in the superclasses as well, the LG compatibility mode hooks a subclass of
+ * AudioService which inherits them.
+ * Whether music is active is answered by the tracker at the time returned by now, so no call into the native audio
+ * policy is made.
+ */
+public abstract class ResolvedAudioServiceProbe implements AudioServiceProbe<Object> {
+    /** Android versions with a distinct invocation plan */
+    public static final int SDK_JELLY_BEAN = 16;
+    public static final int SDK_KITKAT = 19;
+    public static final int SDK_LOLLIPOP = 21;
+
+    // AudioManager.STREAM_MUSIC, boxed once, Method.invoke never modifies it so it can be shared between threads
+    private static final Object[] ARGS_STREAM_MUSIC = { 3 };
+
+    private final MusicActivityTracker mTracker;
+
+    // Voice capability: isPlatformVoice() on Lollipop and higher, the mVoiceCapable field before
+    private final Method mIsPlatformVoice;
+    private final Field mVoiceCapable;
+
+    private final Method mIsInCommunication;
+
+    // 4.4 and higher call checkUpdateRemoteStateIfActive at the MediaFocusControl class instead of AudioService
+    private final Field mMediaFocusControl;
+    private final Method mCheckUpdateRemoteStateIfActive;
+
+    /**
+     * Resolves the invocation plan of an SDK.
+     * @param audioServiceClass The AudioService class to resolve the members of
+     * @param sdk The SDK level of which the plan is used, like Build.VERSION.SDK_INT
+     * @param tracker The tracker which knows whether music is playing
+     * @throws NoSuchMethodError If a method of the plan doesn't exist
+     * @throws NoSuchFieldError If a field of the plan doesn't exist
+     */
+    public ResolvedAudioServiceProbe(Class<?> audioServiceClass, int sdk, MusicActivityTracker tracker) {
+        mTracker = tracker;
+
+        if (sdk >= SDK_LOLLIPOP) {
+            mIsPlatformVoice = findMethod(audioServiceClass, "isPlatformVoice");
+            mVoiceCapable = null;
+        } else {
+            mIsPlatformVoice = null;
+            mVoiceCapable = findField(audioServiceClass, "mVoiceCapable");
+        }
+
+        mIsInCommunication = findMethod(audioServiceClass, "isInCommunication");
+
+        if (sdk >= SDK_KITKAT) {
+            mMediaFocusControl = findField(audioServiceClass, "mMediaFocusControl");
+            mCheckUpdateRemoteStateIfActive = findMethod(mMediaFocusControl.getType(), "checkUpdateRemoteStateIfActive", int.class);
+        } else {
+            mMediaFocusControl = null;
+            mCheckUpdateRemoteStateIfActive = findMethod(audioServiceClass, "checkUpdateRemoteStateIfActive", int.class);
+        }
+    }
+
+    /**
+     * @return The current time in milliseconds, from the clock the tracker is fed with
+     */
+    protected abstract long now();
+
+    /**
+     * Find a method declared by the class or one of its superclasses.
+     * @return The method, made accessible
+     * @throws NoSuchMethodError If no class in the hierarchy declares the method
+     */
+    private static Method findMethod(Class<?> clazz, String methodName, Class<?>... parameterTypes) {
+        for (Class<?> declaring = clazz; declaring != null; declaring = declaring.getSuperclass()) {
+            try {
+                Method method = declaring.getDeclaredMethod(methodName, parameterTypes);
+                method.setAccessible(true);
+                return method;
+            } catch (NoSuchMethodException e) {
+                // Look in the superclass
+            }
+        }
+        throw new NoSuchMethodError(clazz.getName() + "#" + methodName);
+    }
+
+    /**
+     * Find a field declared by the class or one of its superclasses.
+     * @return The field, made accessible
+     * @throws NoSuchFieldError If no class in the hierarchy declares the field
+     */
+    private static Field findField(Class<?> clazz, String fieldName) {
+        for (Class<?> declaring = clazz; declaring != null; declaring = declaring.getSuperclass()) {
+            try {
+                Field field = declaring.getDeclaredField(fieldName);
+                field.setAccessible(true);
+                return field;
+            } catch (NoSuchFieldException e) {
+                // Look in the superclass
+            }
+        }
+        throw new NoSuchFieldError(clazz.getName() + "#" + fieldName);
+    }
+
+    @Override
+    public boolean isVoiceCapable(Object audioService) throws Exception {
+        if (mIsPlatformVoice != null) {
+            return (Boolean) mIsPlatformVoice.invoke(audioService);
+        } else {
+            return mVoiceCapable.getBoolean(audioService);
+        }
+    }
+
+    @Override
+    public boolean isInCommunication(Object audioService) throws Exception {
+        return (Boolean) mIsInCommunication.invoke(audioService);
+    }
+
+    /**
+     * Answered by the tracker. This is safe even when the tracker misses playback: if music is active AudioService
+     * itself returns STREAM_MUSIC as well, so this check only decides whether the remote playback check is needed,
+     * not which stream is returned.
+     */
+    @Override
+    public boolean isMusicActiveRecently(Object audioService, int windowMs) {
+        return mTracker.isActiveRecently(now(), windowMs);
+    }
+
+    @Override
+    public boolean isRemoteMusicActive(Object audioService) throws Exception {
+        Object objContainingRemoteStreamMethod = audioService;
+        if (mMediaFocusControl != null) {
+            objContainingRemoteStreamMethod = mMediaFocusControl.get(audioService);
+        }
+        return (Boolean) mCheckUpdateRemoteStateIfActive.invoke(objContainingRemoteStreamMethod, ARGS_STREAM_MUSIC);
+    }
+}
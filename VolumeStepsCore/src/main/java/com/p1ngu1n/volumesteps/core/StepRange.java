@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+/**
+ * Range of values a SeekBarDialogPreference can be set to, and the translation between a value and its SeekBar index.
+ */
+public final class StepRange {
+    private final int mMin;
+    private final int mMax;
+    private final int mInterval;
+
+    /**
+     * @param min The minimum value
+     * @param max The maximum value
+     * @param interval The difference between two consecutive values
+     */
+    public StepRange(int min, int max, int interval) {
+        mMin = min;
+        mMax = max;
+        mInterval = interval;
+    }
+
+    public int getMin() {
+        return mMin;
+    }
+
+    public int getMax() {
+        return mMax;
+    }
+
+    public int getInterval() {
+        return mInterval;
+    }
+
+    /**
+     * Translate the index from the SeekBar to the actual value.
+     * @param index The index to translate
+     * @return The value
+     */
+    public int indexToValue(int index) {
+        return mMin + (index * mInterval);
+    }
+
+    /**
+     * Translate the actual value to the index for the SeekBar.
+     * @param value The value to translate
+     * @return The index
+     */
+    public int valueToIndex(int value) {
+        return (value - mMin) / mInterval;
+    }
+
+    /**
+     * Check whether the SeekBar can be set to a value.
+     * @param value The value to check
+     * @return Whether the value is between the minimum and maximum and on an interval
+     */
+    public boolean contains(int value) {
+        return value >= mMin && value <= mMax && (value - mMin) % mInterval == 0;
+    }
+
+    /**
+     * Calculate the maximum SeekBar index based on the interval and minimum and maximum values.
+     * @return The maximum index
+     */
+    public int maxIndex() {
+        return (mMax - mMin) / mInterval;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+/**
+ * The streams of which the number of volume steps can be configured, with their preference keys and defaults.
+ * Stream types equal the AudioSystem.STREAM_* constants and are used as index in MAX_STREAM_VOLUME. Which of them
+ * exist depends on the Android version, the device's MAX_STREAM_VOLUME array is leading.
+ */
+public final class StepTable {
+    public static final int STREAM_VOICE_CALL = 0;
+    public static final int STREAM_SYSTEM = 1;
+    public static final int STREAM_RING = 2;
+    public static final int STREAM_MUSIC = 3;
+    public static final int STREAM_ALARM = 4;
+    public static final int STREAM_NOTIFICATION = 5;
+    public static final int STREAM_BLUETOOTH_SCO = 6;
+    public static final int STREAM_SYSTEM_ENFORCED = 7;
+    public static final int STREAM_DTMF = 8;
+    public static final int STREAM_TTS = 9;
+    public static final int STREAM_ACCESSIBILITY = 10;
+
+    /** Number of streams which can be configured, all stream types below this value are configurable */
+    public static final int CONFIGURABLE_STREAMS = 11;
+    /** Number of steps of a stream which isn't configured, it keeps the maximum of the device */
+    public static final int UNSET = 0;
+
+    // The maximums of AudioService in AOSP, only used when the maximums of the device are unknown
+    private static final int[] DEFAULT_STEPS = { 5, 7, 7, 15, 7, 7, 15, 7, 15, 15, 15 };
+
+    private static final String[] NAMES = {
+            "voicecall",
+            "system",
+            "ring",
+            "music",
+            "alarm",
+            "notification",
+            "bluetooth_sco",
+            "system_enforced",
+            "dtmf",
+            "tts",
+            "accessibility"
+    };
+
+    // Settings.System.VOLUME_SETTINGS, AudioService appends the output device to these names
+    private static final String[] VOLUME_SETTINGS = {
+            "volume_voice",
+            "volume_system",
+            "volume_ring",
+            "volume_music",
+            "volume_alarm",
+            "volume_notification",
+            "volume_bluetooth_sco",
+            "volume_system_enforced",
+            "volume_dtmf",
+            "volume_tts",
+            "volume_accessibility"
+    };
+
+    private StepTable() { }
+
+    /**
+     * Get the key of the preference holding the number of steps of a stream.
+     * @param streamType The stream type
+     * @return The preference key
+     */
+    public static String prefKey(int streamType) {
+        return "pref_stream_" + NAMES[streamType];
+    }
+
+    /**
+     * Get the key of the preference holding the volume curve of a stream.
+     * @param streamType The stream type
+     * @return The preference key
+     */
+    public static String curvePrefKey(int streamType) {
+        return "pref_curve_" + NAMES[streamType];
+    }
+
+    /**
+     * Get a short name of a stream, used in logs.
+     * @param streamType The stream type
+     * @return The name of the stream
+     */
+    public static String streamName(int streamType) {
+        return (streamType >= 0 && streamType < NAMES.length ? NAMES[streamType] : "stream " + streamType);
+    }
+
+    /**
+     * Get the name of the system setting AudioService persists the volume of a stream in.
+     * @param streamType The stream type
+     * @return The name of the setting, without the output device suffix
+     */
+    public static String volumeSetting(int streamType) {
+        return VOLUME_SETTINGS[streamType];
+    }
+
+    /**
+     * Whether AudioService persists the volume of a stream under its own setting. System enforced, DTMF and TTS
+     * are always aliased to another stream, their volume is persisted under the setting of that stream and
+     * a value in their own setting is stale.
+     * @param streamType The stream type
+     * @return Whether the volume setting of the stream is written by AudioService
+     */
+    public static boolean isVolumePersisted(int streamType) {
+        return streamType != STREAM_SYSTEM_ENFORCED && streamType != STREAM_DTMF && streamType != STREAM_TTS;
+    }
+
+    /**
+     * Get the number of steps AOSP uses for a stream, for when the maximums of the device are unknown.
+     * @param streamType The stream type
+     * @return The default number of steps
+     */
+    public static int defaultSteps(int streamType) {
+        return DEFAULT_STEPS[streamType];
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size ring buffer of binary trace records which can be written from any thread without locks or allocations.
+ * A record is a timestamp and a payload packing an event id, a stream type and a value.
+ * When the buffer is full the oldest records are overwritten.
+ *
+ * A writer claims the slot of its record by swapping the commit marker to WRITING and commits it by storing the
+ * marker of its record last, readers check the marker before and after copying a slot. A slot is only written by one
+ * writer at a time: a writer which laps another one still writing the slot drops its record instead of tearing it.
+ */
+public final class TraceBuffer {
+    // Slot layout: commit marker (sequence + 1, 0 when never written), timestamp, payload
+    private static final int SLOT_SIZE = 3;
+    // Commit marker of a slot which is being written
+    private static final long WRITING = -1;
+
+    private final int mCapacity;
+    private final AtomicLongArray mSlots;
+    private final AtomicLong mWriteSequence = new AtomicLong();
+    // Only used by the single consumer calling drain
+    private long mReadSequence;
+
+    /**
+     * @param capacity The number of records kept, must be a power of two
+     */
+    public TraceBuffer(int capacity) {
+        if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of two");
+        mCapacity = capacity;
+        mSlots = new AtomicLongArray(capacity * SLOT_SIZE);
+    }
+
+    /**
+     * Append a record. The record is dropped if its slot is still being written by a writer it lapped.
+     * @param event The event id, see TraceEvents
+     * @param streamType The stream the event is about, or -1
+     * @param value The result or value of the event
+     * @param timestamp The time of the event in milliseconds, from a monotonic clock
+     */
+    public void record(int event, int streamType, int value, long timestamp) {
+        long sequence = mWriteSequence.getAndIncrement();
+        int slot = (int) (sequence & (mCapacity - 1)) * SLOT_SIZE;
+        long committed = mSlots.get(slot);
+        // Never replace a newer record, nor write along with another writer
+        if (committed == WRITING || committed > sequence || !mSlots.compareAndSet(slot, committed, WRITING)) return;
+        mSlots.set(slot + 1, timestamp);
+        mSlots.set(slot + 2, pack(event, streamType, value));
+        mSlots.set(slot, sequence + 1);
+    }
+
+    /**
+     * Copy the records written since the previous call, oldest first. Records which were overwritten before they
+     * could be read are skipped. Must only be called by a single thread.
+     * @param out Receives a timestamp and a payload per record, its length limits the number of records copied
+     * @return The number of records copied
+     */
+    public int drain(long[] out) {
+        long end = mWriteSequence.get();
+        long sequence = Math.max(mReadSequence, end - mCapacity);
+        int count = 0;
+        for (; sequence < end && (count + 1) * 2 <= out.length; sequence++) {
+            int slot = (int) (sequence & (mCapacity - 1)) * SLOT_SIZE;
+            // Still being written or not claimed yet, continue from here on the next call
+            if (mSlots.get(slot) < sequence + 1) break;
+            if (read(sequence, out, count)) count++;
+        }
+        mReadSequence = sequence;
+        return count;
+    }
+
+    /**
+     * Copy the most recent records without consuming them, oldest first.
+     * @param out Receives a timestamp and a payload per record, its length limits the number of records copied
+     * @return The number of records copied
+     */
+    public int snapshot(long[] out) {
+        long end = mWriteSequence.get();
+        int count = 0;
+        for (long sequence = Math.max(0, end - Math.min(mCapacity, out.length / 2)); sequence < end; sequence++) {
+            if (read(sequence, out, count)) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Read a record into out at the given index.
+     * @return Whether the record was read, false if it was overwritten or is being written
+     */
+    private boolean read(long sequence, long[] out, int index) {
+        int slot = (int) (sequence & (mCapacity - 1)) * SLOT_SIZE;
+        if (mSlots.get(slot) != sequence + 1) return false;
+        long timestamp = mSlots.get(slot + 1);
+        long payload = mSlots.get(slot + 2);
+        if (mSlots.get(slot) != sequence + 1) return false;
+
+        out[index * 2] = timestamp;
+        out[index * 2 + 1] = payload;
+        return true;
+    }
+
+    private static long pack(int event, int streamType, int value) {
+        return ((long) (event & 0xFFFF) << 48) | ((long) (streamType & 0xFFFF) << 32) | (value & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param payload A payload copied from the buffer
+     * @return The event id of the record
+     */
+    public static int event(long payload) {
+        return (int) (payload >>> 48);
+    }
+
+    /**
+     * @param payload A payload copied from the buffer
+     * @return The stream type of the record, or -1
+     */
+    public static int streamType(long payload) {
+        return (short) (payload >>> 32);
+    }
+
+    /**
+     * @param payload A payload copied from the buffer
+     * @return The value of the record
+     */
+    public static int value(long payload) {
+        return (int) payload;
+    }
+}
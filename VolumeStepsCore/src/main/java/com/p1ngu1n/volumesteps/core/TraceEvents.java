@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+/**
+ * Event ids of the records in the TraceBuffer, and their decoding into text.
+ */
+public final class TraceEvents {
+    /** getActiveStreamType was called, the value is the VolumePolicy.RESULT_* outcome */
+    public static final int ACTIVE_STREAM = 1;
+    /** The number of steps of a stream was set at boot, the value is the number of steps */
+    public static final int MAX_STEPS_SET = 2;
+    /** The preferences of a user were reloaded, the value is the user id */
+    public static final int CONFIG_RELOADED = 3;
+    /** The indices of a stream were rescaled after a reload, the value is the new number of steps */
+    public static final int STREAM_RESCALED = 4;
+    /** A repeated volume key press was accelerated, the value is the number of steps it moved */
+    public static final int KEY_ACCELERATED = 5;
+    /** The active app profile changed, the value is the app id of the profile or -1 if none is active */
+    public static final int PROFILE_SWITCHED = 6;
+    /** A stream started ramping towards a new volume, the value is the index it ramps to */
+    public static final int RAMP_STARTED = 7;
+    /** The ramps in progress were cancelled by a volume key press */
+    public static final int RAMP_CANCELLED = 8;
+    /** The snapshot of another user was applied on a user switch, the value is the user id */
+    public static final int USER_SWITCHED = 9;
+
+    private static final String[] RESULT_NAMES = {
+            "returned STREAM_MUSIC",
+            "stream suggested",
+            "not voice capable",
+            "in communication",
+            "music active",
+            "remote music active"
+    };
+
+    private TraceEvents() { }
+
+    /**
+     * Decode a record into a line of text.
+     * @param timestamp The timestamp of the record
+     * @param payload The payload of the record
+     * @return The description of the record
+     */
+    public static String describe(long timestamp, long payload) {
+        int streamType = TraceBuffer.streamType(payload);
+        int value = TraceBuffer.value(payload);
+
+        String description;
+        switch (TraceBuffer.event(payload)) {
+            case ACTIVE_STREAM:
+                description = "getActiveStreamType: " + resultName(value);
+                break;
+            case MAX_STEPS_SET:
+                description = StepTable.streamName(streamType) + " set to " + value + " steps";
+                break;
+            case CONFIG_RELOADED:
+                description = "preferences of user " + value + " reloaded";
+                break;
+            case STREAM_RESCALED:
+                description = StepTable.streamName(streamType) + " rescaled to " + value + " steps";
+                break;
+            case KEY_ACCELERATED:
+                description = StepTable.streamName(streamType) + " adjusted by " + value + " steps";
+                break;
+            case PROFILE_SWITCHED:
+                description = (value >= 0 ? "profile of app " + value + " applied" : "app profile removed");
+                break;
+            case RAMP_STARTED:
+                description = StepTable.streamName(streamType) + " ramping to index " + value;
+                break;
+            case RAMP_CANCELLED:
+                description = "volume ramps cancelled";
+                break;
+            case USER_SWITCHED:
+                description = "switched to the steps of user " + value;
+                break;
+            default:
+                description = "unknown event " + TraceBuffer.event(payload);
+                break;
+        }
+        return timestamp + " " + description;
+    }
+
+    /**
+     * @param result One of the VolumePolicy.RESULT_* constants
+     * @return Description of the outcome
+     */
+    public static String resultName(int result) {
+        return (result >= 0 && result < RESULT_NAMES.length ? RESULT_NAMES[result] : "result " + result);
+    }
+}
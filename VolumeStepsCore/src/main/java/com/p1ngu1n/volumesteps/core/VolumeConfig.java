@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import java.util.Arrays;
+
+/**
+ * The configuration of the module, loaded from the user's preferences.
+ * Instances are immutable and only hold primitives and arrays which are never modified after construction,
+ * so an instance published through a volatile field can be read from any thread without locks.
+ */
+public final class VolumeConfig {
+    /** Default maximum time between volume key presses for them to count as repeats */
+    public static final int DEFAULT_KEY_REPEAT_WINDOW_MS = 400;
+    /** Default time the volume has to stay unchanged before it is persisted, when persisting is batched */
+    public static final int DEFAULT_PERSIST_IDLE_MS = 5000;
+
+    // The steps of the preferences, and the steps in effect which the active profile may override
+    private final int[] mConfiguredSteps;
+    private final int[] mMaxSteps;
+    private final boolean mDebugging;
+    private final boolean mCompatibilityModeLG;
+    private final boolean mSafeHeadsetVolumeDisabled;
+    private final boolean mVolumeKeysControlMusic;
+    private final int mMusicActiveWindowMs;
+    private final int mKeyRepeatWindowMs;
+    private final int mKeyAccelerationMaxSteps;
+    private final boolean mPersistBatched;
+    private final int mPersistIdleMs;
+    private final int[] mCurves;
+    private final int[] mControlPoints;
+    // Compiled from the curves, null for streams without a curve
+    private final int[][] mCurveTables;
+    private final AppProfile[] mProfiles;
+    private final IntProfileMap mProfileMap;
+    // The profile of which the steps are applied, null for the configuration loaded from the preferences
+    private final AppProfile mActiveProfile;
+
+    VolumeConfig(int[] maxSteps, boolean debugging, boolean compatibilityModeLG,
+                 boolean safeHeadsetVolumeDisabled, boolean volumeKeysControlMusic, int musicActiveWindowMs,
+                 int keyRepeatWindowMs, int keyAccelerationMaxSteps, boolean persistBatched, int persistIdleMs,
+                 int[] curves, int[] controlPoints, AppProfile[] profiles) {
+        this(maxSteps, maxSteps, debugging, compatibilityModeLG, safeHeadsetVolumeDisabled, volumeKeysControlMusic,
+                musicActiveWindowMs, keyRepeatWindowMs, keyAccelerationMaxSteps, persistBatched, persistIdleMs,
+                curves, controlPoints, profiles, new IntProfileMap(profiles), null);
+    }
+
+    private VolumeConfig(int[] configuredSteps, int[] maxSteps, boolean debugging, boolean compatibilityModeLG,
+                         boolean safeHeadsetVolumeDisabled, boolean volumeKeysControlMusic, int musicActiveWindowMs,
+                         int keyRepeatWindowMs, int keyAccelerationMaxSteps, boolean persistBatched, int persistIdleMs,
+                         int[] curves, int[] controlPoints, AppProfile[] profiles, IntProfileMap profileMap,
+                         AppProfile activeProfile) {
+        mConfiguredSteps = configuredSteps;
+        mMaxSteps = maxSteps;
+        mDebugging = debugging;
+        mCompatibilityModeLG = compatibilityModeLG;
+        mSafeHeadsetVolumeDisabled = safeHeadsetVolumeDisabled;
+        mVolumeKeysControlMusic = volumeKeysControlMusic;
+        mMusicActiveWindowMs = musicActiveWindowMs;
+        mKeyRepeatWindowMs = keyRepeatWindowMs;
+        mKeyAccelerationMaxSteps = keyAccelerationMaxSteps;
+        mPersistBatched = persistBatched;
+        mPersistIdleMs = persistIdleMs;
+        mCurves = curves;
+        mControlPoints = controlPoints;
+        mProfiles = profiles;
+        mProfileMap = profileMap;
+        mActiveProfile = activeProfile;
+
+        mCurveTables = new int[maxSteps.length][];
+        for (int streamType = 0; streamType < maxSteps.length; streamType++) {
+            mCurveTables[streamType] = VolumeCurve.compile(curves[streamType], maxSteps[streamType], controlPoints);
+        }
+    }
+
+    /**
+     * Load the configuration from the user's preferences.
+     * @param source The preferences to read
+     * @return The loaded configuration
+     */
+    public static VolumeConfig load(ConfigSource source) {
+        int[] maxSteps = new int[StepTable.CONFIGURABLE_STREAMS];
+        int[] curves = new int[StepTable.CONFIGURABLE_STREAMS];
+        for (int streamType = 0; streamType < maxSteps.length; streamType++) {
+            maxSteps[streamType] = source.getInt(StepTable.prefKey(streamType), StepTable.UNSET);
+            curves[streamType] = parseInt(source.getString(StepTable.curvePrefKey(streamType), null), VolumeCurve.STOCK);
+        }
+        int[] controlPoints = new int[VolumeCurve.CONTROL_POINTS];
+        for (int i = 0; i < controlPoints.length; i++) {
+            controlPoints[i] = source.getInt("pref_curve_point_" + (i + 1), VolumeCurve.DEFAULT_CONTROL_POINTS[i]);
+        }
+
+        return new VolumeConfig(maxSteps,
+                source.getBoolean("pref_debug", false),
+                source.getBoolean("pref_compatibility_mode_lg", false),
+                source.getBoolean("pref_safe_headset_volume_disabled", false),
+                source.getBoolean("pref_volume_keys_control_music", false),
+                source.getInt("pref_music_active_window", VolumePolicy.MUSIC_ACTIVE_WINDOW_MS / 1000) * 1000,
+                source.getInt("pref_key_repeat_window", DEFAULT_KEY_REPEAT_WINDOW_MS),
+                source.getInt("pref_key_acceleration", 1),
+                source.getBoolean("pref_persist_batched", false),
+                source.getInt("pref_persist_idle", DEFAULT_PERSIST_IDLE_MS / 1000) * 1000,
+                curves,
+                controlPoints,
+                AppProfile.parse(source.getString("pref_app_profiles", null)));
+    }
+
+    // ListPreference stores its values as strings
+    private static int parseInt(String value, int defValue) {
+        if (value == null) return defValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defValue;
+        }
+    }
+
+    /**
+     * Derive the configuration in which the streams which aren't configured have the maximums of the device.
+     * @param deviceSteps The MAX_STREAM_VOLUME array of AudioService before it was changed
+     * @return The configuration with a number of steps for every stream the device has
+     */
+    public VolumeConfig withDefaults(int[] deviceSteps) {
+        int[] maxSteps = mConfiguredSteps.clone();
+        for (int streamType = 0; streamType < maxSteps.length && streamType < deviceSteps.length; streamType++) {
+            if (maxSteps[streamType] == StepTable.UNSET) maxSteps[streamType] = deviceSteps[streamType];
+        }
+        return new VolumeConfig(maxSteps, mDebugging, mCompatibilityModeLG, mSafeHeadsetVolumeDisabled,
+                mVolumeKeysControlMusic, mMusicActiveWindowMs, mKeyRepeatWindowMs, mKeyAccelerationMaxSteps,
+                mPersistBatched, mPersistIdleMs, mCurves, mControlPoints, mProfiles);
+    }
+
+    /**
+     * Set the configured maximum volumes at the index of the right stream, in one pass over the array.
+     * Streams which aren't configured keep their maximum.
+     * @param maxStreamVolume The MAX_STREAM_VOLUME array of AudioService
+     */
+    public void applyTo(int[] maxStreamVolume) {
+        for (int streamType = 0; streamType < mMaxSteps.length && streamType < maxStreamVolume.length; streamType++) {
+            if (mMaxSteps[streamType] != StepTable.UNSET) maxStreamVolume[streamType] = mMaxSteps[streamType];
+        }
+    }
+
+    /**
+     * Compare the number of steps of a stream with another configuration.
+     * @param other The configuration to compare with
+     * @param streamType The stream type
+     * @return Whether the number of steps of the stream differs
+     */
+    public boolean stepsDiffer(VolumeConfig other, int streamType) {
+        return mMaxSteps[streamType] != other.mMaxSteps[streamType];
+    }
+
+    /**
+     * @param streamType The stream type
+     * @return The configured number of steps of the stream, StepTable.UNSET if it keeps the maximum of the device
+     */
+    public int getMaxSteps(int streamType) {
+        return mMaxSteps[streamType];
+    }
+
+    /**
+     * @param streamType The stream type
+     * @return The configured volume curve of the stream, one of the VolumeCurve constants
+     */
+    public int getCurve(int streamType) {
+        return mCurves[streamType];
+    }
+
+    /**
+     * @param point The index of the control point
+     * @return The custom control point, in percent of the native range
+     */
+    public int getControlPoint(int point) {
+        return mControlPoints[point];
+    }
+
+    /**
+     * @param streamType The stream type, may be any stream
+     * @return Table from volume index to the index passed to the audio policy, null if the stream has no curve.
+     * The table is shared by all readers and must not be modified.
+     */
+    public int[] getCurveTable(int streamType) {
+        return (streamType >= 0 && streamType < mCurveTables.length ? mCurveTables[streamType] : null);
+    }
+
+    /**
+     * Compare the curve table of a stream with another configuration.
+     * @param other The configuration to compare with
+     * @param streamType The stream type
+     * @return Whether the volume curve of the stream differs
+     */
+    public boolean curveDiffers(VolumeConfig other, int streamType) {
+        return !Arrays.equals(mCurveTables[streamType], other.mCurveTables[streamType]);
+    }
+
+    /**
+     * @param uid The uid of an app, of any user
+     * @return The profile of the app, or null if it has none
+     */
+    public AppProfile findProfile(int uid) {
+        return mProfileMap.get(uid);
+    }
+
+    /**
+     * @return The configured app profiles
+     */
+    public AppProfile[] getProfiles() {
+        return mProfiles.clone();
+    }
+
+    /**
+     * @return The profile of which the steps are applied, null if none is
+     */
+    public AppProfile getActiveProfile() {
+        return mActiveProfile;
+    }
+
+    /**
+     * Derive the configuration which applies while an app is active, the profile overrides the steps of the streams
+     * it changes. The curves are compiled again for the new steps, everything else is shared.
+     * @param profile The profile of the app, or null for the configuration without profile
+     * @return The configuration with the steps of the profile
+     */
+    public VolumeConfig withProfile(AppProfile profile) {
+        if (profile == mActiveProfile) return this;
+
+        int[] maxSteps = mConfiguredSteps.clone();
+        for (int streamType = 0; profile != null && streamType < maxSteps.length; streamType++) {
+            if (profile.getSteps(streamType) != AppProfile.UNCHANGED) maxSteps[streamType] = profile.getSteps(streamType);
+        }
+        return new VolumeConfig(mConfiguredSteps, maxSteps, mDebugging, mCompatibilityModeLG, mSafeHeadsetVolumeDisabled,
+                mVolumeKeysControlMusic, mMusicActiveWindowMs, mKeyRepeatWindowMs, mKeyAccelerationMaxSteps,
+                mPersistBatched, mPersistIdleMs, mCurves, mControlPoints, mProfiles, mProfileMap, profile);
+    }
+
+    /**
+     * @return The safe headset volume index matching the configured music steps, -1 if the music stream keeps the
+     * maximum of the device and so the safe headset volume of the device applies
+     */
+    public int getSafeHeadsetVolumeIndex() {
+        if (mMaxSteps[StepTable.STREAM_MUSIC] == StepTable.UNSET) return -1;
+        return VolumePolicy.safeHeadsetVolumeIndex(mMaxSteps[StepTable.STREAM_MUSIC]);
+    }
+
+    public boolean isDebugging() {
+        return mDebugging;
+    }
+
+    public boolean isCompatibilityModeLG() {
+        return mCompatibilityModeLG;
+    }
+
+    public boolean isSafeHeadsetVolumeDisabled() {
+        return mSafeHeadsetVolumeDisabled;
+    }
+
+    public boolean isVolumeKeysControlMusic() {
+        return mVolumeKeysControlMusic;
+    }
+
+    /**
+     * @return The period in which music counts as active when deciding which stream the volume keys control
+     */
+    public int getMusicActiveWindowMs() {
+        return mMusicActiveWindowMs;
+    }
+
+    /**
+     * @return The maximum time between volume key presses for them to count as repeats
+     */
+    public int getKeyRepeatWindowMs() {
+        return mKeyRepeatWindowMs;
+    }
+
+    /**
+     * @return The maximum number of steps a repeated volume key press moves, 1 if acceleration is disabled
+     */
+    public int getKeyAccelerationMaxSteps() {
+        return mKeyAccelerationMaxSteps;
+    }
+
+    /**
+     * @return Whether volume changes are persisted once the volume has been unchanged for a while
+     */
+    public boolean isPersistBatched() {
+        return mPersistBatched;
+    }
+
+    /**
+     * @return The time the volume has to stay unchanged before it is persisted, when persisting is batched
+     */
+    public int getPersistIdleMs() {
+        return mPersistIdleMs;
+    }
+
+    @Override
+    public String toString() {
+        return "steps=" + Arrays.toString(mMaxSteps)
+                + ", debug=" + mDebugging
+                + ", compatibilityModeLG=" + mCompatibilityModeLG
+                + ", safeHeadsetVolumeDisabled=" + mSafeHeadsetVolumeDisabled
+                + ", volumeKeysControlMusic=" + mVolumeKeysControlMusic
+                + ", musicActiveWindowMs=" + mMusicActiveWindowMs
+                + ", keyRepeatWindowMs=" + mKeyRepeatWindowMs
+                + ", keyAccelerationMaxSteps=" + mKeyAccelerationMaxSteps
+                + ", persistBatched=" + mPersistBatched
+                + ", persistIdleMs=" + mPersistIdleMs
+                + ", curves=" + Arrays.toString(mCurves)
+                + ", controlPoints=" + Arrays.toString(mControlPoints)
+                + ", profiles=" + Arrays.toString(mProfiles)
+                + (mActiveProfile != null ? ", activeProfile=" + mActiveProfile : "");
+    }
+}
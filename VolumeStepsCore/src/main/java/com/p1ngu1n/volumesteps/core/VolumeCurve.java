@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+/**
+ * Curves spacing the volume steps of a stream over the volume range of the audio policy.
+ * A curve is compiled into a lookup table from volume index to the index passed to the audio policy, which uses
+ * a range of NATIVE_MAX steps for streams with a curve. The volume path then does a single array read per change.
+ */
+public final class VolumeCurve {
+    /** Steps are spaced by the audio policy itself */
+    public static final int STOCK = 0;
+    /** The volume grows with the square of the index, leaving more steps for low volumes */
+    public static final int QUADRATIC = 1;
+    /** The volume grows with the cube of the index, leaving even more steps for low volumes */
+    public static final int CUBIC = 2;
+    /** The volume follows the custom control points */
+    public static final int CUSTOM = 3;
+
+    /** Maximum index the audio policy uses for streams with a curve */
+    public static final int NATIVE_MAX = 100;
+    /** Number of custom control points, at equal distances between the first and last index */
+    public static final int CONTROL_POINTS = 3;
+    /** Default control points, in percent of NATIVE_MAX */
+    public static final int[] DEFAULT_CONTROL_POINTS = { 10, 30, 60 };
+
+    // Default media curve of the AOSP audio policy, the attenuation in dB at native indices
+    private static final int[] POLICY_INDICES = { 1, 20, 60, 100 };
+    private static final float[] POLICY_DB = { -58f, -40f, -17f, 0f };
+
+    private VolumeCurve() { }
+
+    /**
+     * Compile a curve into a lookup table.
+     * @param curve One of the curve constants
+     * @param maxSteps The number of steps of the stream
+     * @param controlPoints The custom control points in percent of NATIVE_MAX, only used by CUSTOM
+     * @return Table from volume index to native index of length maxSteps + 1, null for STOCK
+     */
+    public static int[] compile(int curve, int maxSteps, int[] controlPoints) {
+        if (curve == STOCK || maxSteps <= 0) return null;
+
+        int[] table = new int[maxSteps + 1];
+        for (int index = 0; index <= maxSteps; index++) {
+            double fraction = (double) index / maxSteps;
+            table[index] = (int) Math.round(NATIVE_MAX * shape(curve, fraction, controlPoints));
+        }
+
+        // Every step has to change the volume, as far as the native range allows
+        table[0] = 0;
+        table[maxSteps] = NATIVE_MAX;
+        for (int index = 1; index < maxSteps; index++) {
+            table[index] = Math.max(table[index], table[index - 1] + 1);
+        }
+        for (int index = maxSteps - 1; index > 0; index--) {
+            table[index] = Math.max(0, Math.min(table[index], table[index + 1] - 1));
+        }
+        return table;
+    }
+
+    /**
+     * Estimate the amplitude of a volume index relative to the maximum volume, used to preview the steps.
+     * The attenuation follows the default media curve of the AOSP audio policy, devices may use other curves.
+     * @param curve One of the curve constants
+     * @param maxSteps The number of steps of the stream
+     * @param controlPoints The custom control points in percent of NATIVE_MAX, only used by CUSTOM
+     * @param index The volume index
+     * @return The amplitude, between 0 and 1
+     */
+    public static float previewGain(int curve, int maxSteps, int[] controlPoints, int index) {
+        if (index <= 0 || maxSteps <= 0) return 0;
+
+        // The audio policy spreads the steps of a stream without a curve linearly over its native range
+        double fraction = Math.min(1, (double) index / maxSteps);
+        int nativeIndex = Math.max(1, (int) Math.round(NATIVE_MAX * shape(curve, fraction, controlPoints)));
+        for (int point = 1; point < POLICY_INDICES.length; point++) {
+            if (nativeIndex > POLICY_INDICES[point]) continue;
+
+            float position = (float) (nativeIndex - POLICY_INDICES[point - 1]) / (POLICY_INDICES[point] - POLICY_INDICES[point - 1]);
+            float attenuation = POLICY_DB[point - 1] + (POLICY_DB[point] - POLICY_DB[point - 1]) * position;
+            return (float) Math.pow(10, attenuation / 20);
+        }
+        return 1;
+    }
+
+    /**
+     * Estimate the amplitude of the volume a stream is at once its number of steps changes, relative to that volume.
+     * The index is rescaled like AudioService does, so what remains is the rounding to the nearest of the new steps.
+     * A step louder than the current volume can't be previewed on top of it and is capped.
+     * @param curve One of the curve constants
+     * @param oldMaxSteps The number of steps the stream has
+     * @param newMaxSteps The number of steps to preview
+     * @param controlPoints The custom control points in percent of NATIVE_MAX, only used by CUSTOM
+     * @param index The volume index the stream is at
+     * @return The amplitude, between 0 and 1
+     */
+    public static float previewRescaledGain(int curve, int oldMaxSteps, int newMaxSteps, int[] controlPoints, int index) {
+        float current = previewGain(curve, oldMaxSteps, controlPoints, index);
+        if (current <= 0 || newMaxSteps <= 0) return 0;
+
+        int rescaled = VolumePolicy.rescaleIndex(index, oldMaxSteps, newMaxSteps);
+        return Math.min(1, previewGain(curve, newMaxSteps, controlPoints, rescaled) / current);
+    }
+
+    private static double shape(int curve, double fraction, int[] controlPoints) {
+        switch (curve) {
+            case QUADRATIC:
+                return fraction * fraction;
+            case CUBIC:
+                return fraction * fraction * fraction;
+            case CUSTOM:
+                return interpolate(fraction, controlPoints);
+            default:
+                return fraction;
+        }
+    }
+
+    /**
+     * Piecewise linear interpolation through (0, 0), the control points and (1, 1).
+     */
+    private static double interpolate(double fraction, int[] controlPoints) {
+        int segments = CONTROL_POINTS + 1;
+        int segment = Math.min(segments - 1, (int) (fraction * segments));
+        double start = (segment == 0 ? 0 : controlPoints[segment - 1] / 100.0);
+        double end = (segment == segments - 1 ? 1 : controlPoints[segment] / 100.0);
+        double position = fraction * segments - segment;
+        return start + (end - start) * position;
+    }
+}
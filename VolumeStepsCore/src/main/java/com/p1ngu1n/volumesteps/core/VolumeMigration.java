@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rescales the volumes AudioService persisted in the system settings when the number of steps of streams changed
+ * while AudioService wasn't running with the module, so they keep the same relative volume on the new scale.
+ * The step table the volumes were persisted at is remembered in a setting of its own.
+ */
+public final class VolumeMigration {
+    /** Name of the system setting holding the step table the volumes were persisted at */
+    public static final String STEPS_SETTING = "volumesteps_persisted_steps";
+    /** Name of the system setting holding the maximums of the device before they were changed, in the same form */
+    public static final String DEFAULT_STEPS_SETTING = "volumesteps_default_steps";
+
+    private VolumeMigration() { }
+
+    /**
+     * @param steps The number of steps of each stream, as far as the device has them
+     * @return The steps as stored in STEPS_SETTING, at most the configurable streams
+     */
+    public static String encodeSteps(int[] steps) {
+        StringBuilder builder = new StringBuilder();
+        for (int streamType = 0; streamType < StepTable.CONFIGURABLE_STREAMS && streamType < steps.length; streamType++) {
+            if (streamType > 0) builder.append(',');
+            builder.append(steps[streamType]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param value The value of STEPS_SETTING
+     * @return The number of steps of each stream the device has, null if the value is missing or invalid
+     */
+    public static int[] decodeSteps(String value) {
+        if (value == null) return null;
+
+        String[] parts = value.split(",");
+        if (parts.length > StepTable.CONFIGURABLE_STREAMS) return null;
+        int[] steps = new int[parts.length];
+        try {
+            for (int streamType = 0; streamType < parts.length; streamType++) {
+                steps[streamType] = Integer.parseInt(parts[streamType]);
+                if (steps[streamType] <= 0) return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return steps;
+    }
+
+    /**
+     * Rescale the persisted volumes of the streams whose number of steps changed.
+     * @param settings The system settings by name, other settings than volumes AudioService persists are ignored
+     * @param oldSteps The step table the volumes were persisted at
+     * @param newSteps The step table now in use
+     * @return The new values of the settings which changed, by name
+     */
+    public static Map<String, Integer> migrate(Map<String, String> settings, int[] oldSteps, int[] newSteps) {
+        Map<String, Integer> changes = new HashMap<String, Integer>();
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            int streamType = streamOfSetting(setting.getKey());
+            if (streamType < 0 || !StepTable.isVolumePersisted(streamType) || streamType >= oldSteps.length || streamType >= newSteps.length
+                    || oldSteps[streamType] == newSteps[streamType]) continue;
+
+            int index;
+            try {
+                index = Integer.parseInt(setting.getValue());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            int migrated = Math.min(newSteps[streamType], VolumePolicy.rescaleIndex(index, oldSteps[streamType], newSteps[streamType]));
+            if (migrated != index) changes.put(setting.getKey(), migrated);
+        }
+        return changes;
+    }
+
+    /**
+     * @param name The name of a system setting
+     * @return The stream whose volume the setting holds, -1 if it isn't a volume of a configurable stream
+     */
+    static int streamOfSetting(String name) {
+        // The longest name wins, volume_system is a prefix of volume_system_enforced
+        int match = -1;
+        for (int streamType = 0; streamType < StepTable.CONFIGURABLE_STREAMS; streamType++) {
+            String prefix = StepTable.volumeSetting(streamType);
+            if (name.startsWith(prefix) && (name.length() == prefix.length() || name.charAt(prefix.length()) == '_')
+                    && (match < 0 || prefix.length() > StepTable.volumeSetting(match).length())) {
+                match = streamType;
+            }
+        }
+        return match;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+/**
+ * The decisions made by the hooks, without any dependency on Android or Xposed.
+ */
+public final class VolumePolicy {
+    /** Equals AudioManager.USE_DEFAULT_STREAM_TYPE */
+    public static final int USE_DEFAULT_STREAM_TYPE = Integer.MIN_VALUE;
+    /** Default period in which music counts as active, as used by AudioService itself */
+    public static final int MUSIC_ACTIVE_WINDOW_MS = 5000;
+
+    // Outcomes of decideActiveStream, see controlsMusic for which of them return STREAM_MUSIC
+    public static final int RESULT_TARGET_MUSIC = 0;
+    public static final int RESULT_STREAM_SUGGESTED = 1;
+    public static final int RESULT_NOT_VOICE_CAPABLE = 2;
+    public static final int RESULT_IN_COMMUNICATION = 3;
+    public static final int RESULT_MUSIC_ACTIVE = 4;
+    public static final int RESULT_REMOTE_ACTIVE = 5;
+
+    private VolumePolicy() { }
+
+    /**
+     * Calculate the safe headset volume index matching the maximum music volume.
+     * @param maxMusicSteps The number of steps of the music stream
+     * @return The safe headset volume index
+     */
+    public static int safeHeadsetVolumeIndex(int maxMusicSteps) {
+        return (int) Math.round(maxMusicSteps * (2.0 / 3.0));
+    }
+
+    /**
+     * Rescale a volume index to a new maximum, keeping the perceived volume the same.
+     * Uses the same rounding as AudioService.rescaleIndex.
+     * @param index The index to rescale
+     * @param oldMax The maximum index the index belongs to
+     * @param newMax The new maximum index
+     * @return The rescaled index
+     */
+    public static int rescaleIndex(int index, int oldMax, int newMax) {
+        return (index * newMax + oldMax / 2) / oldMax;
+    }
+
+    /**
+     * Calculate the index of a stream while it ramps linearly from one index to another.
+     * @param start The index at the start of the ramp
+     * @param target The index at the end of the ramp
+     * @param tick The number of ticks passed since the start
+     * @param ticks The number of ticks of the whole ramp
+     * @return The index at the tick, rounded to the nearest index
+     */
+    public static int rampIndex(int start, int target, int tick, int ticks) {
+        if (tick >= ticks) return target;
+        int delta = (target - start) * tick;
+        return start + (delta >= 0 ? (delta + ticks / 2) / ticks : -((-delta + ticks / 2) / ticks));
+    }
+
+    /**
+     * Whether getActiveStreamType should return STREAM_MUSIC for an outcome of decideActiveStream. Music which is
+     * active does, as well: left untouched, AudioService asks the audio policy again, which disagrees with the
+     * tracker for music active longer ago than its own window and routes the keys to the ringer.
+     * @param result The outcome of decideActiveStream
+     * @return Whether STREAM_MUSIC should be returned, otherwise the call is left untouched
+     */
+    public static boolean controlsMusic(int result) {
+        return result == RESULT_TARGET_MUSIC || result == RESULT_MUSIC_ACTIVE;
+    }
+
+    /**
+     * Decide whether a volume key press without a specific stream should control the music stream
+     * instead of the ringer. The cheapest checks are done first.
+     * @param suggestedStreamType The stream type passed to getActiveStreamType
+     * @param musicActiveWindowMs The period in which music counts as active, in milliseconds
+     * @param audioService The AudioService instance
+     * @param probe The probe to query the state of AudioService with
+     * @return The outcome, RESULT_TARGET_MUSIC if nothing else is active, otherwise what is
+     */
+    public static <S> int decideActiveStream(int suggestedStreamType, int musicActiveWindowMs,
+                                             S audioService, AudioServiceProbe<S> probe) throws Exception {
+        if (suggestedStreamType != USE_DEFAULT_STREAM_TYPE) return RESULT_STREAM_SUGGESTED;
+        if (!probe.isVoiceCapable(audioService)) return RESULT_NOT_VOICE_CAPABLE;
+        if (probe.isInCommunication(audioService)) return RESULT_IN_COMMUNICATION;
+        if (probe.isMusicActiveRecently(audioService, musicActiveWindowMs)) return RESULT_MUSIC_ACTIVE;
+        if (probe.isRemoteMusicActive(audioService)) return RESULT_REMOTE_ACTIVE;
+        return RESULT_TARGET_MUSIC;
+    }
+}
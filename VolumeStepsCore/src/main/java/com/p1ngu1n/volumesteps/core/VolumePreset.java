@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A named set of the volume preferences, such as "car" or "office", which is activated as a whole.
+ * A preset holds the steps and curve of every stream, the control points of the custom curve and the volume key
+ * and safe headset volume settings. Settings of the device and the module itself, like debugging, are left out.
+ */
+public final class VolumePreset {
+    /** Value of an int preference which wasn't set, it returns to its default when the preset is activated */
+    public static final int UNSET = -1;
+
+    // Appended to only, presets stored before a setting existed leave it unchanged
+    private static final String[] SETTING_KEYS = {
+            "pref_curve_point_1",
+            "pref_curve_point_2",
+            "pref_curve_point_3",
+            "pref_safe_headset_volume_disabled",
+            "pref_volume_keys_control_music",
+            "pref_music_active_window",
+            "pref_key_acceleration",
+            "pref_key_repeat_window"
+    };
+
+    private final String mName;
+    private final int[] mSteps;
+    private final int[] mCurves;
+    // Aligned with SETTING_KEYS, flags are 0 or 1
+    private final int[] mSettings;
+
+    private VolumePreset(String name, int[] steps, int[] curves, int[] settings) {
+        mName = name;
+        mSteps = steps;
+        mCurves = curves;
+        mSettings = settings;
+    }
+
+    /**
+     * Create a preset from the current preferences. Flags which were never set are off and curves which were never
+     * set are stock, like the settings show them.
+     * @param name The name of the preset, see cleanName
+     * @param prefs All preferences, as returned by SharedPreferences.getAll
+     * @return The preset
+     */
+    public static VolumePreset capture(String name, Map<String, ?> prefs) {
+        int[] steps = new int[StepTable.CONFIGURABLE_STREAMS];
+        int[] curves = new int[StepTable.CONFIGURABLE_STREAMS];
+        for (int streamType = 0; streamType < StepTable.CONFIGURABLE_STREAMS; streamType++) {
+            steps[streamType] = readInt(prefs.get(StepTable.prefKey(streamType)));
+            curves[streamType] = readInt(prefs.get(StepTable.curvePrefKey(streamType)));
+            if (curves[streamType] == UNSET) curves[streamType] = VolumeCurve.STOCK;
+        }
+
+        int[] settings = new int[SETTING_KEYS.length];
+        for (int i = 0; i < settings.length; i++) {
+            settings[i] = readInt(prefs.get(SETTING_KEYS[i]));
+            if (settings[i] == UNSET && PreferenceRules.typeOf(SETTING_KEYS[i]) == PreferenceRules.TYPE_BOOLEAN) {
+                settings[i] = 0;
+            }
+        }
+        return new VolumePreset(cleanName(name), steps, curves, settings);
+    }
+
+    private static int readInt(Object value) {
+        if (value instanceof Integer) return (Integer) value;
+        if (value instanceof Boolean) return ((Boolean) value ? 1 : 0);
+        if (value instanceof String) {
+            try {
+                return Integer.parseInt((String) value);
+            } catch (NumberFormatException e) {
+                return UNSET;
+            }
+        }
+        return UNSET;
+    }
+
+    /**
+     * @param name A name entered by the user
+     * @return The name without the characters separating the stored presets, trimmed
+     */
+    public static String cleanName(String name) {
+        return name.replace(':', ' ').replace(';', ' ').trim();
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * The preferences to write when the preset is activated, typed as the settings store them.
+     * @return The value of every preference in the preset by key, null for preferences to return to their default
+     */
+    public Map<String, Object> getValues() {
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        for (int streamType = 0; streamType < StepTable.CONFIGURABLE_STREAMS; streamType++) {
+            values.put(StepTable.prefKey(streamType), toValue(StepTable.prefKey(streamType), mSteps[streamType]));
+            values.put(StepTable.curvePrefKey(streamType), toValue(StepTable.curvePrefKey(streamType), mCurves[streamType]));
+        }
+        for (int i = 0; i < SETTING_KEYS.length; i++) {
+            values.put(SETTING_KEYS[i], toValue(SETTING_KEYS[i], mSettings[i]));
+        }
+        return Collections.unmodifiableMap(values);
+    }
+
+    private static Object toValue(String key, int value) {
+        if (value == UNSET) return null;
+        switch (PreferenceRules.typeOf(key)) {
+            case PreferenceRules.TYPE_BOOLEAN:
+                return value != 0;
+            case PreferenceRules.TYPE_STRING:
+                return String.valueOf(value);
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Parse the presets as stored in the preferences: entries separated by semicolons, each holding the name, steps,
+     * curves and other settings separated by colons, with the values separated by commas. Malformed entries are
+     * skipped.
+     * @param value The stored presets, may be null
+     * @return The presets
+     */
+    public static VolumePreset[] parse(String value) {
+        if (value == null) return new VolumePreset[0];
+        List<VolumePreset> presets = new ArrayList<VolumePreset>();
+
+        for (String entry : value.split(";")) {
+            String[] fields = entry.split(":");
+            if (fields.length != 4 || fields[0].isEmpty()) continue;
+            try {
+                int[] steps = parseValues(fields[1], StepTable.CONFIGURABLE_STREAMS, UNSET);
+                int[] curves = parseValues(fields[2], StepTable.CONFIGURABLE_STREAMS, VolumeCurve.STOCK);
+                int[] settings = parseValues(fields[3], SETTING_KEYS.length, UNSET);
+                if (steps == null || curves == null || settings == null) continue;
+                presets.add(new VolumePreset(fields[0], steps, curves, settings));
+            } catch (NumberFormatException e) {
+                // Skip the entry
+            }
+        }
+        return presets.toArray(new VolumePreset[presets.size()]);
+    }
+
+    /**
+     * @param presets The presets to store
+     * @return The presets in the form read by parse
+     */
+    public static String format(VolumePreset[] presets) {
+        StringBuilder builder = new StringBuilder();
+        for (VolumePreset preset : presets) {
+            if (builder.length() > 0) builder.append(';');
+            builder.append(preset.mName).append(':');
+            formatValues(builder, preset.mSteps);
+            builder.append(':');
+            formatValues(builder, preset.mCurves);
+            builder.append(':');
+            formatValues(builder, preset.mSettings);
+        }
+        return builder.toString();
+    }
+
+    // Values stored before more streams or settings existed get the given value
+    private static int[] parseValues(String field, int count, int missing) {
+        String[] values = field.split(",");
+        if (values.length > count) return null;
+        int[] result = new int[count];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (i < values.length ? Integer.parseInt(values[i]) : missing);
+        }
+        return result;
+    }
+
+    private static void formatValues(StringBuilder builder, int[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) builder.append(',');
+            builder.append(values[i]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ActiveStreamCacheTest {
+    private static final int MODE_NORMAL = 0;
+    private static final int MODE_IN_CALL = 2;
+
+    private final ActiveStreamCache mCache = new ActiveStreamCache();
+    private final FakeAudioServiceProbe mProbe = new FakeAudioServiceProbe();
+
+    private int decide(int mode, long now) throws Exception {
+        return mCache.decide(VolumePolicy.USE_DEFAULT_STREAM_TYPE, mode, VolumePolicy.MUSIC_ACTIVE_WINDOW_MS, now, null, mProbe);
+    }
+
+    @Test
+    public void repeatedKeyPressesAreEvaluatedOnce() throws Exception {
+        assertEquals(VolumePolicy.RESULT_TARGET_MUSIC, decide(MODE_NORMAL, 0));
+        int queries = mProbe.queries;
+        assertEquals(VolumePolicy.RESULT_TARGET_MUSIC, decide(MODE_NORMAL, 100));
+        assertEquals(VolumePolicy.RESULT_TARGET_MUSIC, decide(MODE_NORMAL, 200));
+        assertEquals(queries, mProbe.queries);
+    }
+
+    @Test
+    public void musicActivityIsAlwaysQueried() throws Exception {
+        assertEquals(VolumePolicy.RESULT_TARGET_MUSIC, decide(MODE_NORMAL, 0));
+        mProbe.musicActive = true;
+        assertEquals(VolumePolicy.RESULT_MUSIC_ACTIVE, decide(MODE_NORMAL, 100));
+    }
+
+    @Test
+    public void invalidateDropsTheDecision() throws Exception {
+        assertEquals(VolumePolicy.RESULT_TARGET_MUSIC, decide(MODE_NORMAL, 0));
+        mProbe.remoteMusicActive = true;
+        assertEquals(VolumePolicy.RESULT_TARGET_MUSIC, decide(MODE_NORMAL, 100));
+        mCache.invalidate();
+        assertEquals(VolumePolicy.RESULT_REMOTE_ACTIVE, decide(MODE_NORMAL, 200));
+    }
+
+    @Test
+    public void modeChangeDropsTheDecision() throws Exception {
+        assertEquals(VolumePolicy.RESULT_TARGET_MUSIC, decide(MODE_NORMAL, 0));
+        mProbe.inCommunication = true;
+        assertEquals(VolumePolicy.RESULT_IN_COMMUNICATION, decide(MODE_IN_CALL, 100));
+    }
+
+    @Test
+    public void decisionExpiresAfterMaxAge() throws Exception {
+        assertEquals(VolumePolicy.RESULT_TARGET_MUSIC, decide(MODE_NORMAL, 0));
+        mProbe.voiceCapable = false;
+        assertEquals(VolumePolicy.RESULT_TARGET_MUSIC, decide(MODE_NORMAL, ActiveStreamCache.MAX_AGE_MS));
+        assertEquals(VolumePolicy.RESULT_NOT_VOICE_CAPABLE, decide(MODE_NORMAL, ActiveStreamCache.MAX_AGE_MS + 1));
+    }
+
+    @Test
+    public void suggestedStreamBypassesTheCache() throws Exception {
+        assertEquals(VolumePolicy.RESULT_STREAM_SUGGESTED,
+                mCache.decide(StepTable.STREAM_ALARM, MODE_NORMAL, VolumePolicy.MUSIC_ACTIVE_WINDOW_MS, 0, null, mProbe));
+        assertEquals(0, mProbe.queries);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConfigCodecTest {
+    private static final long SOURCE = ConfigCodec.stamp(new byte[] { 1, 2, 3 }, 3);
+
+    private static VolumeConfig config() {
+        Map<String, Object> prefs = new HashMap<String, Object>();
+        prefs.put(StepTable.prefKey(StepTable.STREAM_MUSIC), 30);
+        prefs.put(StepTable.prefKey(StepTable.STREAM_RING), 14);
+        prefs.put(StepTable.curvePrefKey(StepTable.STREAM_MUSIC), String.valueOf(VolumeCurve.CUSTOM));
+        prefs.put("pref_curve_point_2", 40);
+        prefs.put("pref_volume_keys_control_music", true);
+        prefs.put("pref_persist_batched", true);
+        prefs.put("pref_key_acceleration", 3);
+        prefs.put("pref_app_profiles", "com.example.player:10123:-1,-1,-1,50:-1,-1,-1,80");
+        return VolumeConfig.load(new MapConfigSource(prefs));
+    }
+
+    private static void assertDecodeFails(byte[] data, long source) {
+        try {
+            ConfigCodec.decode(ByteBuffer.wrap(data), source);
+            fail("Decoded an invalid config");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void roundTrip() {
+        VolumeConfig config = config();
+        VolumeConfig decoded = ConfigCodec.decode(ByteBuffer.wrap(ConfigCodec.encode(config, SOURCE)), SOURCE);
+
+        for (int streamType = 0; streamType < StepTable.CONFIGURABLE_STREAMS; streamType++) {
+            assertEquals(config.getMaxSteps(streamType), decoded.getMaxSteps(streamType));
+            assertEquals(config.getCurve(streamType), decoded.getCurve(streamType));
+        }
+        for (int i = 0; i < VolumeCurve.CONTROL_POINTS; i++) {
+            assertEquals(config.getControlPoint(i), decoded.getControlPoint(i));
+        }
+        assertEquals(config.isVolumeKeysControlMusic(), decoded.isVolumeKeysControlMusic());
+        assertEquals(config.isPersistBatched(), decoded.isPersistBatched());
+        assertEquals(config.getKeyAccelerationMaxSteps(), decoded.getKeyAccelerationMaxSteps());
+        assertEquals(config.getMusicActiveWindowMs(), decoded.getMusicActiveWindowMs());
+        assertEquals(config.getSafeHeadsetVolumeIndex(), decoded.getSafeHeadsetVolumeIndex());
+        assertEquals(AppProfile.format(config.getProfiles()), AppProfile.format(decoded.getProfiles()));
+    }
+
+    @Test
+    public void decodeFromBufferPosition() {
+        byte[] encoded = ConfigCodec.encode(config());
+        ByteBuffer buffer = ByteBuffer.allocate(encoded.length + 8);
+        buffer.position(8);
+        buffer.put(encoded);
+        buffer.position(8);
+        assertEquals(30, ConfigCodec.decode(buffer).getMaxSteps(StepTable.STREAM_MUSIC));
+    }
+
+    @Test
+    public void rejectsCorruptData() {
+        byte[] encoded = ConfigCodec.encode(config());
+        for (int i = 0; i < encoded.length; i++) {
+            byte[] corrupt = encoded.clone();
+            corrupt[i] ^= 0x10;
+            assertDecodeFails(corrupt, ConfigCodec.NO_SOURCE);
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedData() {
+        byte[] encoded = ConfigCodec.encode(config());
+        byte[] truncated = new byte[encoded.length - 4];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+        assertDecodeFails(truncated, ConfigCodec.NO_SOURCE);
+        assertDecodeFails(new byte[8], ConfigCodec.NO_SOURCE);
+    }
+
+    @Test
+    public void rejectsConfigOfOtherPreferences() {
+        byte[] encoded = ConfigCodec.encode(config(), SOURCE);
+        assertDecodeFails(encoded, ConfigCodec.stamp(new byte[] { 1, 2, 4 }, 3));
+        // Either side without a source skips the check
+        ConfigCodec.decode(ByteBuffer.wrap(encoded), ConfigCodec.NO_SOURCE);
+        ConfigCodec.decode(ByteBuffer.wrap(ConfigCodec.encode(config())), SOURCE);
+    }
+
+    @Test
+    public void stampHoldsLength() {
+        assertEquals(3, SOURCE & 0xFFFFFFFFL);
+        assertTrue(SOURCE != ConfigCodec.NO_SOURCE);
+    }
+}
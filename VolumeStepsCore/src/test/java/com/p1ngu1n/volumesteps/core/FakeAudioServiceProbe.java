@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+/**
+ * Probe answering from fields the tests set, counting how often AudioService would have been queried.
+ */
+class FakeAudioServiceProbe implements AudioServiceProbe<Object> {
+    boolean voiceCapable = true;
+    boolean inCommunication;
+    boolean musicActive;
+    boolean remoteMusicActive;
+    int queries;
+
+    @Override
+    public boolean isVoiceCapable(Object audioService) {
+        queries++;
+        return voiceCapable;
+    }
+
+    @Override
+    public boolean isInCommunication(Object audioService) {
+        queries++;
+        return inCommunication;
+    }
+
+    @Override
+    public boolean isMusicActiveRecently(Object audioService, int windowMs) {
+        return musicActive;
+    }
+
+    @Override
+    public boolean isRemoteMusicActive(Object audioService) {
+        queries++;
+        return remoteMusicActive;
+    }
+}
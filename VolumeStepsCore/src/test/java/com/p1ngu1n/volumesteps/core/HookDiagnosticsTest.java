@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class HookDiagnosticsTest {
+    private final HookDiagnostics mDiagnostics = new HookDiagnostics();
+
+    @Test
+    public void exportHoldsEveryHistogramAndCounter() {
+        mDiagnostics.recordLatency(HookDiagnostics.HOOK_PERSIST_VOLUME, 1000);
+        mDiagnostics.countReason(VolumePolicy.RESULT_MUSIC_ACTIVE);
+        mDiagnostics.increment(HookDiagnostics.COUNTER_PERSIST_WRITTEN);
+
+        long[] export = mDiagnostics.export();
+        assertEquals(HookDiagnostics.EXPORT_SIZE, export.length);
+        int offset = HookDiagnostics.HOOK_PERSIST_VOLUME * LatencyHistogram.SNAPSHOT_SIZE;
+        assertEquals(1, LatencyHistogram.count(export, offset));
+        assertEquals(0, LatencyHistogram.count(export, HookDiagnostics.HOOK_VOLUME_CURVE * LatencyHistogram.SNAPSHOT_SIZE));
+        int reasons = HookDiagnostics.HOOKS * LatencyHistogram.SNAPSHOT_SIZE;
+        assertEquals(1, export[reasons + VolumePolicy.RESULT_MUSIC_ACTIVE]);
+        assertEquals(1, export[reasons + HookDiagnostics.REASONS + HookDiagnostics.COUNTER_PERSIST_WRITTEN]);
+    }
+
+    @Test
+    public void describeHasALinePerHookAndReason() {
+        mDiagnostics.recordLatency(HookDiagnostics.HOOK_PERSIST_VOLUME, 1000);
+        mDiagnostics.countReason(HookDiagnostics.REASON_DISABLED);
+        mDiagnostics.countReason(HookDiagnostics.REASON_DISABLED);
+        for (int i = 0; i < 3; i++) mDiagnostics.increment(HookDiagnostics.COUNTER_PERSIST_REQUESTED);
+        mDiagnostics.increment(HookDiagnostics.COUNTER_PERSIST_WRITTEN);
+
+        String[] lines = HookDiagnostics.describe(mDiagnostics.export());
+        assertEquals(HookDiagnostics.HOOKS + HookDiagnostics.REASONS + 1, lines.length);
+        assertEquals("persistVolume: 1 calls, p50 1000 ns, p99 1000 ns, max 1000 ns",
+                lines[HookDiagnostics.HOOK_PERSIST_VOLUME]);
+        assertEquals("toggle disabled: 2", lines[HookDiagnostics.HOOKS + HookDiagnostics.REASON_DISABLED]);
+        assertEquals("volume persists: 3 requested, 1 written, 2 saved", lines[lines.length - 1]);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HookProfileTest {
+    private static final String FINGERPRINT = "google/hammerhead/hammerhead:6.0.1/M4B30Z/3437181:user/release-keys";
+    private static final HookProfile PROFILE =
+            new HookProfile(FINGERPRINT, "com.android.server.audio.AudioService", "MAX_STREAM_VOLUME", true);
+
+    @Test
+    public void profileRoundTrips() {
+        HookProfile profile = HookProfile.fromProperties(PROFILE.toProperties(), FINGERPRINT);
+        assertNotNull(profile);
+        assertEquals(FINGERPRINT, profile.getFingerprint());
+        assertEquals("com.android.server.audio.AudioService", profile.getAudioServiceClass());
+        assertEquals("MAX_STREAM_VOLUME", profile.getMaxStreamVolumeField());
+        assertTrue(profile.isMaxStreamVolumeStatic());
+    }
+
+    @Test
+    public void instanceFieldRoundTrips() {
+        HookProfile stored = new HookProfile(FINGERPRINT, "android.media.AudioService", "MAX_STREAM_VOLUME", false);
+        assertFalse(HookProfile.fromProperties(stored.toProperties(), FINGERPRINT).isMaxStreamVolumeStatic());
+    }
+
+    @Test
+    public void profileOfAnotherBuildIsIgnored() {
+        assertNull(HookProfile.fromProperties(PROFILE.toProperties(), FINGERPRINT + "-ota"));
+    }
+
+    @Test
+    public void profileOfAnotherVersionIsIgnored() {
+        Properties properties = PROFILE.toProperties();
+        properties.setProperty("version", "0");
+        assertNull(HookProfile.fromProperties(properties, FINGERPRINT));
+        properties.remove("version");
+        assertNull(HookProfile.fromProperties(properties, FINGERPRINT));
+    }
+
+    @Test
+    public void incompleteProfileIsIgnored() {
+        String[] keys = { "audio_service", "max_stream_volume", "max_stream_volume_static" };
+        for (String key : keys) {
+            Properties properties = PROFILE.toProperties();
+            properties.remove(key);
+            assertNull(key, HookProfile.fromProperties(properties, FINGERPRINT));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class IntProfileMapTest {
+    private static AppProfile profile(String packageName, int uid) {
+        int[] streams = new int[StepTable.CONFIGURABLE_STREAMS];
+        return new AppProfile(packageName, uid, streams, streams);
+    }
+
+    @Test
+    public void emptyMapFindsNothing() {
+        IntProfileMap map = new IntProfileMap(new AppProfile[0]);
+        assertNull(map.get(10000));
+        assertNull(map.get(-1));
+    }
+
+    @Test
+    public void findsProfilesOfEveryUser() {
+        AppProfile player = profile("com.example.player", 10123);
+        AppProfile radio = profile("com.example.radio", 10456);
+        IntProfileMap map = new IntProfileMap(new AppProfile[] { player, radio });
+
+        assertSame(player, map.get(10123));
+        assertSame(player, map.get(AppProfile.PER_USER_RANGE * 10 + 10123));
+        assertSame(radio, map.get(10456));
+        assertNull(map.get(10124));
+        assertNull(map.get(-10123));
+    }
+
+    @Test
+    public void laterProfileReplacesEarlier() {
+        AppProfile first = profile("com.example.player", 10123);
+        AppProfile second = profile("com.example.player", 10123);
+        assertSame(second, new IntProfileMap(new AppProfile[] { first, second }).get(10123));
+    }
+
+    @Test
+    public void collidingKeysAreProbed() {
+        AppProfile[] profiles = new AppProfile[200];
+        for (int i = 0; i < profiles.length; i++) {
+            profiles[i] = profile("com.example.app" + i, 10000 + i * 64);
+        }
+        IntProfileMap map = new IntProfileMap(profiles);
+        for (AppProfile profile : profiles) {
+            assertSame(profile, map.get(profile.getAppId()));
+        }
+        assertNull(map.get(10001));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class KeyRepeatAcceleratorTest {
+    private static final int WINDOW_MS = 300;
+    private static final int MAX_STEPS = 3;
+
+    private final KeyRepeatAccelerator mAccelerator = new KeyRepeatAccelerator();
+
+    private int adjust(int streamType, int direction, long now) {
+        return mAccelerator.onAdjust(streamType, direction, now, WINDOW_MS, MAX_STEPS);
+    }
+
+    @Test
+    public void repeatsAccelerateUpToTheMaximum() {
+        int[] expected = { 1, 1, 1, 2, 2, 2, 3, 3, 3, 3 };
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("repeat " + i, expected[i], adjust(StepTable.STREAM_MUSIC, 1, i * 100));
+        }
+    }
+
+    @Test
+    public void pauseStartsOver() {
+        for (int i = 0; i < 6; i++) adjust(StepTable.STREAM_MUSIC, 1, i * 100);
+        assertEquals(1, adjust(StepTable.STREAM_MUSIC, 1, 500 + WINDOW_MS + 1));
+    }
+
+    @Test
+    public void otherStreamOrDirectionStartsOver() {
+        for (int i = 0; i < 6; i++) adjust(StepTable.STREAM_MUSIC, 1, i * 100);
+        assertEquals(1, adjust(StepTable.STREAM_MUSIC, -1, 600));
+        for (int i = 7; i < 12; i++) adjust(StepTable.STREAM_MUSIC, -1, i * 100);
+        assertEquals(1, adjust(StepTable.STREAM_VOICE_CALL, -1, 1200));
+    }
+
+    @Test
+    public void onlySingleStepsAreAccelerated() {
+        for (int i = 0; i < 6; i++) adjust(StepTable.STREAM_MUSIC, 1, i * 100);
+        // AudioManager.ADJUST_SAME, as sent to show the volume panel
+        assertEquals(1, adjust(StepTable.STREAM_MUSIC, 0, 600));
+        assertEquals(1, adjust(StepTable.STREAM_MUSIC, 1, 700));
+    }
+
+    @Test
+    public void singleMaximumStepDisablesAcceleration() {
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1, mAccelerator.onAdjust(StepTable.STREAM_MUSIC, 1, i * 100, WINDOW_MS, 1));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyHistogramTest {
+    private final LatencyHistogram mHistogram = new LatencyHistogram();
+
+    private long[] snapshot() {
+        long[] snapshot = new long[LatencyHistogram.SNAPSHOT_SIZE];
+        mHistogram.snapshot(snapshot, 0);
+        return snapshot;
+    }
+
+    @Test
+    public void durationsFallInPowerOfTwoBuckets() {
+        mHistogram.record(0);
+        mHistogram.record(-5);
+        mHistogram.record(1);
+        mHistogram.record(1000);
+        mHistogram.record(Long.MAX_VALUE);
+        long[] snapshot = snapshot();
+        assertEquals(2, snapshot[0]);
+        assertEquals(1, snapshot[1]);
+        // 512 up to 1024
+        assertEquals(1, snapshot[10]);
+        assertEquals(1, snapshot[LatencyHistogram.BUCKETS - 1]);
+        assertEquals(5, LatencyHistogram.count(snapshot, 0));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.max(snapshot, 0));
+    }
+
+    @Test
+    public void percentileIsTheUpperBoundOfItsBucket() {
+        for (int i = 0; i < 100; i++) mHistogram.record(1000);
+        mHistogram.record(1000000);
+        long[] snapshot = snapshot();
+        assertEquals(1024, LatencyHistogram.percentile(snapshot, 0, 0.5));
+        assertEquals(1024, LatencyHistogram.percentile(snapshot, 0, 0.99));
+        // Never above the longest duration
+        assertEquals(1000000, LatencyHistogram.percentile(snapshot, 0, 1));
+    }
+
+    @Test
+    public void emptyHistogramHasNoPercentiles() {
+        long[] snapshot = snapshot();
+        assertEquals(0, LatencyHistogram.count(snapshot, 0));
+        assertEquals(0, LatencyHistogram.percentile(snapshot, 0, 0.99));
+    }
+
+    @Test
+    public void snapshotIsWrittenAtTheOffset() {
+        mHistogram.record(3);
+        long[] snapshot = new long[LatencyHistogram.SNAPSHOT_SIZE + 2];
+        mHistogram.snapshot(snapshot, 2);
+        assertEquals(0, snapshot[0]);
+        assertEquals(1, LatencyHistogram.count(snapshot, 2));
+        assertEquals(3, LatencyHistogram.max(snapshot, 2));
+    }
+}
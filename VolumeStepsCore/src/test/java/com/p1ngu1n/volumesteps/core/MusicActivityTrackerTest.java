@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MusicActivityTrackerTest {
+    private static final int WINDOW_MS = VolumePolicy.MUSIC_ACTIVE_WINDOW_MS;
+
+    private final MusicActivityTracker mTracker = new MusicActivityTracker();
+
+    @Test
+    public void activeUntilWindowAfterStop() {
+        assertFalse(mTracker.isActiveRecently(0, WINDOW_MS));
+        mTracker.onPlaybackStarted("player", 1000);
+        assertTrue(mTracker.isActiveRecently(60000, WINDOW_MS));
+        mTracker.onPlaybackStopped("player", 60000);
+        assertTrue(mTracker.isActiveRecently(60000 + WINDOW_MS, WINDOW_MS));
+        assertFalse(mTracker.isActiveRecently(60001 + WINDOW_MS, WINDOW_MS));
+    }
+
+    @Test
+    public void playingWhileAnySourcePlays() {
+        mTracker.onPlaybackStarted("player", 0);
+        mTracker.onPlaybackStarted("radio", 0);
+        mTracker.onPlaybackStopped("player", 1000);
+        assertTrue(mTracker.isActiveRecently(60000, WINDOW_MS));
+        mTracker.onPlaybackStopped("radio", 60000);
+        assertFalse(mTracker.isActiveRecently(120000, WINDOW_MS));
+    }
+
+    @Test
+    public void stopOfUnknownSourceIsNoActivity() {
+        mTracker.onPlaybackStopped("player", 1000);
+        assertFalse(mTracker.isActiveRecently(1000, WINDOW_MS));
+    }
+
+    @Test
+    public void sourceWhichNeverStopsAgesOut() {
+        mTracker.onPlaybackStarted("player", 0);
+        assertTrue(mTracker.isActiveRecently(MusicActivityTracker.MAX_PLAYING_AGE_MS, WINDOW_MS));
+        assertFalse(mTracker.isActiveRecently(MusicActivityTracker.MAX_PLAYING_AGE_MS + 1, WINDOW_MS));
+
+        // Reporting playing again keeps it playing
+        mTracker.onPlaybackStarted("player", MusicActivityTracker.MAX_PLAYING_AGE_MS);
+        assertTrue(mTracker.isActiveRecently(MusicActivityTracker.MAX_PLAYING_AGE_MS + 1, WINDOW_MS));
+    }
+
+    @Test
+    public void stopAfterAgingOutIsNoActivity() {
+        mTracker.onPlaybackStarted("player", 0);
+        long late = MusicActivityTracker.MAX_PLAYING_AGE_MS + WINDOW_MS * 2;
+        mTracker.onPlaybackStopped("player", late);
+        assertFalse(mTracker.isActiveRecently(late, WINDOW_MS));
+    }
+
+    @Test
+    public void oldestSourcesAreForgottenBeyondTheLimit() {
+        for (int i = 0; i <= MusicActivityTracker.MAX_SOURCES; i++) {
+            mTracker.onPlaybackStarted("source" + i, i);
+        }
+        // The first source was forgotten, its stop doesn't count as activity
+        for (int i = 1; i <= MusicActivityTracker.MAX_SOURCES; i++) {
+            mTracker.onPlaybackStopped("source" + i, 1000);
+        }
+        assertTrue(mTracker.isActiveRecently(1000 + WINDOW_MS, WINDOW_MS));
+        assertFalse(mTracker.isActiveRecently(1001 + WINDOW_MS, WINDOW_MS));
+        mTracker.onPlaybackStopped("source0", 100000);
+        assertFalse(mTracker.isActiveRecently(100000, WINDOW_MS));
+    }
+
+    @Test
+    public void observedActivityNeverMovesBack() {
+        mTracker.onActiveObserved(10000);
+        mTracker.onActiveObserved(2000);
+        assertTrue(mTracker.isActiveRecently(10000 + WINDOW_MS, WINDOW_MS));
+    }
+}
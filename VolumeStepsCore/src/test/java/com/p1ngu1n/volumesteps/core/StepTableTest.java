@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StepTableTest {
+    @Test
+    public void keysAreNamedAfterTheStream() {
+        assertEquals("pref_stream_music", StepTable.prefKey(StepTable.STREAM_MUSIC));
+        assertEquals("pref_curve_ring", StepTable.curvePrefKey(StepTable.STREAM_RING));
+        assertEquals("volume_music", StepTable.volumeSetting(StepTable.STREAM_MUSIC));
+    }
+
+    @Test
+    public void streamNameOfUnknownStream() {
+        assertEquals("voicecall", StepTable.streamName(StepTable.STREAM_VOICE_CALL));
+        assertEquals("stream 42", StepTable.streamName(42));
+        assertEquals("stream -1", StepTable.streamName(-1));
+    }
+
+    @Test
+    public void defaultsMatchAosp() {
+        assertEquals(5, StepTable.defaultSteps(StepTable.STREAM_VOICE_CALL));
+        assertEquals(15, StepTable.defaultSteps(StepTable.STREAM_MUSIC));
+        assertEquals(7, StepTable.defaultSteps(StepTable.STREAM_ALARM));
+    }
+
+    @Test
+    public void aliasedStreamsAreNotPersisted() {
+        assertTrue(StepTable.isVolumePersisted(StepTable.STREAM_MUSIC));
+        assertTrue(StepTable.isVolumePersisted(StepTable.STREAM_SYSTEM));
+        assertFalse(StepTable.isVolumePersisted(StepTable.STREAM_SYSTEM_ENFORCED));
+        assertFalse(StepTable.isVolumePersisted(StepTable.STREAM_DTMF));
+        assertFalse(StepTable.isVolumePersisted(StepTable.STREAM_TTS));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TraceBufferTest {
+    private static final int EVENT = 7;
+
+    @Test
+    public void capacityMustBeAPowerOfTwo() {
+        try {
+            new TraceBuffer(12);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void payloadRoundTrips() {
+        TraceBuffer buffer = new TraceBuffer(4);
+        buffer.record(EVENT, -1, -5, 100);
+        long[] out = new long[2];
+        assertEquals(1, buffer.drain(out));
+        assertEquals(100, out[0]);
+        assertEquals(EVENT, TraceBuffer.event(out[1]));
+        assertEquals(-1, TraceBuffer.streamType(out[1]));
+        assertEquals(-5, TraceBuffer.value(out[1]));
+    }
+
+    @Test
+    public void drainConsumesOldestFirst() {
+        TraceBuffer buffer = new TraceBuffer(8);
+        for (int i = 0; i < 3; i++) buffer.record(EVENT, StepTable.STREAM_MUSIC, i, i);
+        long[] out = new long[16];
+        assertEquals(3, buffer.drain(out));
+        for (int i = 0; i < 3; i++) assertEquals(i, TraceBuffer.value(out[i * 2 + 1]));
+        assertEquals(0, buffer.drain(out));
+    }
+
+    @Test
+    public void drainIsLimitedByTheOutput() {
+        TraceBuffer buffer = new TraceBuffer(8);
+        for (int i = 0; i < 3; i++) buffer.record(EVENT, StepTable.STREAM_MUSIC, i, i);
+        long[] out = new long[4];
+        assertEquals(2, buffer.drain(out));
+        assertEquals(1, buffer.drain(out));
+        assertEquals(2, TraceBuffer.value(out[1]));
+    }
+
+    @Test
+    public void overwrittenRecordsAreSkipped() {
+        TraceBuffer buffer = new TraceBuffer(4);
+        for (int i = 0; i < 6; i++) buffer.record(EVENT, StepTable.STREAM_MUSIC, i, i);
+        long[] out = new long[16];
+        assertEquals(4, buffer.drain(out));
+        assertEquals(2, TraceBuffer.value(out[1]));
+        assertEquals(5, TraceBuffer.value(out[7]));
+    }
+
+    @Test
+    public void snapshotDoesNotConsume() {
+        TraceBuffer buffer = new TraceBuffer(4);
+        for (int i = 0; i < 6; i++) buffer.record(EVENT, StepTable.STREAM_MUSIC, i, i);
+        long[] out = new long[4];
+        assertEquals(2, buffer.snapshot(out));
+        assertEquals(4, TraceBuffer.value(out[1]));
+        assertEquals(5, TraceBuffer.value(out[3]));
+        assertEquals(4, buffer.drain(new long[16]));
+    }
+
+    @Test
+    public void concurrentWritersNeverTearARecord() throws Exception {
+        // A single slot, so the writers lap each other constantly
+        final TraceBuffer buffer = new TraceBuffer(1);
+        Thread[] writers = new Thread[4];
+        for (int w = 0; w < writers.length; w++) {
+            final int writer = w;
+            writers[w] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        int value = writer * 1000000 + i;
+                        buffer.record(EVENT, writer, value, value);
+                    }
+                }
+            };
+            writers[w].start();
+        }
+
+        long[] out = new long[8];
+        boolean writing = true;
+        while (writing) {
+            writing = false;
+            for (Thread writer : writers) writing |= writer.isAlive();
+            int count = buffer.drain(out);
+            for (int i = 0; i < count; i++) {
+                // Timestamp and payload of one record always belong together
+                assertEquals(out[i * 2], TraceBuffer.value(out[i * 2 + 1]));
+                assertEquals(out[i * 2] / 1000000, TraceBuffer.streamType(out[i * 2 + 1]));
+            }
+        }
+        for (Thread writer : writers) writer.join();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VolumeCurveTest {
+    private static final int[] POINTS = VolumeCurve.DEFAULT_CONTROL_POINTS;
+
+    @Test
+    public void stockCurveHasNoTable() {
+        assertNull(VolumeCurve.compile(VolumeCurve.STOCK, 15, POINTS));
+        assertNull(VolumeCurve.compile(VolumeCurve.QUADRATIC, 0, POINTS));
+    }
+
+    @Test
+    public void quadraticCurveSquaresTheIndex() {
+        assertArrayEquals(new int[] { 0, 1, 4, 9, 16, 25, 36, 49, 64, 81, 100 },
+                VolumeCurve.compile(VolumeCurve.QUADRATIC, 10, POINTS));
+    }
+
+    @Test
+    public void customCurvePassesThroughTheControlPoints() {
+        assertArrayEquals(new int[] { 0, 10, 30, 60, 100 }, VolumeCurve.compile(VolumeCurve.CUSTOM, 4, POINTS));
+    }
+
+    @Test
+    public void everyStepChangesTheVolume() {
+        int[] table = VolumeCurve.compile(VolumeCurve.CUBIC, 50, POINTS);
+        assertEquals(0, table[0]);
+        assertEquals(VolumeCurve.NATIVE_MAX, table[50]);
+        for (int index = 1; index < table.length; index++) {
+            assertTrue("step " + index, table[index] > table[index - 1]);
+        }
+    }
+
+    @Test
+    public void previewGainGrowsWithTheIndex() {
+        assertEquals(0, VolumeCurve.previewGain(VolumeCurve.STOCK, 15, POINTS, 0), 0);
+        assertEquals(1, VolumeCurve.previewGain(VolumeCurve.STOCK, 15, POINTS, 15), 1e-6);
+        for (int index = 1; index <= 15; index++) {
+            assertTrue("index " + index, VolumeCurve.previewGain(VolumeCurve.STOCK, 15, POINTS, index)
+                    > VolumeCurve.previewGain(VolumeCurve.STOCK, 15, POINTS, index - 1));
+        }
+        // The lowest step gets quieter with more steps and with a steeper curve
+        assertTrue(VolumeCurve.previewGain(VolumeCurve.STOCK, 30, POINTS, 1) < VolumeCurve.previewGain(VolumeCurve.STOCK, 15, POINTS, 1));
+        assertTrue(VolumeCurve.previewGain(VolumeCurve.CUBIC, 15, POINTS, 1) < VolumeCurve.previewGain(VolumeCurve.STOCK, 15, POINTS, 1));
+    }
+
+    @Test
+    public void rescaledPreviewOnlyKeepsTheRounding() {
+        // 7 of 15 rescales to exactly 14 of 30
+        assertEquals(1, VolumeCurve.previewRescaledGain(VolumeCurve.STOCK, 15, 30, POINTS, 7), 1e-6);
+        // 5 of 15 rounds down to 1 of 4
+        assertTrue(VolumeCurve.previewRescaledGain(VolumeCurve.STOCK, 15, 4, POINTS, 5) < 1);
+        // 7 of 15 rounds up to 2 of 4, which can't be louder than the stream is
+        assertEquals(1, VolumeCurve.previewRescaledGain(VolumeCurve.STOCK, 15, 4, POINTS, 7), 0);
+        // A muted stream plays nothing
+        assertEquals(0, VolumeCurve.previewRescaledGain(VolumeCurve.STOCK, 15, 30, POINTS, 0), 0);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VolumeMigrationTest {
+    private static final int[] STOCK_STEPS = { 5, 7, 7, 15, 7, 7, 15, 7, 15, 15, 15 };
+
+    private static int[] withSteps(int streamType, int steps) {
+        int[] table = STOCK_STEPS.clone();
+        table[streamType] = steps;
+        return table;
+    }
+
+    @Test
+    public void stepsRoundTrip() {
+        assertEquals("5,7,7,15,7,7,15,7,15,15,15", VolumeMigration.encodeSteps(STOCK_STEPS));
+        assertArrayEquals(STOCK_STEPS, VolumeMigration.decodeSteps(VolumeMigration.encodeSteps(STOCK_STEPS)));
+    }
+
+    @Test
+    public void invalidStepsAreRejected() {
+        assertNull(VolumeMigration.decodeSteps(null));
+        assertNull(VolumeMigration.decodeSteps("5,seven"));
+        assertNull(VolumeMigration.decodeSteps("5,0"));
+        assertNull(VolumeMigration.decodeSteps("1,2,3,4,5,6,7,8,9,10,11,12"));
+    }
+
+    @Test
+    public void longestVolumeSettingWins() {
+        assertEquals(StepTable.STREAM_MUSIC, VolumeMigration.streamOfSetting("volume_music"));
+        assertEquals(StepTable.STREAM_MUSIC, VolumeMigration.streamOfSetting("volume_music_speaker"));
+        assertEquals(StepTable.STREAM_SYSTEM_ENFORCED, VolumeMigration.streamOfSetting("volume_system_enforced"));
+        assertEquals(StepTable.STREAM_SYSTEM, VolumeMigration.streamOfSetting("volume_system_headset"));
+        assertEquals(-1, VolumeMigration.streamOfSetting("volume_musical"));
+        assertEquals(-1, VolumeMigration.streamOfSetting("screen_brightness"));
+    }
+
+    @Test
+    public void changedStreamsAreRescaledPerDevice() {
+        Map<String, String> settings = new HashMap<String, String>();
+        settings.put("volume_music", "7");
+        settings.put("volume_music_headset", "15");
+        settings.put("volume_ring", "5");
+
+        Map<String, Integer> changes = VolumeMigration.migrate(settings, STOCK_STEPS, withSteps(StepTable.STREAM_MUSIC, 30));
+        assertEquals(2, changes.size());
+        assertEquals(Integer.valueOf(14), changes.get("volume_music"));
+        assertEquals(Integer.valueOf(30), changes.get("volume_music_headset"));
+    }
+
+    @Test
+    public void unpersistedAndInvalidSettingsAreIgnored() {
+        Map<String, String> settings = new HashMap<String, String>();
+        settings.put("volume_tts", "7");
+        settings.put("volume_music", "loud");
+        settings.put("volume_music_speaker", "0");
+
+        int[] newSteps = withSteps(StepTable.STREAM_TTS, 30);
+        newSteps[StepTable.STREAM_MUSIC] = 30;
+        assertTrue(VolumeMigration.migrate(settings, STOCK_STEPS, newSteps).isEmpty());
+    }
+
+    @Test
+    public void rescaledIndexStaysWithinTheNewSteps() {
+        Map<String, String> settings = new HashMap<String, String>();
+        // Persisted above the old maximum, by a device with more steps than the table says
+        settings.put("volume_alarm", "9");
+
+        Map<String, Integer> changes = VolumeMigration.migrate(settings, STOCK_STEPS, withSteps(StepTable.STREAM_ALARM, 8));
+        assertEquals(Integer.valueOf(8), changes.get("volume_alarm"));
+    }
+}
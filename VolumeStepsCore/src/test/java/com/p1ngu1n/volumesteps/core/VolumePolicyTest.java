@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VolumePolicyTest {
+    private final FakeAudioServiceProbe mProbe = new FakeAudioServiceProbe();
+
+    private int decide(int suggestedStreamType) throws Exception {
+        return VolumePolicy.decideActiveStream(suggestedStreamType, VolumePolicy.MUSIC_ACTIVE_WINDOW_MS, null, mProbe);
+    }
+
+    @Test
+    public void targetsMusicWhenNothingElseIsActive() throws Exception {
+        assertEquals(VolumePolicy.RESULT_TARGET_MUSIC, decide(VolumePolicy.USE_DEFAULT_STREAM_TYPE));
+    }
+
+    @Test
+    public void keepsSuggestedStreamWithoutQuerying() throws Exception {
+        assertEquals(VolumePolicy.RESULT_STREAM_SUGGESTED, decide(StepTable.STREAM_RING));
+        assertEquals(0, mProbe.queries);
+    }
+
+    @Test
+    public void reportsTheFirstReasonNotToTargetMusic() throws Exception {
+        mProbe.remoteMusicActive = true;
+        assertEquals(VolumePolicy.RESULT_REMOTE_ACTIVE, decide(VolumePolicy.USE_DEFAULT_STREAM_TYPE));
+        mProbe.musicActive = true;
+        assertEquals(VolumePolicy.RESULT_MUSIC_ACTIVE, decide(VolumePolicy.USE_DEFAULT_STREAM_TYPE));
+        mProbe.inCommunication = true;
+        assertEquals(VolumePolicy.RESULT_IN_COMMUNICATION, decide(VolumePolicy.USE_DEFAULT_STREAM_TYPE));
+        mProbe.voiceCapable = false;
+        assertEquals(VolumePolicy.RESULT_NOT_VOICE_CAPABLE, decide(VolumePolicy.USE_DEFAULT_STREAM_TYPE));
+    }
+
+    @Test
+    public void trackedMusicControlsMusicWhenTheAudioPolicyDisagrees() throws Exception {
+        final MusicActivityTracker tracker = new MusicActivityTracker();
+        final long now = 10 * 60 * 1000;
+        // Started long before the window of the audio policy, which wouldn't report it as active anymore
+        tracker.onPlaybackStarted("session", 0);
+        FakeAudioServiceProbe probe = new FakeAudioServiceProbe() {
+            @Override
+            public boolean isMusicActiveRecently(Object audioService, int windowMs) {
+                return tracker.isActiveRecently(now, windowMs);
+            }
+        };
+
+        int result = VolumePolicy.decideActiveStream(VolumePolicy.USE_DEFAULT_STREAM_TYPE,
+                VolumePolicy.MUSIC_ACTIVE_WINDOW_MS, null, probe);
+        assertEquals(VolumePolicy.RESULT_MUSIC_ACTIVE, result);
+        assertTrue(VolumePolicy.controlsMusic(result));
+    }
+
+    @Test
+    public void onlyMusicOutcomesControlMusic() {
+        assertTrue(VolumePolicy.controlsMusic(VolumePolicy.RESULT_TARGET_MUSIC));
+        assertFalse(VolumePolicy.controlsMusic(VolumePolicy.RESULT_STREAM_SUGGESTED));
+        assertFalse(VolumePolicy.controlsMusic(VolumePolicy.RESULT_NOT_VOICE_CAPABLE));
+        assertFalse(VolumePolicy.controlsMusic(VolumePolicy.RESULT_IN_COMMUNICATION));
+        assertFalse(VolumePolicy.controlsMusic(VolumePolicy.RESULT_REMOTE_ACTIVE));
+    }
+
+    @Test
+    public void safeHeadsetVolumeIsTwoThirdsOfMusic() {
+        assertEquals(10, VolumePolicy.safeHeadsetVolumeIndex(15));
+        assertEquals(20, VolumePolicy.safeHeadsetVolumeIndex(30));
+    }
+
+    @Test
+    public void rescaleIndexRoundsLikeAudioService() {
+        assertEquals(20, VolumePolicy.rescaleIndex(10, 15, 30));
+        assertEquals(5, VolumePolicy.rescaleIndex(10, 30, 15));
+        assertEquals(8, VolumePolicy.rescaleIndex(15, 30, 15));
+        assertEquals(0, VolumePolicy.rescaleIndex(0, 15, 30));
+    }
+
+    @Test
+    public void rampIndexEndsAtTarget() {
+        assertEquals(4, VolumePolicy.rampIndex(4, 12, 0, 8));
+        assertEquals(8, VolumePolicy.rampIndex(4, 12, 4, 8));
+        assertEquals(12, VolumePolicy.rampIndex(4, 12, 8, 8));
+        assertEquals(12, VolumePolicy.rampIndex(4, 12, 9, 8));
+        assertEquals(8, VolumePolicy.rampIndex(12, 4, 4, 8));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.core;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class VolumePresetTest {
+    private static Map<String, Object> prefs() {
+        Map<String, Object> prefs = new HashMap<String, Object>();
+        prefs.put(StepTable.prefKey(StepTable.STREAM_MUSIC), 30);
+        prefs.put(StepTable.curvePrefKey(StepTable.STREAM_MUSIC), String.valueOf(VolumeCurve.CUBIC));
+        prefs.put("pref_volume_keys_control_music", true);
+        prefs.put("pref_key_acceleration", 4);
+        return prefs;
+    }
+
+    @Test
+    public void formatAndParseRoundTrip() {
+        VolumePreset car = VolumePreset.capture("car", prefs());
+        VolumePreset office = VolumePreset.capture("office", new HashMap<String, Object>());
+        String stored = VolumePreset.format(new VolumePreset[] { car, office });
+
+        VolumePreset[] parsed = VolumePreset.parse(stored);
+        assertEquals(2, parsed.length);
+        assertEquals("car", parsed[0].getName());
+        assertEquals(car.getValues(), parsed[0].getValues());
+        assertEquals(office.getValues(), parsed[1].getValues());
+        assertEquals(stored, VolumePreset.format(parsed));
+    }
+
+    @Test
+    public void valuesAreTypedAsTheSettingsStoreThem() {
+        Map<String, Object> values = VolumePreset.capture("car", prefs()).getValues();
+        assertEquals(30, values.get(StepTable.prefKey(StepTable.STREAM_MUSIC)));
+        assertEquals(String.valueOf(VolumeCurve.CUBIC), values.get(StepTable.curvePrefKey(StepTable.STREAM_MUSIC)));
+        assertEquals(String.valueOf(VolumeCurve.STOCK), values.get(StepTable.curvePrefKey(StepTable.STREAM_RING)));
+        assertEquals(Boolean.TRUE, values.get("pref_volume_keys_control_music"));
+        assertEquals(Boolean.FALSE, values.get("pref_safe_headset_volume_disabled"));
+        // Steps which were never set return to the default of the device
+        assertNull(values.get(StepTable.prefKey(StepTable.STREAM_RING)));
+        assertEquals(true, values.containsKey(StepTable.prefKey(StepTable.STREAM_RING)));
+    }
+
+    @Test
+    public void parseSkipsMalformedEntries() {
+        String valid = VolumePreset.format(new VolumePreset[] { VolumePreset.capture("car", prefs()) });
+        VolumePreset[] parsed = VolumePreset.parse("broken;:1:2:3;name:x:0:0;" + valid + ";a:b");
+        assertEquals(1, parsed.length);
+        assertEquals("car", parsed[0].getName());
+        assertEquals(0, VolumePreset.parse(null).length);
+    }
+
+    @Test
+    public void parseFillsSettingsStoredBeforeTheyExisted() {
+        VolumePreset[] parsed = VolumePreset.parse("old:15,7:0:1");
+        assertEquals(1, parsed.length);
+        Map<String, Object> values = parsed[0].getValues();
+        assertEquals(15, values.get(StepTable.prefKey(StepTable.STREAM_VOICE_CALL)));
+        assertEquals(7, values.get(StepTable.prefKey(StepTable.STREAM_SYSTEM)));
+        assertNull(values.get(StepTable.prefKey(StepTable.STREAM_RING)));
+        assertEquals(String.valueOf(VolumeCurve.STOCK), values.get(StepTable.curvePrefKey(StepTable.STREAM_RING)));
+        assertNull(values.get("pref_key_repeat_window"));
+    }
+
+    @Test
+    public void cleanNameDropsSeparators() {
+        assertEquals("a b c", VolumePreset.cleanName(" a:b;c "));
+    }
+}
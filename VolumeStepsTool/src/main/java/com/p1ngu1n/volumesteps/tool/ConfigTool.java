@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.tool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+
+import com.p1ngu1n.volumesteps.core.ConfigCodec;
+import com.p1ngu1n.volumesteps.core.MapConfigSource;
+import com.p1ngu1n.volumesteps.core.VolumeConfig;
+
+/**
+ * Validates a profile and writes the preferences and the binary config of each of its variants, without a device.
+ * The files of a variant are written to [output]/[variant]/shared_prefs, the layout of the data directory of the
+ * settings app, and are readable for everyone as the module requires. The binary config is stamped with the
+ * preferences written next to it, the module ignores it once the preferences are replaced without it. A binary
+ * config written on its own isn't tied to any preferences. Exits with status 1 if the profile is invalid and 2 on
+ * a usage error.
+ *
+ * Run with: java -cp VolumeStepsTool/build/classes/main:VolumeStepsCore/build/classes/main com.p1ngu1n.volumesteps.tool.ConfigTool [--check] [--binary-only] profile [output]
+ */
+public final class ConfigTool {
+    private static final String PREFS_FILE_NAME = "com.p1ngu1n.volumesteps_preferences.xml";
+
+    private ConfigTool() { }
+
+    public static void main(String[] args) throws IOException {
+        boolean checkOnly = false;
+        boolean writePrefs = true;
+        int argIndex = 0;
+        for (; argIndex < args.length && args[argIndex].startsWith("--"); argIndex++) {
+            if (args[argIndex].equals("--check")) {
+                checkOnly = true;
+            } else if (args[argIndex].equals("--binary-only")) {
+                writePrefs = false;
+            } else {
+                usage("Unknown option " + args[argIndex]);
+            }
+        }
+        if (args.length - argIndex != (checkOnly ? 1 : 2)) usage(null);
+
+        File profileFile = new File(args[argIndex]);
+        ProfileFile profile = ProfileFile.read(profileFile);
+        if (!profile.getErrors().isEmpty()) {
+            for (String error : profile.getErrors()) {
+                System.err.println(profileFile + ": " + error);
+            }
+            System.exit(1);
+        }
+        if (checkOnly) {
+            System.out.println(profileFile + ": " + profile.getVariants().size() + " valid variant(s)");
+            return;
+        }
+
+        File outputDir = new File(args[argIndex + 1]);
+        for (Map.Entry<String, Map<String, Object>> variant : profile.getVariants().entrySet()) {
+            File prefsDir = new File(new File(outputDir, variant.getKey()), "shared_prefs");
+            if (!prefsDir.isDirectory() && !prefsDir.mkdirs()) throw new IOException("Unable to create " + prefsDir);
+
+            long source = ConfigCodec.NO_SOURCE;
+            if (writePrefs) {
+                File prefsFile = new File(prefsDir, PREFS_FILE_NAME);
+                PreferencesWriter.write(prefsFile, variant.getValue());
+                prefsFile.setReadable(true, false);
+                byte[] prefs = Files.readAllBytes(prefsFile.toPath());
+                source = ConfigCodec.stamp(prefs, prefs.length);
+            }
+            File configFile = new File(prefsDir, ConfigCodec.FILE_NAME);
+            writeBinary(configFile, VolumeConfig.load(new MapConfigSource(variant.getValue())), source);
+            configFile.setReadable(true, false);
+            System.out.println(variant.getKey() + ": " + prefsDir);
+        }
+    }
+
+    private static void writeBinary(File file, VolumeConfig config, long source) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(ConfigCodec.encode(config, source));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void usage(String message) {
+        if (message != null) System.err.println(message);
+        System.err.println("Usage: ConfigTool [--check] [--binary-only] profile [output]");
+        System.err.println("  --check        Only validate the profile, no output directory is given");
+        System.err.println("  --binary-only  Only write the binary config of each variant, used whatever preferences are next to it");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.tool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Writes preferences in the XML format of SharedPreferences, so the file can be pushed to a device as is.
+ */
+final class PreferencesWriter {
+    private PreferencesWriter() { }
+
+    /**
+     * @param file The file to write
+     * @param values The Integer, Boolean and String preferences by key
+     */
+    static void write(File file, Map<String, Object> values) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                String name = escape(entry.getKey());
+                Object value = entry.getValue();
+                if (value instanceof Integer) {
+                    writer.write("    <int name=\"" + name + "\" value=\"" + value + "\" />\n");
+                } else if (value instanceof Boolean) {
+                    writer.write("    <boolean name=\"" + name + "\" value=\"" + value + "\" />\n");
+                } else {
+                    writer.write("    <string name=\"" + name + "\">" + escape(value.toString()) + "</string>\n");
+                }
+            }
+            writer.write("</map>\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String escape(String text) {
+        StringBuilder builder = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    builder.append("&amp;");
+                    break;
+                case '<':
+                    builder.append("&lt;");
+                    break;
+                case '>':
+                    builder.append("&gt;");
+                    break;
+                case '"':
+                    builder.append("&quot;");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+}
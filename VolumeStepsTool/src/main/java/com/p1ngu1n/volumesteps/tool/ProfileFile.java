@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2014  P1nGu1n
+ *
+ * This file is part of VolumeSteps+.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.p1ngu1n.volumesteps.tool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.p1ngu1n.volumesteps.core.AppProfile;
+import com.p1ngu1n.volumesteps.core.PreferenceRules;
+import com.p1ngu1n.volumesteps.core.StepRange;
+import com.p1ngu1n.volumesteps.core.StepTable;
+
+/**
+ * A declarative profile, holding the preferences of one or more device variants. It is a properties file of which
+ * the keys are the preference keys of the settings. Keys prefixed by the name of a variant and a dot only apply to
+ * that variant and override the shared value:
+ *
+ * <pre>
+ * variants = nexus5,lg-g3
+ * pref_stream_music = 30
+ * pref_curve_music = quadratic
+ * lg-g3.pref_compatibility_mode_lg = true
+ * </pre>
+ *
+ * Without a variants key there is a single variant named "default". The values are validated against the same
+ * rules the settings enforce, every invalid value is reported instead of only the first.
+ */
+final class ProfileFile {
+    private static final String VARIANTS_KEY = "variants";
+    private static final String DEFAULT_VARIANT = "default";
+    // Indexed by the VolumeCurve constants
+    private static final String[] CURVE_NAMES = { "stock", "quadratic", "cubic", "custom" };
+
+    // Preferences of each variant, by key, in the order of the variants key
+    private final Map<String, Map<String, Object>> mVariants = new LinkedHashMap<String, Map<String, Object>>();
+    private final List<String> mErrors = new ArrayList<String>();
+
+    private ProfileFile() { }
+
+    /**
+     * Read and validate a profile.
+     * @param file The properties file, encoded in UTF-8
+     * @return The profile, check getErrors before using its variants
+     */
+    static ProfileFile read(File file) throws IOException {
+        Properties properties = new Properties();
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            properties.load(reader);
+        } finally {
+            reader.close();
+        }
+
+        ProfileFile profile = new ProfileFile();
+        profile.parse(properties);
+        return profile;
+    }
+
+    /**
+     * @return The preferences of each variant by its name, in the order the profile lists them
+     */
+    Map<String, Map<String, Object>> getVariants() {
+        return Collections.unmodifiableMap(mVariants);
+    }
+
+    /**
+     * @return The problems found in the profile, empty if it is valid
+     */
+    List<String> getErrors() {
+        return Collections.unmodifiableList(mErrors);
+    }
+
+    private void parse(Properties properties) {
+        List<String> names = Arrays.asList(properties.getProperty(VARIANTS_KEY, DEFAULT_VARIANT).trim().split("\\s*,\\s*"));
+        for (String name : names) {
+            // Variants become directory names
+            if (!name.matches("[A-Za-z0-9_-]+")) {
+                mErrors.add(VARIANTS_KEY + ": invalid variant name '" + name + "'");
+            } else if (mVariants.put(name, new TreeMap<String, Object>()) != null) {
+                mErrors.add(VARIANTS_KEY + ": variant '" + name + "' is listed twice");
+            }
+        }
+
+        // Shared values first, so the values of a variant override them
+        Map<String, Object> shared = new TreeMap<String, Object>();
+        Map<String, Map<String, Object>> overrides = new TreeMap<String, Map<String, Object>>();
+        for (String key : new TreeSet<String>(properties.stringPropertyNames())) {
+            if (key.equals(VARIANTS_KEY)) continue;
+
+            String rawValue = properties.getProperty(key).trim();
+            int dot = key.indexOf('.');
+            if (dot < 0) {
+                Object value = parseValue(key, key, rawValue);
+                if (value != null) shared.put(key, value);
+                continue;
+            }
+
+            String variant = key.substring(0, dot);
+            if (!mVariants.containsKey(variant)) {
+                mErrors.add(key + ": unknown variant '" + variant + "'");
+                continue;
+            }
+            Object value = parseValue(key, key.substring(dot + 1), rawValue);
+            if (value == null) continue;
+            if (!overrides.containsKey(variant)) overrides.put(variant, new TreeMap<String, Object>());
+            overrides.get(variant).put(key.substring(dot + 1), value);
+        }
+
+        for (Map.Entry<String, Map<String, Object>> variant : mVariants.entrySet()) {
+            variant.getValue().putAll(shared);
+            if (overrides.containsKey(variant.getKey())) {
+                variant.getValue().putAll(overrides.get(variant.getKey()));
+            }
+        }
+    }
+
+    /**
+     * Parse a value the way the preference stores it.
+     * @param label The key in the profile, used in errors
+     * @param key The key of the preference
+     * @param rawValue The value in the profile
+     * @return The value as stored by the preference, null if it is invalid
+     */
+    private Object parseValue(String label, String key, String rawValue) {
+        switch (PreferenceRules.typeOf(key)) {
+            case PreferenceRules.TYPE_INT:
+                return parseInt(label, rawValue, PreferenceRules.rangeOf(key));
+            case PreferenceRules.TYPE_BOOLEAN:
+                if (rawValue.equals("true") || rawValue.equals("false")) return Boolean.valueOf(rawValue);
+                mErrors.add(label + ": expected true or false, not '" + rawValue + "'");
+                return null;
+            case PreferenceRules.TYPE_STRING:
+                if (key.equals("pref_app_profiles")) return parseAppProfiles(label, rawValue);
+                return parseCurve(label, rawValue);
+            default:
+                mErrors.add(label + ": unknown preference");
+                return null;
+        }
+    }
+
+    private Integer parseInt(String label, String rawValue, StepRange range) {
+        int value;
+        try {
+            value = Integer.parseInt(rawValue);
+        } catch (NumberFormatException e) {
+            mErrors.add(label + ": expected a number, not '" + rawValue + "'");
+            return null;
+        }
+        if (!range.contains(value)) {
+            mErrors.add(label + ": " + value + " is not one of " + describe(range));
+            return null;
+        }
+        return value;
+    }
+
+    // ListPreference stores the curve constant as a string
+    private String parseCurve(String label, String rawValue) {
+        for (int curve = 0; curve < CURVE_NAMES.length; curve++) {
+            if (rawValue.equals(CURVE_NAMES[curve]) || rawValue.equals(String.valueOf(curve))) {
+                return String.valueOf(curve);
+            }
+        }
+        mErrors.add(label + ": expected one of " + Arrays.toString(CURVE_NAMES) + ", not '" + rawValue + "'");
+        return null;
+    }
+
+    /**
+     * Validate app profiles in the form AppProfile.parse reads, which silently skips malformed entries.
+     */
+    private String parseAppProfiles(String label, String rawValue) {
+        int entries = 0;
+        for (String entry : rawValue.split(";")) {
+            if (!entry.isEmpty()) entries++;
+        }
+        AppProfile[] profiles = AppProfile.parse(rawValue);
+        if (profiles.length != entries) {
+            mErrors.add(label + ": " + (entries - profiles.length) + " malformed app profile(s)");
+            return null;
+        }
+
+        boolean valid = true;
+        for (AppProfile profile : profiles) {
+            for (int streamType = 0; streamType < StepTable.CONFIGURABLE_STREAMS; streamType++) {
+                int steps = profile.getSteps(streamType);
+                int level = profile.getLevel(streamType);
+                if (steps != AppProfile.UNCHANGED && !PreferenceRules.STEPS.contains(steps)) {
+                    mErrors.add(label + ": " + profile.getPackageName() + " sets " + StepTable.streamName(streamType)
+                            + " to " + steps + " steps, not one of " + describe(PreferenceRules.STEPS));
+                    valid = false;
+                }
+                if (level != AppProfile.UNCHANGED && !PreferenceRules.LEVEL.contains(level)) {
+                    mErrors.add(label + ": " + profile.getPackageName() + " sets " + StepTable.streamName(streamType)
+                            + " to " + level + "%, not one of " + describe(PreferenceRules.LEVEL));
+                    valid = false;
+                }
+            }
+        }
+        return (valid ? rawValue : null);
+    }
+
+    private static String describe(StepRange range) {
+        return range.getMin() + ".." + range.getMax() + (range.getInterval() != 1 ? " in steps of " + range.getInterval() : "");
+    }
+}